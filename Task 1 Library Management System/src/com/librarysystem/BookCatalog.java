@@ -0,0 +1,61 @@
+package com.librarysystem;
+
+import java.util.List;
+
+/**
+ * Holds the books of the library, keyed by book ID.
+ * Every mutation is persisted before the method returns.
+ */
+public interface BookCatalog extends AutoCloseable {
+
+    /**
+     * Retrieves a book by its ID.
+     * @param id The ID of the book to retrieve.
+     * @return The Book object if found, null otherwise.
+     */
+    Book get(String id);
+
+    /**
+     * Checks whether a book with the given ID exists.
+     * @param id The ID of the book to check.
+     * @return True if the book exists, false otherwise.
+     */
+    boolean contains(String id);
+
+    /**
+     * Inserts a book, or replaces the stored copy of a book with the same ID.
+     * Callers that modify a Book returned by {@link #get(String)} must put it back.
+     * @param book The Book object to store.
+     */
+    void put(Book book);
+
+    /**
+     * Removes a book by its ID.
+     * @param id The ID of the book to remove.
+     * @return True if the book was removed, false if it was not found.
+     */
+    boolean remove(String id);
+
+    /**
+     * Returns all books in the catalog.
+     * @return A new list containing all books.
+     */
+    List<Book> getAll();
+
+    /**
+     * Returns the number of books in the catalog.
+     * @return The book count.
+     */
+    int size();
+
+    /**
+     * Forces any buffered state to durable storage.
+     */
+    void flush();
+
+    /**
+     * Forces any buffered state to durable storage and releases any files held by the catalog.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,169 @@
+package com.librarysystem;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Holds borrowing records ordered by their time-ordered record key.
+ * Because new keys are always increasing, appending keeps the order for free, and a time range lookup is a binary
+ * search for the first key followed by a sequential scan. The open loans, records without a return date, are also
+ * indexed by book ID, so returning a book does not scan the history.
+ */
+public class BorrowingHistory {
+    private final ArrayList<BorrowingRecord> records;
+    // The oldest open loan of each book.
+    private final Map<String, BorrowingRecord> openLoans = new HashMap<>();
+
+    /**
+     * Constructs a history from existing records, sorting them by record key.
+     * @param records The records to hold.
+     */
+    public BorrowingHistory(Collection<BorrowingRecord> records) {
+        this.records = new ArrayList<>(records);
+        this.records.sort(Comparator.comparingLong(BorrowingRecord::getRecordKey));
+        for (BorrowingRecord record : this.records) {
+            indexLoan(record);
+        }
+    }
+
+    /**
+     * Adds a record, keeping the history ordered.
+     * @param record The record to add.
+     */
+    public void add(BorrowingRecord record) {
+        int size = records.size();
+        if (size == 0 || records.get(size - 1).getRecordKey() <= record.getRecordKey()) {
+            records.add(record);
+        } else {
+            records.add(lowerBound(record.getRecordKey()), record);
+        }
+        indexLoan(record);
+    }
+
+    /**
+     * Removes all records matching a filter.
+     * @param filter The filter selecting records to remove.
+     * @return The records that were removed.
+     */
+    public List<BorrowingRecord> removeIf(Predicate<BorrowingRecord> filter) {
+        List<BorrowingRecord> removed = new ArrayList<>();
+        records.removeIf(record -> {
+            if (filter.test(record)) {
+                removed.add(record);
+                return true;
+            }
+            return false;
+        });
+        for (BorrowingRecord record : removed) {
+            openLoans.remove(record.getBookId(), record);
+        }
+        return removed;
+    }
+
+    /**
+     * Finds a book's open loan.
+     * @param bookId The ID of the book.
+     * @return The oldest record for the book without a return date, or null if the book is not on loan.
+     */
+    public BorrowingRecord findOpenLoan(String bookId) {
+        return openLoans.get(bookId);
+    }
+
+    /**
+     * Closes a book's open loan by setting its return date.
+     * @param bookId The ID of the book.
+     * @param returnDate The date the book was returned.
+     * @return The record that was closed, or null if the book was not on loan.
+     */
+    public BorrowingRecord closeLoan(String bookId, LocalDateTime returnDate) {
+        BorrowingRecord record = openLoans.remove(bookId);
+        if (record != null) {
+            record.setReturnDate(returnDate);
+        }
+        return record;
+    }
+
+    /**
+     * Finds the oldest record matching a filter.
+     * @param filter The filter to match.
+     * @return The first matching record, or null if none matches.
+     */
+    public BorrowingRecord findFirst(Predicate<BorrowingRecord> filter) {
+        for (BorrowingRecord record : records) {
+            if (filter.test(record)) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the records whose IDs were minted in the half-open interval [from, to).
+     * @param from The start of the interval, inclusive.
+     * @param to The end of the interval, exclusive.
+     * @return A new list of matching records in ID order.
+     */
+    public List<BorrowingRecord> between(LocalDateTime from, LocalDateTime to) {
+        long fromKey = RecordIdGenerator.lowerBound(toEpochMillis(from));
+        long toKey = RecordIdGenerator.lowerBound(toEpochMillis(to));
+        List<BorrowingRecord> result = new ArrayList<>();
+        for (int i = lowerBound(fromKey); i < records.size(); i++) {
+            BorrowingRecord record = records.get(i);
+            if (record.getRecordKey() >= toKey) {
+                break;
+            }
+            result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of records.
+     * @return The record count.
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Returns all records in ID order.
+     * @return A new list containing all records.
+     */
+    public List<BorrowingRecord> toList() {
+        return new ArrayList<>(records);
+    }
+
+    private void indexLoan(BorrowingRecord record) {
+        if (record.getReturnDate() == null) {
+            openLoans.putIfAbsent(record.getBookId(), record);
+        }
+    }
+
+    /**
+     * Returns the index of the first record whose key is not less than the given key.
+     */
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = records.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (records.get(mid).getRecordKey() < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
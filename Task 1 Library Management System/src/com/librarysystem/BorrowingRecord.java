@@ -2,14 +2,18 @@ package com.librarysystem;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 /**
  * Represents a record of a book being borrowed or returned.
+ * Records are identified by a time-ordered long ID from {@link RecordIdGenerator}. Records created before those
+ * IDs were introduced keep their original UUID string, and are given a sort key derived from their borrow date.
  */
 public class BorrowingRecord implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private String recordId;
+    private static final long serialVersionUID = 2L;
+    private long recordId;
+    private String legacyId;
     private String bookId;
     private String borrowerName;
     private LocalDateTime borrowDate;
@@ -17,12 +21,12 @@ public class BorrowingRecord implements Serializable {
 
     /**
      * Constructs a new BorrowingRecord for a borrowed book.
-     * @param recordId A unique ID for this record.
+     * @param recordId A unique time-ordered ID for this record.
      * @param bookId The ID of the book being borrowed.
      * @param borrowerName The name of the borrower.
      * @param borrowDate The date and time the book was borrowed.
      */
-    public BorrowingRecord(String recordId, String bookId, String borrowerName, LocalDateTime borrowDate) {
+    public BorrowingRecord(long recordId, String bookId, String borrowerName, LocalDateTime borrowDate) {
         this.recordId = recordId;
         this.bookId = bookId;
         this.borrowerName = borrowerName;
@@ -31,10 +35,38 @@ public class BorrowingRecord implements Serializable {
     }
 
     /**
-     * Returns the unique ID of this record.
+     * Constructs a BorrowingRecord from a stored record ID, which is either a numeric ID or a legacy UUID string.
+     * @param recordId The stored record ID.
+     * @param bookId The ID of the book being borrowed.
+     * @param borrowerName The name of the borrower.
+     * @param borrowDate The date and time the book was borrowed.
+     * @return The reconstructed record.
+     */
+    public static BorrowingRecord fromStoredId(String recordId, String bookId, String borrowerName, LocalDateTime borrowDate) {
+        try {
+            return new BorrowingRecord(Long.parseLong(recordId), bookId, borrowerName, borrowDate);
+        } catch (NumberFormatException e) {
+            long millis = borrowDate.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            long lowBits = recordId.hashCode() & ((1L << (RecordIdGenerator.SEQUENCE_BITS + RecordIdGenerator.NODE_BITS)) - 1);
+            BorrowingRecord record = new BorrowingRecord(RecordIdGenerator.lowerBound(millis) | lowBits, bookId, borrowerName, borrowDate);
+            record.legacyId = recordId;
+            return record;
+        }
+    }
+
+    /**
+     * Returns the unique ID of this record as stored and displayed.
      * @return The record ID.
      */
     public String getRecordId() {
+        return legacyId != null ? legacyId : Long.toString(recordId);
+    }
+
+    /**
+     * Returns the time-ordered key of this record, used to order the borrowing history.
+     * @return The record key.
+     */
+    public long getRecordKey() {
         return recordId;
     }
 
@@ -85,7 +117,7 @@ public class BorrowingRecord implements Serializable {
     @Override
     public String toString() {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        return "Record ID: " + recordId +
+        return "Record ID: " + getRecordId() +
                ", Book ID: " + bookId +
                ", Borrower: " + borrowerName +
                ", Borrow Date: " + borrowDate.format(formatter) +
@@ -8,11 +8,13 @@ import java.util.List;
 
 /**
  * Handles reading and writing Book and BorrowingRecord data to files for persistence.
+ * The files live in the working directory, or in the directory named by the {@code library.data.dir} system property.
  */
 public class FileHandler {
 
-    private static final String BOOKS_FILE_NAME = "library_data.txt";
-    private static final String RECORDS_FILE_NAME = "borrowing_records.txt";
+    private static final String DATA_DIR = System.getProperty("library.data.dir", ".");
+    private static final String BOOKS_FILE_NAME = new File(DATA_DIR, "library_data.txt").getPath();
+    private static final String RECORDS_FILE_NAME = new File(DATA_DIR, "borrowing_records.txt").getPath();
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     /**
@@ -87,7 +89,7 @@ public class FileHandler {
                     LocalDateTime borrowDate = LocalDateTime.parse(parts[3], FORMATTER);
                     LocalDateTime returnDate = parts[4].equals("null") ? null : LocalDateTime.parse(parts[4], FORMATTER);
 
-                    BorrowingRecord record = new BorrowingRecord(recordId, bookId, borrowerName, borrowDate);
+                    BorrowingRecord record = BorrowingRecord.fromStoredId(recordId, bookId, borrowerName, borrowDate);
                     record.setReturnDate(returnDate);
                     records.add(record);
                 }
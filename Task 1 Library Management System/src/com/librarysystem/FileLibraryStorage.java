@@ -0,0 +1,91 @@
+package com.librarysystem;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the library in the tab-separated data files through FileHandler.
+ * The files cannot be updated in place, so every point operation rewrites the affected file from the
+ * objects this storage loaded or was given.
+ */
+public class FileLibraryStorage implements LibraryStorage {
+    private final Map<String, Book> books = new LinkedHashMap<>();
+    private final Map<Long, BorrowingRecord> records = new LinkedHashMap<>();
+
+    @Override
+    public List<Book> loadBooks() {
+        books.clear();
+        for (Book book : FileHandler.loadBooks()) {
+            books.put(book.getId(), book);
+        }
+        return new ArrayList<>(books.values());
+    }
+
+    @Override
+    public List<BorrowingRecord> loadBorrowingRecords() {
+        records.clear();
+        for (BorrowingRecord record : FileHandler.loadBorrowingRecords()) {
+            records.put(record.getRecordKey(), record);
+        }
+        return new ArrayList<>(records.values());
+    }
+
+    @Override
+    public void insertBook(Book book) {
+        books.put(book.getId(), book);
+        FileHandler.saveBooks(new ArrayList<>(books.values()));
+    }
+
+    @Override
+    public void updateBook(Book book) {
+        insertBook(book);
+    }
+
+    @Override
+    public void deleteBook(String id) {
+        books.remove(id);
+        FileHandler.saveBooks(new ArrayList<>(books.values()));
+    }
+
+    @Override
+    public void insertBorrowingRecord(BorrowingRecord record) {
+        records.put(record.getRecordKey(), record);
+        FileHandler.saveBorrowingRecords(new ArrayList<>(records.values()));
+    }
+
+    @Override
+    public void updateBorrowingRecord(BorrowingRecord record) {
+        insertBorrowingRecord(record);
+    }
+
+    @Override
+    public void deleteBorrowingRecord(BorrowingRecord record) {
+        records.remove(record.getRecordKey());
+        FileHandler.saveBorrowingRecords(new ArrayList<>(records.values()));
+    }
+
+    @Override
+    public void saveBooks(List<Book> books) {
+        this.books.clear();
+        for (Book book : books) {
+            this.books.put(book.getId(), book);
+        }
+        FileHandler.saveBooks(books);
+    }
+
+    @Override
+    public void saveBorrowingRecords(List<BorrowingRecord> records) {
+        this.records.clear();
+        for (BorrowingRecord record : records) {
+            this.records.put(record.getRecordKey(), record);
+        }
+        FileHandler.saveBorrowingRecords(records);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release; every change is already written.
+    }
+}
@@ -0,0 +1,74 @@
+package com.librarysystem;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the whole catalog in memory and writes every change through to a LibraryStorage.
+ * Books are indexed by ID so existence checks are a single hash lookup.
+ */
+public class InMemoryBookCatalog implements BookCatalog {
+    private final Map<String, Book> books = new LinkedHashMap<>();
+    private final LibraryStorage storage;
+
+    /**
+     * Constructs a new in-memory catalog and loads existing books from the given storage.
+     * @param storage The storage that books are loaded from and written to.
+     */
+    public InMemoryBookCatalog(LibraryStorage storage) {
+        this.storage = storage;
+        for (Book book : storage.loadBooks()) {
+            books.put(book.getId(), book);
+        }
+    }
+
+    @Override
+    public Book get(String id) {
+        return books.get(id);
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return books.containsKey(id);
+    }
+
+    @Override
+    public void put(Book book) {
+        if (books.put(book.getId(), book) == null) {
+            storage.insertBook(book);
+        } else {
+            storage.updateBook(book);
+        }
+    }
+
+    @Override
+    public boolean remove(String id) {
+        if (books.remove(id) != null) {
+            storage.deleteBook(id);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public List<Book> getAll() {
+        return new ArrayList<>(books.values());
+    }
+
+    @Override
+    public int size() {
+        return books.size();
+    }
+
+    @Override
+    public void flush() {
+        storage.saveBooks(new ArrayList<>(books.values()));
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release; every change is already written through, and the storage is closed by its owner.
+    }
+}
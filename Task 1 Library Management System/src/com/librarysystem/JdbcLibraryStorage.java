@@ -0,0 +1,331 @@
+package com.librarysystem;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Stores the library in an embedded database through JDBC, for example H2 ({@code jdbc:h2:./library})
+ * or SQLite ({@code jdbc:sqlite:library.db}). The driver must be on the classpath.
+ * Books are keyed by ID and borrowing records by record key, and borrowing records are indexed by borrower and by
+ * book and return date, so a book's loans and its open loan can be found without a scan. Each change is a
+ * single-row statement, and saving the complete state only writes the rows that differ from it.
+ */
+public class JdbcLibraryStorage implements LibraryStorage {
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS books (" +
+            "id VARCHAR(255) PRIMARY KEY, " +
+            "title VARCHAR(1024) NOT NULL, " +
+            "author VARCHAR(1024) NOT NULL, " +
+            "borrowed BOOLEAN NOT NULL, " +
+            "borrowed_by VARCHAR(255))",
+        "CREATE TABLE IF NOT EXISTS borrowing_records (" +
+            "record_key BIGINT PRIMARY KEY, " +
+            "record_id VARCHAR(64) NOT NULL, " +
+            "book_id VARCHAR(255) NOT NULL, " +
+            "borrower VARCHAR(255) NOT NULL, " +
+            "borrow_date TIMESTAMP NOT NULL, " +
+            "return_date TIMESTAMP)",
+        "CREATE INDEX IF NOT EXISTS idx_records_borrower ON borrowing_records (borrower)",
+        // Leads with book_id, so it also serves lookups of all of a book's records.
+        "CREATE INDEX IF NOT EXISTS idx_records_open_loans ON borrowing_records (book_id, return_date)"
+    };
+
+    private final Connection connection;
+    private final PreparedStatement insertBook;
+    private final PreparedStatement updateBook;
+    private final PreparedStatement deleteBook;
+    private final PreparedStatement insertRecord;
+    private final PreparedStatement updateRecord;
+    private final PreparedStatement deleteRecord;
+
+    /**
+     * Opens the database at the given JDBC URL, creating the tables and indexes if needed.
+     * If the database is empty, the books and records in the flat data files are imported.
+     * @param url The JDBC URL of the embedded database.
+     */
+    public JdbcLibraryStorage(String url) {
+        try {
+            System.out.println("JdbcLibraryStorage: Opening " + url);
+            this.connection = DriverManager.getConnection(url);
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            insertBook = connection.prepareStatement(
+                    "INSERT INTO books (title, author, borrowed, borrowed_by, id) VALUES (?, ?, ?, ?, ?)");
+            updateBook = connection.prepareStatement(
+                    "UPDATE books SET title = ?, author = ?, borrowed = ?, borrowed_by = ? WHERE id = ?");
+            deleteBook = connection.prepareStatement("DELETE FROM books WHERE id = ?");
+            insertRecord = connection.prepareStatement(
+                    "INSERT INTO borrowing_records (record_id, book_id, borrower, borrow_date, return_date, record_key) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)");
+            updateRecord = connection.prepareStatement(
+                    "UPDATE borrowing_records SET record_id = ?, book_id = ?, borrower = ?, borrow_date = ?, return_date = ? " +
+                    "WHERE record_key = ?");
+            deleteRecord = connection.prepareStatement("DELETE FROM borrowing_records WHERE record_key = ?");
+            if (isEmpty()) {
+                importFlatFiles();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not open library database " + url, e);
+        }
+    }
+
+    private boolean isEmpty() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(
+                     "SELECT (SELECT COUNT(*) FROM books) + (SELECT COUNT(*) FROM borrowing_records)")) {
+            return rs.next() && rs.getLong(1) == 0;
+        }
+    }
+
+    private void importFlatFiles() {
+        List<Book> books = FileHandler.loadBooks();
+        List<BorrowingRecord> records = FileHandler.loadBorrowingRecords();
+        if (!books.isEmpty() || !records.isEmpty()) {
+            saveBooks(books);
+            saveBorrowingRecords(records);
+            System.out.println("JdbcLibraryStorage: Imported " + books.size() + " books and " + records.size() + " records from flat files.");
+        }
+    }
+
+    @Override
+    public List<Book> loadBooks() {
+        List<Book> books = new ArrayList<>();
+        try {
+            books = readBooks();
+            System.out.println("JdbcLibraryStorage: Loaded " + books.size() + " books.");
+        } catch (SQLException e) {
+            System.err.println("Error loading books: " + e.getMessage());
+        }
+        return books;
+    }
+
+    private List<Book> readBooks() throws SQLException {
+        List<Book> books = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT id, title, author, borrowed, borrowed_by FROM books")) {
+            while (rs.next()) {
+                Book book = new Book(rs.getString(1), rs.getString(2), rs.getString(3));
+                book.setBorrowed(rs.getBoolean(4));
+                book.setBorrowedBy(rs.getString(5));
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    @Override
+    public List<BorrowingRecord> loadBorrowingRecords() {
+        List<BorrowingRecord> records = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(
+                     "SELECT record_id, book_id, borrower, borrow_date, return_date FROM borrowing_records ORDER BY record_key")) {
+            while (rs.next()) {
+                BorrowingRecord record = BorrowingRecord.fromStoredId(
+                        rs.getString(1), rs.getString(2), rs.getString(3), toDateTime(rs.getTimestamp(4)));
+                record.setReturnDate(toDateTime(rs.getTimestamp(5)));
+                records.add(record);
+            }
+            System.out.println("JdbcLibraryStorage: Loaded " + records.size() + " borrowing records.");
+        } catch (SQLException e) {
+            System.err.println("Error loading borrowing records: " + e.getMessage());
+        }
+        return records;
+    }
+
+    @Override
+    public void insertBook(Book book) {
+        executeBook(insertBook, book, "inserting");
+    }
+
+    @Override
+    public void updateBook(Book book) {
+        executeBook(updateBook, book, "updating");
+    }
+
+    @Override
+    public void deleteBook(String id) {
+        try {
+            deleteBook.setString(1, id);
+            deleteBook.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error deleting book " + id + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void insertBorrowingRecord(BorrowingRecord record) {
+        executeRecord(insertRecord, record, "inserting");
+    }
+
+    @Override
+    public void updateBorrowingRecord(BorrowingRecord record) {
+        executeRecord(updateRecord, record, "updating");
+    }
+
+    @Override
+    public void deleteBorrowingRecord(BorrowingRecord record) {
+        try {
+            deleteRecord.setLong(1, record.getRecordKey());
+            deleteRecord.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error deleting borrowing record " + record.getRecordId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Brings the books table in line with the given books: new books are inserted, changed ones updated and
+     * removed ones deleted, one row at a time, in a single transaction. Unchanged rows are not written.
+     */
+    @Override
+    public void saveBooks(List<Book> books) {
+        try {
+            Map<String, Book> stored = new HashMap<>();
+            for (Book book : readBooks()) {
+                stored.put(book.getId(), book);
+            }
+            List<Book> inserted = new ArrayList<>();
+            List<Book> updated = new ArrayList<>();
+            for (Book book : books) {
+                Book old = stored.remove(book.getId());
+                if (old == null) {
+                    inserted.add(book);
+                } else if (!old.getTitle().equals(book.getTitle()) || !old.getAuthor().equals(book.getAuthor())
+                        || old.isBorrowed() != book.isBorrowed() || !Objects.equals(old.getBorrowedBy(), book.getBorrowedBy())) {
+                    updated.add(book);
+                }
+            }
+            applyChanges(inserted, updated, JdbcLibraryStorage::bindBook, insertBook, updateBook,
+                    stored.keySet(), (statement, id) -> statement.setString(1, id), deleteBook, "books");
+        } catch (SQLException e) {
+            System.err.println("Error saving books: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Brings the borrowing records table in line with the given records: new records are inserted, records whose
+     * return date changed are updated and removed ones deleted, one row at a time, in a single transaction.
+     * Unchanged rows are not written.
+     */
+    @Override
+    public void saveBorrowingRecords(List<BorrowingRecord> records) {
+        try {
+            // Apart from the return date, a record never changes after it is created.
+            Map<Long, LocalDateTime> stored = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT record_key, return_date FROM borrowing_records")) {
+                while (rs.next()) {
+                    stored.put(rs.getLong(1), toDateTime(rs.getTimestamp(2)));
+                }
+            }
+            List<BorrowingRecord> inserted = new ArrayList<>();
+            List<BorrowingRecord> updated = new ArrayList<>();
+            for (BorrowingRecord record : records) {
+                if (!stored.containsKey(record.getRecordKey())) {
+                    inserted.add(record);
+                } else if (!Objects.equals(stored.remove(record.getRecordKey()), record.getReturnDate())) {
+                    // The row was taken out of the stored map above, so it is not deleted.
+                    updated.add(record);
+                }
+            }
+            applyChanges(inserted, updated, JdbcLibraryStorage::bindRecord, insertRecord, updateRecord,
+                    stored.keySet(), (statement, key) -> statement.setLong(1, key), deleteRecord, "borrowing records");
+        } catch (SQLException e) {
+            System.err.println("Error saving borrowing records: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing library database: " + e.getMessage());
+        }
+    }
+
+    private void executeBook(PreparedStatement statement, Book book, String action) {
+        try {
+            bindBook(statement, book);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error " + action + " book " + book.getId() + ": " + e.getMessage());
+        }
+    }
+
+    private void executeRecord(PreparedStatement statement, BorrowingRecord record, String action) {
+        try {
+            bindRecord(statement, record);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error " + action + " borrowing record " + record.getRecordId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the inserts, updates and deletes of a save as batches of the single-row statements, in one transaction.
+     */
+    private <T, K> void applyChanges(List<T> inserted, List<T> updated, Binder<T> binder, PreparedStatement insert,
+                                     PreparedStatement update, Collection<K> deleted, Binder<K> keyBinder,
+                                     PreparedStatement delete, String what) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            addBatches(insert, inserted, binder);
+            addBatches(update, updated, binder);
+            addBatches(delete, deleted, keyBinder);
+            connection.commit();
+            System.out.println("JdbcLibraryStorage: Saved " + what + ": " + inserted.size() + " inserted, "
+                    + updated.size() + " updated, " + deleted.size() + " deleted.");
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static <T> void addBatches(PreparedStatement statement, Collection<T> items, Binder<T> binder) throws SQLException {
+        if (items.isEmpty()) {
+            return;
+        }
+        for (T item : items) {
+            binder.bind(statement, item);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    private static void bindBook(PreparedStatement statement, Book book) throws SQLException {
+        statement.setString(1, book.getTitle());
+        statement.setString(2, book.getAuthor());
+        statement.setBoolean(3, book.isBorrowed());
+        statement.setString(4, book.getBorrowedBy());
+        statement.setString(5, book.getId());
+    }
+
+    private static void bindRecord(PreparedStatement statement, BorrowingRecord record) throws SQLException {
+        statement.setString(1, record.getRecordId());
+        statement.setString(2, record.getBookId());
+        statement.setString(3, record.getBorrowerName());
+        statement.setTimestamp(4, Timestamp.valueOf(record.getBorrowDate()));
+        statement.setTimestamp(5, record.getReturnDate() != null ? Timestamp.valueOf(record.getReturnDate()) : null);
+        statement.setLong(6, record.getRecordKey());
+    }
+
+    private static LocalDateTime toDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+
+    private interface Binder<T> {
+        void bind(PreparedStatement statement, T item) throws SQLException;
+    }
+}
@@ -1,39 +1,91 @@
 package com.librarysystem;
 
+import java.io.File;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
  * Manages the collection of books and borrowing records in the library, including adding, removing, updating, and searching.
- * Handles borrowing and returning books, and interacts with FileHandler for data persistence.
+ * Handles borrowing and returning books, and persists every change through a {@link LibraryStorage}.
+ * Books are held by a {@link BookCatalog}; set the system property {@code library.catalog=segmented} to keep the
+ * catalog on disk (in the directory named by {@code library.catalog.dir}, default {@code catalog}) instead of in memory.
+ * Set {@code library.storage=jdbc} and {@code library.storage.url} to store data in an embedded database instead of
+ * the flat data files.
+ * Every successful change is published as a {@link LibraryEvent} on the library's {@link LibraryEventBus}; the bus
+ * size and backpressure policy are set with {@code library.events.capacity} and {@code library.events.policy}.
+ * All operations synchronize on the Library, so it can be shared between threads.
  */
 public class Library {
-    private List<Book> books;
-    private List<BorrowingRecord> borrowingRecords;
+    private final LibraryStorage storage;
+    private BookCatalog books;
+    private final LibraryEventBus events = new LibraryEventBus(
+            Integer.getInteger("library.events.capacity", 4096),
+            LibraryEventBus.BackpressurePolicy.valueOf(System.getProperty("library.events.policy", "BLOCK").toUpperCase()));
+    private BorrowingHistory borrowingRecords;
+    private final RecordIdGenerator recordIds = new RecordIdGenerator(Long.getLong("library.node.id", 0L));
 
     /**
      * Constructs a new Library instance and loads existing book and borrowing record data from files.
      */
     public Library() {
+        this(createDefaultStorage());
+    }
+
+    /**
+     * Constructs a new Library instance that loads from and persists to the given storage.
+     * @param storage The storage holding the library's data.
+     */
+    public Library(LibraryStorage storage) {
+        this(storage, createDefaultCatalog(storage));
+    }
+
+    /**
+     * Constructs a new Library instance backed by the given storage and book catalog.
+     * @param storage The storage holding the library's borrowing records.
+     * @param books The catalog holding the library's books.
+     */
+    public Library(LibraryStorage storage, BookCatalog books) {
         System.out.println("Library: Initializing and loading data...");
-        this.books = FileHandler.loadBooks();
-        this.borrowingRecords = FileHandler.loadBorrowingRecords();
+        this.storage = storage;
+        this.books = books;
+        this.borrowingRecords = new BorrowingHistory(storage.loadBorrowingRecords());
         System.out.println("Library: Loaded " + books.size() + " books and " + borrowingRecords.size() + " records.");
     }
 
+    /**
+     * Creates the storage selected by the {@code library.storage} system property.
+     * @return A JDBC storage if requested, otherwise the flat file storage.
+     */
+    private static LibraryStorage createDefaultStorage() {
+        if ("jdbc".equalsIgnoreCase(System.getProperty("library.storage"))) {
+            return new JdbcLibraryStorage(System.getProperty("library.storage.url", "jdbc:h2:./library"));
+        }
+        return new FileLibraryStorage();
+    }
+
+    /**
+     * Creates the catalog selected by the {@code library.catalog} system property.
+     * @param storage The storage an in-memory catalog writes through to.
+     * @return A segmented on-disk catalog if requested, otherwise an in-memory catalog.
+     */
+    private static BookCatalog createDefaultCatalog(LibraryStorage storage) {
+        if ("segmented".equalsIgnoreCase(System.getProperty("library.catalog"))) {
+            return new SegmentedBookCatalog(new File(System.getProperty("library.catalog.dir", "catalog")));
+        }
+        return new InMemoryBookCatalog(storage);
+    }
+
     /**
      * Adds a new book to the library.
      * @param book The Book object to add.
      * @return True if the book was added successfully, false if a book with the same ID already exists.
      */
-    public boolean addBook(Book book) {
+    public synchronized boolean addBook(Book book) {
         System.out.println("Library: Attempting to add book with ID: " + book.getId());
-        if (getBookById(book.getId()) == null) {
-            this.books.add(book);
-            FileHandler.saveBooks(books);
+        if (!books.contains(book.getId())) {
+            books.put(book);
+            events.publish(new LibraryEvent(LibraryEvent.Type.BOOK_ADDED, book, null));
             System.out.println("Library: Book " + book.getId() + " added and saved.");
             return true;
         }
@@ -46,18 +98,20 @@ public class Library {
      * @param id The ID of the book to remove.
      * @return True if the book was removed successfully, false otherwise.
      */
-    public boolean removeBook(String id) {
+    public synchronized boolean removeBook(String id) {
         System.out.println("Library: Attempting to remove book with ID: " + id);
-        boolean removed = this.books.removeIf(book -> book.getId().equals(id));
+        Book book = books.get(id);
+        boolean removed = book != null && books.remove(id);
         if (removed) {
             // Also remove any active borrowing records associated with this book
-            int initialRecordCount = borrowingRecords.size();
-            borrowingRecords.removeIf(record -> record.getBookId().equals(id) && record.getReturnDate() == null);
-            if (borrowingRecords.size() < initialRecordCount) {
-                System.out.println("Library: Removed " + (initialRecordCount - borrowingRecords.size()) + " active borrowing records for book " + id);
+            List<BorrowingRecord> active = borrowingRecords.removeIf(record -> record.getBookId().equals(id) && record.getReturnDate() == null);
+            for (BorrowingRecord record : active) {
+                storage.deleteBorrowingRecord(record);
             }
-            FileHandler.saveBooks(books);
-            FileHandler.saveBorrowingRecords(borrowingRecords);
+            if (!active.isEmpty()) {
+                System.out.println("Library: Removed " + active.size() + " active borrowing records for book " + id);
+            }
+            events.publish(new LibraryEvent(LibraryEvent.Type.BOOK_REMOVED, book, null));
             System.out.println("Library: Book " + id + " removed and data saved.");
         }
         System.out.println("Library: Book " + id + " removal status: " + removed);
@@ -71,7 +125,7 @@ public class Library {
      * @param newAuthor The new author for the book (can be null or empty to keep existing).
      * @return True if the book was updated successfully, false if the book was not found.
      */
-    public boolean updateBook(String id, String newTitle, String newAuthor) {
+    public synchronized boolean updateBook(String id, String newTitle, String newAuthor) {
         System.out.println("Library: Attempting to update book with ID: " + id);
         Book book = getBookById(id);
         if (book != null) {
@@ -81,7 +135,8 @@ public class Library {
             if (newAuthor != null && !newAuthor.trim().isEmpty()) {
                 book.setAuthor(newAuthor);
             }
-            FileHandler.saveBooks(books);
+            books.put(book);
+            events.publish(new LibraryEvent(LibraryEvent.Type.BOOK_UPDATED, book, null));
             System.out.println("Library: Book " + id + " updated and saved.");
             return true;
         }
@@ -94,11 +149,8 @@ public class Library {
      * @param id The ID of the book to retrieve.
      * @return The Book object if found, null otherwise.
      */
-    public Book getBookById(String id) {
-        return this.books.stream()
-                .filter(book -> book.getId().equals(id))
-                .findFirst()
-                .orElse(null);
+    public synchronized Book getBookById(String id) {
+        return books.get(id);
     }
 
     /**
@@ -106,9 +158,9 @@ public class Library {
      * @param query The search query string.
      * @return A list of books matching the query.
      */
-    public List<Book> searchBooks(String query) {
+    public synchronized List<Book> searchBooks(String query) {
         String lowerCaseQuery = query.toLowerCase();
-        return this.books.stream()
+        return books.getAll().stream()
                 .filter(book -> book.getTitle().toLowerCase().contains(lowerCaseQuery) ||
                                  book.getAuthor().toLowerCase().contains(lowerCaseQuery))
                 .collect(Collectors.toList());
@@ -121,19 +173,19 @@ public class Library {
      * @param borrower The name of the person borrowing the book.
      * @return True if the book was successfully borrowed, false otherwise (e.g., book not found or already borrowed).
      */
-    public boolean borrowBook(String id, String borrower) {
+    public synchronized boolean borrowBook(String id, String borrower) {
         System.out.println("Library: Attempting to borrow book " + id + " by " + borrower);
         Book book = getBookById(id);
         if (book != null && !book.isBorrowed()) {
             book.setBorrowed(true);
             book.setBorrowedBy(borrower);
 
-            String recordId = UUID.randomUUID().toString();
-            BorrowingRecord record = new BorrowingRecord(recordId, id, borrower, LocalDateTime.now());
+            BorrowingRecord record = new BorrowingRecord(recordIds.nextId(), id, borrower, LocalDateTime.now());
             borrowingRecords.add(record);
 
-            FileHandler.saveBooks(books);
-            FileHandler.saveBorrowingRecords(borrowingRecords);
+            books.put(book);
+            storage.insertBorrowingRecord(record);
+            events.publish(new LibraryEvent(LibraryEvent.Type.BOOK_BORROWED, book, borrower));
             System.out.println("Library: Book " + id + " borrowed and records saved.");
             return true;
         }
@@ -147,24 +199,25 @@ public class Library {
      * @param id The ID of the book to return.
      * @return True if the book was successfully returned, false otherwise (e.g., book not found or not borrowed).
      */
-    public boolean returnBook(String id) {
+    public synchronized boolean returnBook(String id) {
         System.out.println("Library: Attempting to return book with ID: " + id);
         Book book = getBookById(id);
         if (book != null && book.isBorrowed()) {
+            String borrower = book.getBorrowedBy();
             book.setBorrowed(false);
             book.setBorrowedBy(null);
 
-            // Find the active borrowing record and set return date
-            borrowingRecords.stream()
-                    .filter(record -> record.getBookId().equals(id) && record.getReturnDate() == null)
-                    .findFirst()
-                    .ifPresent(record -> {
-                        record.setReturnDate(LocalDateTime.now());
-                        System.out.println("Library: Borrowing record for " + id + " updated with return date.");
-                    });
-
-            FileHandler.saveBooks(books);
-            FileHandler.saveBorrowingRecords(borrowingRecords);
+            // Close the book's open borrowing record, found through the open-loan index
+            BorrowingRecord record = borrowingRecords.closeLoan(id, LocalDateTime.now());
+            if (record != null) {
+                System.out.println("Library: Borrowing record for " + id + " updated with return date.");
+            }
+
+            books.put(book);
+            if (record != null) {
+                storage.updateBorrowingRecord(record);
+            }
+            events.publish(new LibraryEvent(LibraryEvent.Type.BOOK_RETURNED, book, borrower));
             System.out.println("Library: Book " + id + " returned and records saved.");
             return true;
         }
@@ -174,18 +227,18 @@ public class Library {
 
     /**
      * Returns a list of all books in the library.
-     * @return A new ArrayList containing all books.
+     * @return A new list containing all books.
      */
-    public List<Book> getAllBooks() {
-        return new ArrayList<>(books);
+    public synchronized List<Book> getAllBooks() {
+        return books.getAll();
     }
 
     /**
      * Returns a list of books that are currently available (not borrowed).
      * @return A list of available books.
      */
-    public List<Book> getAvailableBooks() {
-        return books.stream()
+    public synchronized List<Book> getAvailableBooks() {
+        return books.getAll().stream()
                 .filter(book -> !book.isBorrowed())
                 .collect(Collectors.toList());
     }
@@ -194,27 +247,59 @@ public class Library {
      * Returns a list of books that are currently borrowed.
      * @return A list of borrowed books.
      */
-    public List<Book> getBorrowedBooks() {
-        return books.stream()
+    public synchronized List<Book> getBorrowedBooks() {
+        return books.getAll().stream()
                 .filter(Book::isBorrowed)
                 .collect(Collectors.toList());
     }
 
     /**
-     * Returns a list of all borrowing records.
-     * @return A new ArrayList containing all borrowing records.
+     * Returns a list of all borrowing records, oldest first.
+     * @return A new list containing all borrowing records.
      */
-    public List<BorrowingRecord> getBorrowingHistory() {
-        return new ArrayList<>(borrowingRecords);
+    public synchronized List<BorrowingRecord> getBorrowingHistory() {
+        return borrowingRecords.toList();
+    }
+
+    /**
+     * Returns the borrowing records created in the given time range, oldest first.
+     * @param from The start of the range, inclusive.
+     * @param to The end of the range, exclusive.
+     * @return A new list containing the matching borrowing records.
+     */
+    public synchronized List<BorrowingRecord> getBorrowingHistory(LocalDateTime from, LocalDateTime to) {
+        return borrowingRecords.between(from, to);
     }
 
     /**
      * Saves the current state of the library (all books and borrowing records) to their respective data files.
      */
-    public void saveData() {
+    public synchronized void saveData() {
         System.out.println("Library: Saving all data...");
-        FileHandler.saveBooks(books);
-        FileHandler.saveBorrowingRecords(borrowingRecords);
+        books.flush();
+        storage.saveBorrowingRecords(borrowingRecords.toList());
         System.out.println("Library: All data saved.");
     }
+
+    /**
+     * Returns the bus on which the library publishes its change events.
+     * Subscribe to it to run side work asynchronously instead of inside the mutating call.
+     * @return The library's event bus.
+     */
+    public LibraryEventBus getEventBus() {
+        return events;
+    }
+
+    /**
+     * Delivers outstanding change events and releases the resources held by the library's catalog and storage.
+     * Call {@link #saveData()} first if needed.
+     */
+    public void close() {
+        events.close();
+        try {
+            books.close();
+        } finally {
+            storage.close();
+        }
+    }
 }
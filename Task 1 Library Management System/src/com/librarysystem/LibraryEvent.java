@@ -0,0 +1,98 @@
+package com.librarysystem;
+
+/**
+ * An immutable notification of a change made through the Library.
+ * Carries a snapshot of the book as it was right after the change, so consumers do not need to read it back.
+ */
+public final class LibraryEvent {
+
+    /**
+     * The kind of change an event describes.
+     */
+    public enum Type {
+        BOOK_ADDED,
+        BOOK_UPDATED,
+        BOOK_REMOVED,
+        BOOK_BORROWED,
+        BOOK_RETURNED
+    }
+
+    private final Type type;
+    private final long timestamp;
+    private final String bookId;
+    private final String title;
+    private final String author;
+    private final String borrower;
+
+    /**
+     * Constructs a new LibraryEvent for a book, stamped with the current time.
+     * @param type The kind of change.
+     * @param book The book after the change (or before it, for a removal).
+     * @param borrower The borrower involved in a borrow or return, or null.
+     */
+    public LibraryEvent(Type type, Book book, String borrower) {
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+        this.bookId = book.getId();
+        this.title = book.getTitle();
+        this.author = book.getAuthor();
+        this.borrower = borrower;
+    }
+
+    /**
+     * Returns the kind of change.
+     * @return The event type.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns when the change was made.
+     * @return The time in milliseconds since the Unix epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the ID of the book that changed.
+     * @return The book ID.
+     */
+    public String getBookId() {
+        return bookId;
+    }
+
+    /**
+     * Returns the title of the book at the time of the change.
+     * @return The book title.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Returns the author of the book at the time of the change.
+     * @return The book author.
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Returns the borrower involved in a borrow or return.
+     * @return The borrower's name, or null for other events.
+     */
+    public String getBorrower() {
+        return borrower;
+    }
+
+    /**
+     * Returns a string representation of the LibraryEvent object.
+     * @return A string containing event details.
+     */
+    @Override
+    public String toString() {
+        return type + " " + bookId + (borrower != null ? " by " + borrower : "") + " at " + timestamp;
+    }
+}
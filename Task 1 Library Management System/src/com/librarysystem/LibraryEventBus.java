@@ -0,0 +1,234 @@
+package com.librarysystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free, multi-producer ring buffer of library change events with any number of subscribers.
+ * Producers claim a sequence number with a CAS and publish the event into the matching slot. Every subscriber
+ * runs on its own daemon thread with its own cursor, and receives the events in publication order, in batches
+ * of everything available up to its batch size. A slot is only reused once every subscriber has moved past it;
+ * what a producer does when the buffer is full is decided by the {@link BackpressurePolicy}. A subscriber whose
+ * listener throws is logged and carries on with the next batch; one whose thread dies anyway, from a virtual machine
+ * error, is unsubscribed so it does not block producers forever.
+ */
+public class LibraryEventBus implements AutoCloseable {
+
+    /**
+     * What a producer does when the slowest subscriber is a full buffer behind.
+     */
+    public enum BackpressurePolicy {
+        /** Wait until the slowest subscriber frees a slot. No event is ever lost. */
+        BLOCK,
+        /** Discard the new event and count it as dropped. The producer never waits. */
+        DROP
+    }
+
+    private static final long IDLE_PARK_NANOS = 50_000;
+
+    private final int capacity;
+    private final int mask;
+    private final BackpressurePolicy policy;
+    private final AtomicReferenceArray<LibraryEvent> entries;
+    // The sequence number last published into each slot, so subscribers can tell filled slots from claimed ones.
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final LongAdder dropped = new LongAdder();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs a new event bus.
+     * @param capacity The number of slots, rounded up to a power of two.
+     * @param policy What publishing does when the buffer is full.
+     */
+    public LibraryEventBus(int capacity, BackpressurePolicy policy) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.policy = policy;
+        this.entries = new AtomicReferenceArray<>(this.capacity);
+        this.published = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Publishes an event to all current subscribers.
+     * @param event The event to publish.
+     * @return True if the event was published, false if it was dropped because the buffer was full.
+     */
+    public boolean publish(LibraryEvent event) {
+        long sequence;
+        while (true) {
+            long current = claimed.get();
+            sequence = current + 1;
+            if (sequence - capacity > minimumCursor()) {
+                if (policy == BackpressurePolicy.DROP) {
+                    dropped.increment();
+                    return false;
+                }
+                LockSupport.parkNanos(1_000);
+                continue;
+            }
+            if (claimed.compareAndSet(current, sequence)) {
+                break;
+            }
+        }
+        int slot = (int) sequence & mask;
+        entries.set(slot, event);
+        published.set(slot, sequence);
+        return true;
+    }
+
+    /**
+     * Subscribes a listener, which receives every event published from now on.
+     * @param name A name for the subscriber, used for its thread.
+     * @param listener The listener to call with batches of events.
+     * @param maxBatchSize The largest number of events passed in one call.
+     * @return The subscription, which can be closed to unsubscribe.
+     */
+    public Subscription subscribe(String name, LibraryEventListener listener, int maxBatchSize) {
+        Subscription subscription = new Subscription(name, listener, Math.max(1, maxBatchSize));
+        // Registered before its cursor is set, so there is no moment at which producers could wrap the buffer past
+        // the cursor without seeing it.
+        subscriptions.add(subscription);
+        subscription.cursor.set(claimed.get());
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full.
+     * @return The dropped event count.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of slots in the buffer.
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Closes every subscription after it has delivered the events already published.
+     */
+    @Override
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    private long minimumCursor() {
+        long minimum = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions) {
+            minimum = Math.min(minimum, subscription.cursor.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * A subscriber's position in the buffer and the thread delivering events to it.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final AtomicLong cursor;
+        private final LibraryEventListener listener;
+        private final int maxBatchSize;
+        private final Thread thread;
+        private final LongAdder delivered = new LongAdder();
+        private volatile boolean running = true;
+
+        private Subscription(String name, LibraryEventListener listener, int maxBatchSize) {
+            // Holds back no producer until subscribe sets it, once the subscription is registered.
+            this.cursor = new AtomicLong(Long.MAX_VALUE);
+            this.listener = listener;
+            this.maxBatchSize = maxBatchSize;
+            this.thread = new Thread(this::run, "library-events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            try {
+                deliver();
+            } catch (Throwable e) {
+                System.err.println("Library event subscriber " + thread.getName() + " stopped: " + e);
+                throw e;
+            } finally {
+                // A subscriber that is gone, for whatever reason, must no longer hold back the producers.
+                subscriptions.remove(this);
+            }
+        }
+
+        private void deliver() {
+            List<LibraryEvent> batch = new ArrayList<>(maxBatchSize);
+            while (true) {
+                long next = cursor.get() + 1;
+                long last = next - 1;
+                while (last + 1 - next < maxBatchSize && published.get((int) (last + 1) & mask) == last + 1) {
+                    last++;
+                }
+                if (last < next) {
+                    if (!running) {
+                        return;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                for (long sequence = next; sequence <= last; sequence++) {
+                    batch.add(entries.get((int) sequence & mask));
+                }
+                try {
+                    listener.onEvents(batch);
+                } catch (VirtualMachineError e) {
+                    throw e;
+                } catch (Throwable e) {
+                    // Any other failure, including an Error such as a failed assertion, only loses this batch.
+                    System.err.println("Error in library event subscriber " + thread.getName() + ": " + e);
+                }
+                delivered.add(batch.size());
+                batch.clear();
+                cursor.set(last);
+            }
+        }
+
+        /**
+         * Returns how many published events this subscriber has not yet handled.
+         * @return The subscriber's lag in events.
+         */
+        public long getLag() {
+            return claimed.get() - cursor.get();
+        }
+
+        /**
+         * Returns how many events this subscriber has handled.
+         * @return The delivered event count.
+         */
+        public long getDeliveredCount() {
+            return delivered.sum();
+        }
+
+        /**
+         * Unsubscribes after delivering the events already published, and waits for the subscriber thread to finish.
+         */
+        @Override
+        public void close() {
+            running = false;
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            subscriptions.remove(this);
+        }
+    }
+}
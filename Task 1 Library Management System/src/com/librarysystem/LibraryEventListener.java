@@ -0,0 +1,16 @@
+package com.librarysystem;
+
+import java.util.List;
+
+/**
+ * Receives batches of library change events on a subscriber's own thread.
+ */
+@FunctionalInterface
+public interface LibraryEventListener {
+
+    /**
+     * Handles a batch of events, in the order they were published.
+     * @param events The events, never empty. The list is only valid for the duration of the call.
+     */
+    void onEvents(List<LibraryEvent> events);
+}
@@ -0,0 +1,327 @@
+package com.librarysystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circulation workload simulator for the Library.
+ * Builds a synthetic catalog and patron population in a scratch data directory, then drives a Zipf-distributed
+ * mix of borrows, returns and searches against one shared Library from many threads, and reports throughput,
+ * latency percentiles per operation and the I/O the process performed.
+ *
+ * <pre>
+ * java -cp out com.librarysystem.LibraryLoadTest --books=20000 --patrons=5000 --threads=16 --duration=30
+ * </pre>
+ *
+ * Options (all {@code --name=value}): books, patrons, threads, virtual (true to use virtual threads on Java 21+),
+ * duration and warmup (seconds), borrow, return and search (relative weights of the operation mix), zipf (skew of
+ * book, patron and search term popularity), seed and dir (data directory; a temporary one by default).
+ * Storage and catalog system properties such as {@code library.storage} and {@code library.catalog} apply as usual,
+ * so the same workload can be run against each backend.
+ */
+public class LibraryLoadTest {
+
+    private static final String[] WORDS = {
+        "shadow", "river", "garden", "night", "silver", "winter", "secret", "house", "ocean", "stone",
+        "fire", "glass", "empire", "lost", "city", "forest", "crown", "dream", "storm", "island",
+        "light", "iron", "song", "journey", "king", "queen", "war", "peace", "wind", "star",
+        "golden", "dark", "broken", "hidden", "last", "first", "red", "blue", "white", "black",
+        "mountain", "valley", "sea", "sky", "moon", "sun", "road", "bridge", "tower", "castle"
+    };
+    private static final String[] SURNAMES = {
+        "Austen", "Tolkien", "Lee", "Fitzgerald", "Melville", "Orwell", "Bronte", "Dickens", "Tolstoy", "Woolf",
+        "Hemingway", "Steinbeck", "Morrison", "Achebe", "Rushdie", "Murakami", "Atwood", "Ishiguro", "Eliot", "Hardy"
+    };
+
+    private enum Operation { BORROW, RETURN, SEARCH }
+
+    private final Map<String, String> options;
+    private final int bookCount;
+    private final int patronCount;
+    private final int threads;
+    private final boolean virtualThreads;
+    private final double zipfExponent;
+    private final int[] mixWeights;
+    private final LatencyHistogram[][] histograms;
+    private final LongAdder[] successes = new LongAdder[Operation.values().length];
+    private final LongAdder[] attempts = new LongAdder[Operation.values().length];
+
+    private Library library;
+    private ZipfDistribution bookPopularity;
+    private ZipfDistribution patronActivity;
+    private ZipfDistribution wordPopularity;
+
+    private LibraryLoadTest(Map<String, String> options) {
+        this.options = options;
+        this.bookCount = intOption("books", 10_000);
+        this.patronCount = intOption("patrons", 2_000);
+        this.threads = intOption("threads", Runtime.getRuntime().availableProcessors());
+        this.virtualThreads = Boolean.parseBoolean(options.getOrDefault("virtual", "false"));
+        this.zipfExponent = Double.parseDouble(options.getOrDefault("zipf", "1.0"));
+        this.mixWeights = new int[] {intOption("borrow", 40), intOption("return", 35), intOption("search", 25)};
+        // Workers share a bounded number of histogram stripes so thousands of virtual threads stay cheap.
+        int stripes = Math.min(threads, 64);
+        this.histograms = new LatencyHistogram[stripes][Operation.values().length];
+        for (int i = 0; i < stripes; i++) {
+            for (int op = 0; op < Operation.values().length; op++) {
+                histograms[i][op] = new LatencyHistogram();
+            }
+        }
+        for (int op = 0; op < Operation.values().length; op++) {
+            successes[op] = new LongAdder();
+            attempts[op] = new LongAdder();
+        }
+    }
+
+    /**
+     * Runs the load test.
+     * @param args Options in {@code --name=value} form.
+     * @throws Exception If the data directory cannot be prepared or the run is interrupted.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Ignoring argument " + arg + "; expected --name=value");
+                continue;
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LibraryLoadTest(options).run();
+    }
+
+    private void run() throws Exception {
+        Path dir = options.containsKey("dir")
+                ? Files.createDirectories(Paths.get(options.get("dir")))
+                : Files.createTempDirectory("library-load");
+        // Point FileHandler and the segmented catalog at the scratch directory before either is loaded.
+        System.setProperty("library.data.dir", dir.toString());
+        if (System.getProperty("library.catalog.dir") == null) {
+            System.setProperty("library.catalog.dir", dir.resolve("catalog").toString());
+        }
+        System.out.println("Load test: data directory " + dir);
+
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+        bookPopularity = new ZipfDistribution(bookCount, zipfExponent);
+        patronActivity = new ZipfDistribution(patronCount, zipfExponent);
+        wordPopularity = new ZipfDistribution(WORDS.length, zipfExponent);
+        FileHandler.saveBooks(generateCatalog(random));
+        FileHandler.saveBorrowingRecords(new ArrayList<>());
+
+        PrintStream console = System.out;
+        // The Library logs every call; silence it so the console is not what gets measured.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long setupStart = System.nanoTime();
+        library = new Library();
+        long setupNanos = System.nanoTime() - setupStart;
+        try {
+            runPhase(intOption("warmup", 5));
+            resetStatistics();
+            IoCounters before = IoCounters.read();
+            long start = System.nanoTime();
+            runPhase(intOption("duration", 30));
+            long elapsed = System.nanoTime() - start;
+            IoCounters after = IoCounters.read();
+            System.setOut(console);
+            report(setupNanos, elapsed, before, after, dir);
+        } finally {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            library.close();
+            System.setOut(console);
+        }
+    }
+
+    private List<Book> generateCatalog(Random random) {
+        List<Book> books = new ArrayList<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            String title = capitalize(WORDS[wordPopularity.sample(random)]) + " of the "
+                    + capitalize(WORDS[wordPopularity.sample(random)]) + " " + capitalize(WORDS[random.nextInt(WORDS.length)]);
+            String author = (char) ('A' + random.nextInt(26)) + ". " + SURNAMES[random.nextInt(SURNAMES.length)];
+            books.add(new Book(bookId(i), title, author));
+        }
+        return books;
+    }
+
+    private void runPhase(int seconds) throws InterruptedException {
+        if (seconds <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = newExecutor();
+        for (int worker = 0; worker < threads; worker++) {
+            LatencyHistogram[] stripe = histograms[worker % histograms.length];
+            executor.execute(() -> work(deadline, stripe));
+        }
+        executor.shutdown();
+        executor.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+    }
+
+    private ExecutorService newExecutor() {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads need Java 21 or later; falling back to platform threads.");
+            }
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    private void work(long deadline, LatencyHistogram[] stripe) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int totalWeight = mixWeights[0] + mixWeights[1] + mixWeights[2];
+        while (System.nanoTime() < deadline) {
+            int pick = random.nextInt(totalWeight);
+            Operation op = pick < mixWeights[0] ? Operation.BORROW
+                    : pick < mixWeights[0] + mixWeights[1] ? Operation.RETURN : Operation.SEARCH;
+            String bookId = bookId(bookPopularity.sample(random));
+            long start = System.nanoTime();
+            boolean success;
+            switch (op) {
+                case BORROW:
+                    success = library.borrowBook(bookId, "patron-" + patronActivity.sample(random));
+                    break;
+                case RETURN:
+                    success = library.returnBook(bookId);
+                    break;
+                default:
+                    success = !library.searchBooks(WORDS[wordPopularity.sample(random)]).isEmpty();
+                    break;
+            }
+            long latency = System.nanoTime() - start;
+            LatencyHistogram histogram = stripe[op.ordinal()];
+            synchronized (histogram) {
+                histogram.record(latency);
+            }
+            attempts[op.ordinal()].increment();
+            if (success) {
+                successes[op.ordinal()].increment();
+            }
+        }
+    }
+
+    private void resetStatistics() {
+        for (int i = 0; i < histograms.length; i++) {
+            for (int op = 0; op < Operation.values().length; op++) {
+                histograms[i][op] = new LatencyHistogram();
+            }
+        }
+        for (int op = 0; op < Operation.values().length; op++) {
+            successes[op].reset();
+            attempts[op].reset();
+        }
+    }
+
+    private void report(long setupNanos, long elapsedNanos, IoCounters before, IoCounters after, Path dir) {
+        double seconds = elapsedNanos / 1e9;
+        long totalOps = 0;
+        System.out.println();
+        System.out.printf("Workload: %d books, %d patrons, %d %s threads, zipf %.2f, mix borrow/return/search %d/%d/%d%n",
+                bookCount, patronCount, threads, virtualThreads ? "virtual" : "platform", zipfExponent,
+                mixWeights[0], mixWeights[1], mixWeights[2]);
+        System.out.printf("Library load time: %.1f ms%n", setupNanos / 1e6);
+        System.out.printf("%-8s %10s %8s %10s %10s %10s %10s %10s %10s%n",
+                "op", "count", "ok%", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        for (Operation op : Operation.values()) {
+            LatencyHistogram merged = new LatencyHistogram();
+            for (LatencyHistogram[] stripe : histograms) {
+                merged.merge(stripe[op.ordinal()]);
+            }
+            long count = attempts[op.ordinal()].sum();
+            totalOps += count;
+            System.out.printf("%-8s %10d %8.1f %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    op.name().toLowerCase(), count, count == 0 ? 0.0 : 100.0 * successes[op.ordinal()].sum() / count,
+                    count / seconds, merged.getPercentile(50) / 1e3, merged.getPercentile(90) / 1e3,
+                    merged.getPercentile(99) / 1e3, merged.getPercentile(99.9) / 1e3, merged.getMax() / 1e3);
+        }
+        System.out.printf("Total: %d operations in %.1f s, %.0f ops/s%n", totalOps, seconds, totalOps / seconds);
+        if (before != null && after != null) {
+            long written = after.bytesWritten - before.bytesWritten;
+            long read = after.bytesRead - before.bytesRead;
+            System.out.printf("I/O: %.1f MB written in %d write calls, %.1f MB read in %d read calls (%.1f KB written per operation)%n",
+                    written / 1e6, after.writeCalls - before.writeCalls, read / 1e6, after.readCalls - before.readCalls,
+                    totalOps == 0 ? 0.0 : written / 1024.0 / totalOps);
+        } else {
+            System.out.println("I/O: counters not available on this platform.");
+        }
+        System.out.printf("Data directory size: %.1f MB%n", directorySize(dir.toFile()) / 1e6);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    private static String bookId(int rank) {
+        return "B" + rank;
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    private static long directorySize(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += directorySize(child);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Process-wide I/O counters from /proc/self/io, covering every read and write system call.
+     */
+    private static final class IoCounters {
+        long bytesRead;
+        long bytesWritten;
+        long readCalls;
+        long writeCalls;
+
+        static IoCounters read() {
+            Path path = Paths.get("/proc/self/io");
+            if (!Files.isReadable(path)) {
+                return null;
+            }
+            IoCounters counters = new IoCounters();
+            try {
+                for (String line : Files.readAllLines(path)) {
+                    String[] parts = line.split(":\\s*");
+                    if (parts.length != 2) {
+                        continue;
+                    }
+                    long value = Long.parseLong(parts[1].trim());
+                    switch (parts[0]) {
+                        case "rchar": counters.bytesRead = value; break;
+                        case "wchar": counters.bytesWritten = value; break;
+                        case "syscr": counters.readCalls = value; break;
+                        case "syscw": counters.writeCalls = value; break;
+                        default: break;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                return null;
+            }
+            return counters;
+        }
+    }
+}
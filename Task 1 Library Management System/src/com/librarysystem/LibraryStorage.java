@@ -0,0 +1,77 @@
+package com.librarysystem;
+
+import java.util.List;
+
+/**
+ * Persistence interface for the library's books and borrowing records.
+ * Point operations are called after each change so an implementation can write a single row; the bulk save
+ * methods write the complete state.
+ */
+public interface LibraryStorage extends AutoCloseable {
+
+    /**
+     * Loads all books.
+     * @return A list of Book objects.
+     */
+    List<Book> loadBooks();
+
+    /**
+     * Loads all borrowing records.
+     * @return A list of BorrowingRecord objects.
+     */
+    List<BorrowingRecord> loadBorrowingRecords();
+
+    /**
+     * Stores a newly added book.
+     * @param book The book that was added.
+     */
+    void insertBook(Book book);
+
+    /**
+     * Stores the current state of an existing book.
+     * @param book The book that was changed.
+     */
+    void updateBook(Book book);
+
+    /**
+     * Deletes a book.
+     * @param id The ID of the book that was removed.
+     */
+    void deleteBook(String id);
+
+    /**
+     * Stores a newly created borrowing record.
+     * @param record The record that was created.
+     */
+    void insertBorrowingRecord(BorrowingRecord record);
+
+    /**
+     * Stores the current state of an existing borrowing record.
+     * @param record The record that was changed.
+     */
+    void updateBorrowingRecord(BorrowingRecord record);
+
+    /**
+     * Deletes a borrowing record.
+     * @param record The record that was removed.
+     */
+    void deleteBorrowingRecord(BorrowingRecord record);
+
+    /**
+     * Replaces all stored books with the given list.
+     * @param books The complete list of books.
+     */
+    void saveBooks(List<Book> books);
+
+    /**
+     * Replaces all stored borrowing records with the given list.
+     * @param records The complete list of borrowing records.
+     */
+    void saveBorrowingRecords(List<BorrowingRecord> records);
+
+    /**
+     * Releases any resources held by the storage.
+     */
+    @Override
+    void close();
+}
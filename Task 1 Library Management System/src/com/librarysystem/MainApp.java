@@ -141,6 +141,7 @@ public class MainApp extends JFrame {
         exitBtn.setBorder(BorderFactory.createEmptyBorder(12, 25, 12, 25)); // Increased padding
         exitBtn.addActionListener(e -> {
             library.saveData();
+            library.close();
             JOptionPane.showMessageDialog(MainApp.this, "Library data saved. Exiting application.");
             System.exit(0);
         });
@@ -643,6 +644,7 @@ public class MainApp extends JFrame {
      */
     private void shutdown() {
         library.saveData();
+        library.close();
         JOptionPane.showMessageDialog(this, "Library data saved. Exiting application.");
         System.exit(0);
     }
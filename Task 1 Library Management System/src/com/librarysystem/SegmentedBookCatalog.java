@@ -0,0 +1,699 @@
+package com.librarysystem;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * A disk-resident catalog for collections larger than the heap.
+ * Writes go to an append-only log and a sorted in-memory table, which is flushed to an immutable sorted
+ * segment file once it reaches a size limit. Each segment keeps a Bloom filter and a sparse key index in
+ * memory, so a lookup for an ID that does not exist normally touches no disk at all, and a hit reads a single
+ * small block. A bounded LRU cache holds recently used books.
+ * <p>
+ * The number of books is kept up to date as books are added and removed. Each segment records how many books the
+ * segments held when it was written, so opening the catalog only has to replay the log on top of the newest one.
+ */
+public class SegmentedBookCatalog implements BookCatalog {
+
+    private static final String LOG_FILE_NAME = "catalog.log";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int SEGMENT_MAGIC = 0x4C425347; // "LBSG"
+    private static final int INDEX_INTERVAL = 64;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private final File directory;
+    private final int memtableLimit;
+    private final int maxSegments;
+    private final Map<String, Book> cache;
+    // A null value marks a deleted ID that may still exist in an older segment.
+    private final TreeMap<String, Book> memtable = new TreeMap<>();
+    // Newest segment first.
+    private final List<Segment> segments = new ArrayList<>();
+    private DataOutputStream log;
+    private FileOutputStream logFile;
+    private long nextSegmentNumber;
+    private int size;
+
+    /**
+     * Opens (or creates) a segmented catalog in the given directory with default sizing.
+     * @param directory The directory holding the log and segment files.
+     */
+    public SegmentedBookCatalog(File directory) {
+        this(directory, 10_000, 50_000, 8);
+    }
+
+    /**
+     * Opens (or creates) a segmented catalog in the given directory.
+     * If the directory holds no catalog yet, the books in the flat data file are imported.
+     * @param directory The directory holding the log and segment files.
+     * @param memtableLimit The number of buffered changes that triggers a flush to a new segment.
+     * @param cacheCapacity The maximum number of books kept in the LRU cache.
+     * @param maxSegments The number of segments above which all segments are compacted into one.
+     */
+    public SegmentedBookCatalog(File directory, int memtableLimit, int cacheCapacity, int maxSegments) {
+        this.directory = directory;
+        this.memtableLimit = memtableLimit;
+        this.maxSegments = maxSegments;
+        this.cache = new LinkedHashMap<String, Book>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Book> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+        try {
+            open();
+        } catch (IOException e) {
+            closeFiles(e);
+            throw new UncheckedIOException("Could not open catalog in " + directory, e);
+        }
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        List<Long> numbers = new ArrayList<>();
+        for (File file : files != null ? files : new File[0]) {
+            String name = file.getName();
+            numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+        }
+        numbers.sort(Collections.reverseOrder());
+        for (long number : numbers) {
+            segments.add(new Segment(segmentFile(number)));
+        }
+        nextSegmentNumber = numbers.isEmpty() ? 1 : numbers.get(0) + 1;
+        if (!segments.isEmpty()) {
+            size = segments.get(0).books;
+            if (size < 0) {
+                // Segments written before the count was recorded; the next flush records it.
+                int[] count = {0};
+                mergeSegments(Collections.emptyIterator(), segments, entry -> count[0]++);
+                size = count[0];
+            }
+        }
+
+        File logPath = new File(directory, LOG_FILE_NAME);
+        boolean fresh = segments.isEmpty() && !logPath.exists();
+        boolean intact = !logPath.exists() || replayLog(logPath);
+        openLog(intact);
+        if (!intact) {
+            // Rewrite the log without the torn tail so later appends are not hidden behind it.
+            for (Map.Entry<String, Book> e : memtable.entrySet()) {
+                logEntry(e.getKey(), e.getValue());
+            }
+            log.flush();
+        }
+        System.out.println("Catalog: Opened " + segments.size() + " segments and " + memtable.size() + " logged changes in " + directory);
+
+        if (fresh) {
+            List<Book> imported = FileHandler.loadBooks();
+            for (Book book : imported) {
+                put(book);
+            }
+            System.out.println("Catalog: Imported " + imported.size() + " books from the flat data file.");
+        }
+    }
+
+    /**
+     * Replays the log into the in-memory table.
+     * @return False if the log ended in a torn entry from a crash mid-write; everything before it is kept.
+     */
+    private boolean replayLog(File logPath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logPath)))) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return true;
+                }
+                try {
+                    if (op == OP_PUT) {
+                        Book book = readBook(in, in.readUTF());
+                        count(book.getId(), true);
+                        memtable.put(book.getId(), book);
+                    } else if (op == OP_DELETE) {
+                        String id = in.readUTF();
+                        count(id, false);
+                        memtable.put(id, null);
+                    } else {
+                        return false;
+                    }
+                } catch (EOFException e) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adjusts the book count for a change that is about to be applied.
+     */
+    private void count(String id, boolean present) {
+        if ((get(id) != null) != present) {
+            size += present ? 1 : -1;
+        }
+    }
+
+    private void openLog(boolean append) throws IOException {
+        logFile = new FileOutputStream(new File(directory, LOG_FILE_NAME), append);
+        log = new DataOutputStream(new BufferedOutputStream(logFile));
+    }
+
+    private void logEntry(String id, Book book) throws IOException {
+        log.writeByte(book != null ? OP_PUT : OP_DELETE);
+        log.writeUTF(id);
+        if (book != null) {
+            writeBook(log, book);
+        }
+    }
+
+    @Override
+    public synchronized Book get(String id) {
+        if (memtable.containsKey(id)) {
+            return memtable.get(id);
+        }
+        Book cached = cache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        for (Segment segment : segments) {
+            Entry entry = segment.find(id);
+            if (entry != null) {
+                if (entry.book != null) {
+                    cache.put(id, entry.book);
+                }
+                return entry.book;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized boolean contains(String id) {
+        return get(id) != null;
+    }
+
+    @Override
+    public synchronized void put(Book book) {
+        try {
+            logEntry(book.getId(), book);
+            log.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not log book " + book.getId(), e);
+        }
+        count(book.getId(), true);
+        memtable.put(book.getId(), book);
+        cache.put(book.getId(), book);
+        maybeFlushMemtable();
+    }
+
+    @Override
+    public synchronized boolean remove(String id) {
+        if (!contains(id)) {
+            return false;
+        }
+        try {
+            logEntry(id, null);
+            log.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not log removal of book " + id, e);
+        }
+        size--;
+        memtable.put(id, null);
+        cache.remove(id);
+        maybeFlushMemtable();
+        return true;
+    }
+
+    @Override
+    public synchronized List<Book> getAll() {
+        List<Book> books = new ArrayList<>();
+        try {
+            merge(true, entry -> books.add(entry.book));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not scan catalog", e);
+        }
+        return books;
+    }
+
+    /**
+     * Returns the number of books in the catalog, which is kept up to date without reading any segment.
+     * @return The book count.
+     */
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            log.flush();
+            logFile.getFD().sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not sync catalog log", e);
+        }
+    }
+
+    /**
+     * Syncs the log and closes it and every segment file. The in-memory table is not written to a segment; its
+     * changes are in the log and are replayed when the catalog is opened again.
+     */
+    @Override
+    public synchronized void close() {
+        IOException failure = null;
+        try {
+            log.flush();
+            logFile.getFD().sync();
+        } catch (IOException e) {
+            failure = e;
+        }
+        failure = closeFiles(failure);
+        if (failure != null) {
+            throw new UncheckedIOException("Could not close catalog in " + directory, failure);
+        }
+    }
+
+    /**
+     * Closes the log, if it is open, and every segment file, going on past failures.
+     * @param failure An earlier failure to add later ones to, or null.
+     * @return The first failure, with any later ones suppressed in it, or null if there were none.
+     */
+    private IOException closeFiles(IOException failure) {
+        List<Closeable> files = new ArrayList<>(segments.size() + 1);
+        if (log != null) {
+            files.add(log);
+        }
+        for (Segment segment : segments) {
+            files.add(segment::close);
+        }
+        segments.clear();
+        for (Closeable file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        return failure;
+    }
+
+    private void maybeFlushMemtable() {
+        if (memtable.size() < memtableLimit) {
+            return;
+        }
+        try {
+            File file = segmentFile(nextSegmentNumber++);
+            int changes = memtable.size();
+            try (SegmentWriter writer = new SegmentWriter(file, changes)) {
+                for (Map.Entry<String, Book> e : memtable.entrySet()) {
+                    writer.add(new Entry(e.getKey(), e.getValue()));
+                }
+                writer.finish(size);
+            }
+            segments.add(0, new Segment(file));
+            memtable.clear();
+            log.close();
+            openLog(false);
+            System.out.println("Catalog: Flushed " + changes + " changes to " + file.getName());
+            if (segments.size() > maxSegments) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not flush catalog segment", e);
+        }
+    }
+
+    /**
+     * Merges every segment into a single new segment, dropping deleted and superseded entries. The merge is
+     * streamed straight into the new segment, so compaction holds no more than one entry per segment in memory.
+     * The in-memory table is left alone, so it must be consulted before segments as usual.
+     */
+    private void compact() throws IOException {
+        List<Segment> old = new ArrayList<>(segments);
+        // Superseded and deleted entries are dropped, so the live ones are no more than all the old entries.
+        int expected = 0;
+        for (Segment segment : old) {
+            expected = (int) Math.min(Integer.MAX_VALUE, (long) expected + segment.count);
+        }
+        File file = segmentFile(nextSegmentNumber++);
+        int live;
+        try (SegmentWriter writer = new SegmentWriter(file, expected)) {
+            mergeSegments(Collections.emptyIterator(), old, writer::add);
+            live = writer.written;
+            writer.finish(live);
+        }
+        segments.clear();
+        segments.add(new Segment(file));
+        for (Segment segment : old) {
+            segment.close();
+            Files.deleteIfExists(segment.file.toPath());
+        }
+        System.out.println("Catalog: Compacted " + old.size() + " segments into " + file.getName() + " (" + live + " books).");
+    }
+
+    private void merge(boolean includeMemtable, EntryConsumer consumer) throws IOException {
+        List<Entry> pending = new ArrayList<>(includeMemtable ? memtable.size() : 0);
+        if (includeMemtable) {
+            for (Map.Entry<String, Book> e : memtable.entrySet()) {
+                pending.add(new Entry(e.getKey(), e.getValue()));
+            }
+        }
+        mergeSegments(pending.iterator(), segments, consumer);
+    }
+
+    private static void mergeSegments(Iterator<Entry> newest, List<Segment> toMerge, EntryConsumer consumer) throws IOException {
+        List<Iterator<Entry>> sources = new ArrayList<>();
+        sources.add(newest);
+        List<SegmentReader> readers = new ArrayList<>();
+        try {
+            for (Segment segment : toMerge) {
+                SegmentReader reader = new SegmentReader(segment);
+                readers.add(reader);
+                sources.add(reader);
+            }
+            mergeSources(sources, consumer);
+        } finally {
+            for (SegmentReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * K-way merges sorted sources, earlier sources taking precedence, and passes each live entry to the consumer.
+     */
+    private static void mergeSources(List<Iterator<Entry>> sources, EntryConsumer consumer) throws IOException {
+        PriorityQueue<Cursor> heap = new PriorityQueue<>((a, b) -> {
+            int cmp = a.current.id.compareTo(b.current.id);
+            return cmp != 0 ? cmp : Integer.compare(a.rank, b.rank);
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            Iterator<Entry> source = sources.get(i);
+            if (source.hasNext()) {
+                heap.add(new Cursor(i, source, source.next()));
+            }
+        }
+        while (!heap.isEmpty()) {
+            Cursor top = heap.poll();
+            Entry winner = top.current;
+            advance(heap, top);
+            while (!heap.isEmpty() && heap.peek().current.id.equals(winner.id)) {
+                advance(heap, heap.poll());
+            }
+            if (winner.book != null) {
+                consumer.accept(winner);
+            }
+        }
+    }
+
+    private static void advance(PriorityQueue<Cursor> heap, Cursor cursor) {
+        if (cursor.source.hasNext()) {
+            cursor.current = cursor.source.next();
+            heap.add(cursor);
+        }
+    }
+
+    private File segmentFile(long number) {
+        return new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static void writeBook(DataOutput out, Book book) throws IOException {
+        out.writeUTF(book.getTitle());
+        out.writeUTF(book.getAuthor());
+        out.writeBoolean(book.isBorrowed());
+        out.writeBoolean(book.getBorrowedBy() != null);
+        if (book.getBorrowedBy() != null) {
+            out.writeUTF(book.getBorrowedBy());
+        }
+    }
+
+    private static Book readBook(DataInput in, String id) throws IOException {
+        Book book = new Book(id, in.readUTF(), in.readUTF());
+        book.setBorrowed(in.readBoolean());
+        book.setBorrowedBy(in.readBoolean() ? in.readUTF() : null);
+        return book;
+    }
+
+    private static Entry readEntry(DataInput in) throws IOException {
+        String id = in.readUTF();
+        boolean deleted = in.readBoolean();
+        return new Entry(id, deleted ? null : readBook(in, id));
+    }
+
+    /**
+     * An ID together with its book, or a null book for a deletion marker.
+     */
+    private static final class Entry {
+        final String id;
+        final Book book;
+
+        Entry(String id, Book book) {
+            this.id = id;
+            this.book = book;
+        }
+    }
+
+    private interface EntryConsumer {
+        void accept(Entry entry) throws IOException;
+    }
+
+    private static final class Cursor {
+        final int rank;
+        final Iterator<Entry> source;
+        Entry current;
+
+        Cursor(int rank, Iterator<Entry> source, Entry current) {
+            this.rank = rank;
+            this.source = source;
+            this.current = current;
+        }
+    }
+
+    /**
+     * An immutable sorted segment file. The Bloom filter and sparse index stay in memory; entries stay on disk.
+     */
+    private static final class Segment {
+        final File file;
+        final RandomAccessFile raf;
+        final BloomFilter bloom;
+        final String[] indexKeys;
+        final long[] indexOffsets;
+        final long dataEnd;
+        final int count;
+        // The number of books in the catalog's segments up to this one, or -1 if the segment predates it.
+        final int books;
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "r");
+            raf.seek(raf.length() - Long.BYTES);
+            this.dataEnd = raf.readLong();
+            byte[] footer = new byte[(int) (raf.length() - Long.BYTES - dataEnd)];
+            raf.seek(dataEnd);
+            raf.readFully(footer);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer));
+            if (in.readInt() != SEGMENT_MAGIC) {
+                throw new IOException("Not a catalog segment: " + file);
+            }
+            this.count = in.readInt();
+            this.bloom = BloomFilter.readFrom(in);
+            int indexSize = in.readInt();
+            this.indexKeys = new String[indexSize];
+            this.indexOffsets = new long[indexSize];
+            for (int i = 0; i < indexSize; i++) {
+                indexKeys[i] = in.readUTF();
+                indexOffsets[i] = in.readLong();
+            }
+            this.books = in.available() >= Integer.BYTES ? in.readInt() : -1;
+        }
+
+        /**
+         * Looks up an ID in this segment.
+         * @return The entry (possibly a deletion marker), or null if the segment does not contain the ID.
+         */
+        Entry find(String id) {
+            if (!bloom.mightContain(id)) {
+                return null;
+            }
+            int block = Arrays.binarySearch(indexKeys, id);
+            if (block < 0) {
+                block = -block - 2;
+                if (block < 0) {
+                    return null;
+                }
+            }
+            long start = indexOffsets[block];
+            long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+            byte[] data = new byte[(int) (end - start)];
+            try {
+                synchronized (raf) {
+                    raf.seek(start);
+                    raf.readFully(data);
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+                while (in.available() > 0) {
+                    Entry entry = readEntry(in);
+                    int cmp = entry.id.compareTo(id);
+                    if (cmp == 0) {
+                        return entry;
+                    }
+                    if (cmp > 0) {
+                        return null;
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read segment " + file, e);
+            }
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+    }
+
+    /**
+     * Sequentially reads every entry of a segment in key order.
+     */
+    private static final class SegmentReader implements Iterator<Entry>, Closeable {
+        private final DataInputStream in;
+        private int remaining;
+
+        SegmentReader(Segment segment) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), 1 << 16));
+            this.remaining = segment.count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Entry next() {
+            if (remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            try {
+                return readEntry(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes sorted entries to a new segment file: the entries, then a footer holding the Bloom filter, the sparse
+     * index and the number of books in the catalog's segments, then the footer offset. The file is written under a
+     * temporary name and renamed into place by {@link #finish}; closing an unfinished writer deletes it.
+     */
+    private static final class SegmentWriter implements Closeable {
+        private final File file;
+        private final File tmp;
+        private final FileOutputStream fileOut;
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+        private final BloomFilter bloom;
+        private final List<String> indexKeys = new ArrayList<>();
+        private final List<Long> indexOffsets = new ArrayList<>();
+        int written;
+        private boolean finished;
+
+        /**
+         * Starts a segment under its temporary name.
+         * @param file The segment file.
+         * @param expected At least the number of entries that will be added, to size the Bloom filter.
+         */
+        SegmentWriter(File file, int expected) throws IOException {
+            this.file = file;
+            this.tmp = new File(file.getPath() + ".tmp");
+            this.bloom = new BloomFilter(expected, BLOOM_FALSE_POSITIVE_RATE);
+            this.fileOut = new FileOutputStream(tmp);
+            this.counter = new CountingOutputStream(new BufferedOutputStream(fileOut));
+            this.out = new DataOutputStream(counter);
+        }
+
+        void add(Entry entry) throws IOException {
+            if (written % INDEX_INTERVAL == 0) {
+                indexKeys.add(entry.id);
+                indexOffsets.add(counter.count);
+            }
+            bloom.add(entry.id);
+            out.writeUTF(entry.id);
+            out.writeBoolean(entry.book == null);
+            if (entry.book != null) {
+                writeBook(out, entry.book);
+            }
+            written++;
+        }
+
+        /**
+         * Writes the footer, syncs the file and renames it into place.
+         * @param books The number of books in the catalog's segments once this one is added.
+         */
+        void finish(int books) throws IOException {
+            long footerOffset = counter.count;
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(written);
+            bloom.writeTo(out);
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                out.writeUTF(indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+            out.writeInt(books);
+            out.writeLong(footerOffset);
+            out.flush();
+            fileOut.getFD().sync();
+            fileOut.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                fileOut.close();
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.librarysystem;
+
+import java.util.Random;
+
+/**
+ * Samples ranks 0..n-1 from a Zipf distribution, where rank k is drawn with probability proportional to 1/(k+1)^s.
+ * The cumulative distribution is precomputed once, so each sample is a binary search.
+ */
+public class ZipfDistribution {
+    private final double[] cumulative;
+
+    /**
+     * Constructs a Zipf distribution.
+     * @param n The number of ranks.
+     * @param exponent The skew; 0 is uniform, around 1 matches typical popularity curves.
+     */
+    public ZipfDistribution(int n, double exponent) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    /**
+     * Draws a rank.
+     * @param random The source of randomness.
+     * @return A rank between 0 and n-1, with low ranks most likely.
+     */
+    public int sample(Random random) {
+        double u = random.nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < u) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
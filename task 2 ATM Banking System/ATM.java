@@ -1,41 +1,276 @@
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents the ATM machine.
- * It holds a list of accounts and provides methods for all ATM operations.
+ * It holds the accounts, indexed by account number, and provides methods for all ATM operations.
+ * Logins and PIN changes are timed and counted by {@link OperationStats}.
+ * Closing it saves the accounts and stops its worker threads.
  */
-public class ATM {
-    private List<Account> accounts;
+public class ATM implements AutoCloseable {
+    private static final OperationStats LOGINS = OperationStats.forOperation("login");
+    private static final OperationStats PIN_CHANGES = OperationStats.forOperation("changePin");
+
+    private Map<String, Account> accounts;
     private AccountService accountService;
+    private final AccountCache cache;
+    private final PinVerifier pinVerifier = new PinVerifier();
+    private final FraudScreen fraudScreen = new FraudScreen();
 
     /**
      * Constructs a new ATM instance and initializes it with sample accounts.
      */
     public ATM() {
-        accountService = new AccountService();
-        accounts = accountService.loadAccounts();
+        this(new AccountService());
     }
 
     /**
-     * Authenticates a user based on account number and PIN.
+     * Constructs an ATM over the accounts of an account service.
+     *
+     * @param accountService The service that loads and saves the accounts.
+     */
+    public ATM(AccountService accountService) {
+        this.accountService = accountService;
+        List<Account> loaded = accountService.loadAccounts();
+        accounts = new ConcurrentHashMap<>(Math.max(16, (int) (loaded.size() / 0.75f) + 1));
+        cache = new AccountCache(accountService, accounts::values);
+        for (Account account : loaded) {
+            accounts.put(account.getAccountNumber(), account);
+            cache.track(account);
+        }
+    }
+
+    /**
+     * Authenticates a user based on account number and PIN, waiting for the verification.
+     * The account is found with a single hash lookup, independent of the number of accounts.
      *
      * @param accountNumber The account number to log in with.
      * @param pin The PIN for the account.
      * @return The Account object if login is successful, null otherwise.
      */
     public Account login(String accountNumber, String pin) {
-        for (Account account : accounts) {
-            if (account.getAccountNumber().equals(accountNumber) && account.validatePin(pin)) {
-                return account;
+        return loginAsync(accountNumber, pin).join();
+    }
+
+    /**
+     * Authenticates a user based on account number and PIN without blocking the caller.
+     * The PIN is checked on the {@link PinVerifier}'s worker pool; an old-format PIN that is rehashed on the way
+     * is saved with the next write-behind batch.
+     *
+     * @param accountNumber The account number to log in with.
+     * @param pin The PIN for the account.
+     * @return A future of the Account object if login is successful, or of null otherwise.
+     */
+    public CompletableFuture<Account> loginAsync(String accountNumber, String pin) {
+        AtmOperationEvent event = LOGINS.begin(accountNumber, 0);
+        Account account = accounts.get(accountNumber);
+        if (account == null) {
+            LOGINS.end(event, false);
+            return CompletableFuture.completedFuture(null);
+        }
+        return pinVerifier.verify(account, pin).thenApply(valid -> valid ? account : null)
+                .whenComplete((result, failure) -> LOGINS.end(event, result != null));
+    }
+
+    /**
+     * Changes an account's PIN after checking the old one, with the same attempt limits as a login.
+     *
+     * @param account The account.
+     * @param oldPin The current PIN.
+     * @param newPin The new PIN.
+     * @return True if the PIN was changed, false if the old PIN was wrong or the account is locked.
+     */
+    public boolean changePin(Account account, String oldPin, String newPin) {
+        AtmOperationEvent event = PIN_CHANGES.begin(account.getAccountNumber(), 0);
+        boolean success = false;
+        try {
+            if (!pinVerifier.verify(account, oldPin).join()) {
+                return false;
             }
+            account.setPin(newPin);
+            saveAccount(account);
+            success = true;
+            return true;
+        } finally {
+            PIN_CHANGES.end(event, success);
+        }
+    }
+
+    /**
+     * Checks whether an account is locked after too many wrong PINs.
+     *
+     * @param accountNumber The account number.
+     * @return True if logins to the account are currently refused.
+     */
+    public boolean isLocked(String accountNumber) {
+        return pinVerifier.isLocked(accountNumber);
+    }
+
+    /**
+     * Withdraws from an account after the fraud screen has allowed it.
+     *
+     * @param account The account.
+     * @param amount The amount to withdraw.
+     * @return True if the withdrawal was successful, false if the funds were insufficient.
+     * @throws WithdrawalDeclinedException If the fraud screen declines the withdrawal.
+     * @throws WithdrawalLimitException If the withdrawal would go over one of the account's withdrawal limits.
+     * @throws IllegalArgumentException If the amount is not positive.
+     */
+    public boolean withdraw(Account account, double amount) {
+        return withdrawMinor(account, Account.toMinorUnits(amount));
+    }
+
+    /**
+     * Withdraws an amount in minor units from an account after the fraud screen has allowed it.
+     *
+     * @param account The account.
+     * @param minor The amount to withdraw, in paise.
+     * @return True if the withdrawal was successful, false if the funds were insufficient.
+     * @throws WithdrawalDeclinedException If the fraud screen declines the withdrawal.
+     * @throws WithdrawalLimitException If the withdrawal would go over one of the account's withdrawal limits.
+     * @throws IllegalArgumentException If the amount is not positive.
+     */
+    public boolean withdrawMinor(Account account, long minor) {
+        long now = System.currentTimeMillis();
+        fraudScreen.screen(account, minor, now);
+        if (!account.withdrawMinor(minor)) {
+            return false;
+        }
+        fraudScreen.record(account, minor, now);
+        return true;
+    }
+
+    /**
+     * Returns the fraud screen that withdrawals and transfers go through.
+     *
+     * @return The fraud screen.
+     */
+    public FraudScreen getFraudScreen() {
+        return fraudScreen;
+    }
+
+    /**
+     * Transfers money from one account to another account held by this ATM, after the fraud screen has allowed it.
+     *
+     * @param from The account to debit.
+     * @param toAccountNumber The number of the account to credit.
+     * @param amount The amount to transfer.
+     * @return True if the transfer was made, false if the source account has insufficient funds.
+     * @throws WithdrawalDeclinedException If the fraud screen declines the transfer.
+     * @throws WithdrawalLimitException If the transfer would go over one of the source account's withdrawal limits.
+     * @throws IllegalArgumentException If the target account does not exist or is the source account, or the amount is
+     *         not positive.
+     */
+    public boolean transfer(Account from, String toAccountNumber, double amount) {
+        return transferMinor(from, toAccountNumber, Account.toMinorUnits(amount));
+    }
+
+    /**
+     * Transfers an amount in minor units from one account to another account held by this ATM, after the fraud screen
+     * has allowed it.
+     *
+     * @param from The account to debit.
+     * @param toAccountNumber The number of the account to credit.
+     * @param minor The amount to transfer, in paise.
+     * @return True if the transfer was made, false if the source account has insufficient funds.
+     * @throws WithdrawalDeclinedException If the fraud screen declines the transfer.
+     * @throws WithdrawalLimitException If the transfer would go over one of the source account's withdrawal limits.
+     * @throws IllegalArgumentException If the target account does not exist or is the source account, or the amount is
+     *         not positive.
+     */
+    public boolean transferMinor(Account from, String toAccountNumber, long minor) {
+        Account to = accounts.get(toAccountNumber);
+        if (to == null) {
+            throw new IllegalArgumentException("No such account: " + toAccountNumber);
+        }
+        long now = System.currentTimeMillis();
+        fraudScreen.screen(from, minor, now);
+        if (!Account.transferMinor(from, to, minor)) {
+            return false;
+        }
+        fraudScreen.record(from, minor, now);
+        return true;
+    }
+
+    /**
+     * Returns an account by number.
+     *
+     * @param accountNumber The account number.
+     * @return The Account object, or null if no such account exists.
+     */
+    public Account getAccount(String accountNumber) {
+        return accounts.get(accountNumber);
+    }
+
+    /**
+     * Adds an account at runtime.
+     *
+     * @param account The account to add.
+     * @return True if the account was added, false if an account with the same number already exists.
+     */
+    public boolean addAccount(Account account) {
+        if (accounts.putIfAbsent(account.getAccountNumber(), account) != null) {
+            return false;
         }
-        return null;
+        cache.track(account);
+        cache.markChanged(account);
+        return true;
     }
 
     /**
-     * Saves the accounts to the file.
+     * Removes an account at runtime, along with its stored record. Its closing is recorded in the journal first.
+     *
+     * @param accountNumber The number of the account to remove.
+     * @return The removed Account object, or null if no such account exists.
+     */
+    public Account removeAccount(String accountNumber) {
+        Account removed = accounts.remove(accountNumber);
+        if (removed != null) {
+            removed.recordClosed();
+            cache.untrack(removed);
+            accountService.deleteAccount(accountNumber);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of accounts held by the ATM.
+     *
+     * @return The account count.
+     */
+    public int getAccountCount() {
+        return accounts.size();
+    }
+
+    /**
+     * Saves one account now if it changed since it was last saved, instead of with the next write-behind batch.
+     *
+     * @param account The account to save.
+     */
+    public void saveAccount(Account account) {
+        accountService.saveAccounts(Collections.singletonList(account));
+    }
+
+    /**
+     * Saves the accounts that changed since the last save, without waiting for the next write-behind batch, and writes
+     * a fresh snapshot of all accounts.
      */
     public void saveAccounts() {
-        accountService.saveAccounts(accounts);
+        cache.flush();
+        cache.snapshot();
+    }
+
+    /**
+     * Stops the write-behind, saving the accounts that changed and writing a final snapshot, and stops the worker
+     * pools of the PIN verifier and the fraud screen.
+     */
+    @Override
+    public void close() {
+        cache.close();
+        pinVerifier.close();
+        fraudScreen.close();
     }
 }
@@ -5,16 +5,36 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The ATM terminal window. The welcome screen is shown straight away while the accounts are loaded (or the server is
+ * connected to) in the background; its Start button is enabled once they are ready. The other screens are built the
+ * first time they are shown. The time to the first frame and to the accounts being ready are logged at startup.
+ */
 public class ATMFrame extends JFrame {
-    private CardLayout cardLayout;
-    private JPanel cardPanel;
-    private Account currentAccount;
-    private JPasswordField oldPinField;
-    private JPasswordField newPinField;
-    private JPasswordField confirmPinField;
-    private JButton twentyButton, fortyButton, sixtyButton, hundredButton, changePinButton, backButton;
-    private ATM atm;
+    private final CardLayout cardLayout = new CardLayout();
+    private final JPanel cardPanel = new JPanel(cardLayout);
+    // Builders of the screens that have not been shown yet, by card name.
+    private final Map<String, Supplier<JPanel>> screenBuilders = new HashMap<>();
+    private JButton startButton;
+    // Opens the session and runs PIN checks, which take a noticeable fraction of a second, so the Swing event thread
+    // stays responsive.
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "atm-terminal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CompletableFuture<AtmSession> sessionFuture;
+    // Set on the event thread once the session is open; the screens that use it cannot be reached before then.
+    private AtmSession session;
 
     public ATMFrame() {
         setTitle("ATM Banking System");
@@ -22,29 +42,81 @@ public class ATMFrame extends JFrame {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
 
-        atm = new ATM();
+        long loadStart = System.nanoTime();
+        sessionFuture = CompletableFuture.supplyAsync(AtmSession::open, worker);
 
         addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                System.out.println("First frame shown " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after startup");
+            }
+
             @Override
             public void windowClosing(WindowEvent e) {
-                atm.saveAccounts();
+                closeSession();
                 super.windowClosing(e);
             }
         });
 
-        cardLayout = new CardLayout();
-        cardPanel = new JPanel(cardLayout);
+        cardPanel.add(createWelcomePanel(), "welcome");
+        screenBuilders.put("login", this::createLoginPanel);
+        screenBuilders.put("mainMenu", this::createMainMenuPanel);
+        screenBuilders.put("fastCash", this::createFastCashPanel);
+        screenBuilders.put("changePin", this::createChangePinPanel);
+        add(cardPanel);
+        showScreen("welcome");
+
+        sessionFuture.whenComplete((opened, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                error.printStackTrace();
+                startButton.setText("Unavailable");
+                JOptionPane.showMessageDialog(ATMFrame.this, "The accounts could not be loaded.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            session = opened;
+            startButton.setText("Start");
+            startButton.setEnabled(true);
+            System.out.println("Accounts ready in " + (System.nanoTime() - loadStart) / 1_000_000 + " ms, "
+                    + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after startup");
+        }));
+    }
 
-        // Welcome Screen
+    /**
+     * Shows a screen, building it first if this is the first time it is shown.
+     */
+    private void showScreen(String name) {
+        Supplier<JPanel> builder = screenBuilders.remove(name);
+        if (builder != null) {
+            cardPanel.add(builder.get(), name);
+        }
+        cardLayout.show(cardPanel, name);
+    }
+
+    /**
+     * Closes the session once it is open, or straight away if it already is.
+     */
+    private void closeSession() {
+        sessionFuture.thenAccept(AtmSession::close);
+    }
+
+    private JPanel createWelcomePanel() {
         JPanel welcomePanel = new JPanel(new BorderLayout());
         JLabel logoLabel = new JLabel(new ImageIcon("logo.png"));
         welcomePanel.add(logoLabel, BorderLayout.CENTER);
-        JButton startButton = new JButton("Start");
+        startButton = new JButton("Loading accounts...");
+        startButton.setEnabled(false);
         welcomePanel.add(startButton, BorderLayout.SOUTH);
 
-        cardPanel.add(welcomePanel, "welcome");
+        startButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showScreen("login");
+            }
+        });
+        return welcomePanel;
+    }
 
-        // Login Screen
+    private JPanel createLoginPanel() {
         JPanel loginPanel = new JPanel(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(5, 5, 5, 5);
@@ -96,12 +168,15 @@ public class ATMFrame extends JFrame {
                                 pinField.setText("");
                             }
                         } else if ("Enter".equals(command)) {
-                            currentAccount = atm.login(accountField.getText(), new String(pinField.getPassword()));
-                            if (currentAccount != null) {
-                                cardLayout.show(cardPanel, "mainMenu");
-                            } else {
-                                JOptionPane.showMessageDialog(ATMFrame.this, "Invalid account number or PIN.", "Login Failed", JOptionPane.ERROR_MESSAGE);
-                            }
+                            String accountNumber = accountField.getText();
+                            String pin = new String(pinField.getPassword());
+                            runInBackground(button, () -> session.login(accountNumber, pin), loggedIn -> {
+                                if (loggedIn) {
+                                    showScreen("mainMenu");
+                                } else {
+                                    JOptionPane.showMessageDialog(ATMFrame.this, "Invalid account number or PIN.", "Login Failed", JOptionPane.ERROR_MESSAGE);
+                                }
+                            });
                         } else {
                             if (accountField.isFocusOwner()) {
                                 accountField.setText(accountField.getText() + command);
@@ -114,9 +189,10 @@ public class ATMFrame extends JFrame {
             }
         }
 
-        cardPanel.add(loginPanel, "login");
+        return loginPanel;
+    }
 
-        // Main Menu Screen
+    private JPanel createMainMenuPanel() {
         JPanel mainMenuPanel = new JPanel(new GridLayout(4, 2));
         mainMenuPanel.add(new JButton("Check Balance"));
         mainMenuPanel.add(new JButton("Deposit"));
@@ -124,69 +200,9 @@ public class ATMFrame extends JFrame {
         mainMenuPanel.add(new JButton("Mini Statement"));
         mainMenuPanel.add(new JButton("Fast Cash"));
         mainMenuPanel.add(new JButton("Change PIN"));
+        mainMenuPanel.add(new JButton("Transfer"));
         mainMenuPanel.add(new JButton("Exit"));
 
-        cardPanel.add(mainMenuPanel, "mainMenu");
-
-        // Fast Cash Screen
-        JPanel fastCashPanel = new JPanel(new GridLayout(2, 2));
-        twentyButton = new JButton("₹100");
-        fastCashPanel.add(twentyButton);
-        fortyButton = new JButton("₹500");
-        fastCashPanel.add(fortyButton);
-        sixtyButton = new JButton("₹1000");
-        fastCashPanel.add(sixtyButton);
-        hundredButton = new JButton("₹2000");
-        fastCashPanel.add(hundredButton);
-        cardPanel.add(fastCashPanel, "fastCash");
-
-        // Change PIN Screen
-        JPanel changePinPanel = new JPanel(new GridBagLayout());
-        GridBagConstraints gbcPin = new GridBagConstraints();
-        gbcPin.insets = new Insets(5, 5, 5, 5);
-
-        JLabel oldPinLabel = new JLabel("Old PIN:");
-        gbcPin.gridx = 0;
-        gbcPin.gridy = 0;
-        changePinPanel.add(oldPinLabel, gbcPin);
-
-        oldPinField = new JPasswordField(15);
-        gbcPin.gridx = 1;
-        gbcPin.gridy = 0;
-        changePinPanel.add(oldPinField, gbcPin);
-
-        JLabel newPinLabel = new JLabel("New PIN:");
-        gbcPin.gridx = 0;
-        gbcPin.gridy = 1;
-        changePinPanel.add(newPinLabel, gbcPin);
-
-        newPinField = new JPasswordField(15);
-        gbcPin.gridx = 1;
-        gbcPin.gridy = 1;
-        changePinPanel.add(newPinField, gbcPin);
-
-        JLabel confirmPinLabel = new JLabel("Confirm New PIN:");
-        gbcPin.gridx = 0;
-        gbcPin.gridy = 2;
-        changePinPanel.add(confirmPinLabel, gbcPin);
-
-        confirmPinField = new JPasswordField(15);
-        gbcPin.gridx = 1;
-        gbcPin.gridy = 2;
-        changePinPanel.add(confirmPinField, gbcPin);
-
-        changePinButton = new JButton("Change PIN");
-        gbcPin.gridx = 1;
-        gbcPin.gridy = 3;
-        changePinPanel.add(changePinButton, gbcPin);
-        
-        backButton = new JButton("Back to Main Menu");
-        gbcPin.gridx = 0;
-        gbcPin.gridy = 3;
-        changePinPanel.add(backButton, gbcPin);
-
-        cardPanel.add(changePinPanel, "changePin");
-
         for (Component comp : mainMenuPanel.getComponents()) {
             if (comp instanceof JButton) {
                 JButton button = (JButton) comp;
@@ -197,63 +213,81 @@ public class ATMFrame extends JFrame {
                         if ("Exit".equals(command)) {
                             int choice = JOptionPane.showConfirmDialog(ATMFrame.this, "Are you sure you want to exit?", "Exit", JOptionPane.YES_NO_OPTION);
                             if (choice == JOptionPane.YES_OPTION) {
-                                atm.saveAccounts();
+                                closeSession();
                                 System.exit(0);
                             }
                         } else if ("Check Balance".equals(command)) {
-                            if (currentAccount != null) {
-                                JOptionPane.showMessageDialog(ATMFrame.this, "Current balance: " + currentAccount.getBalance(), "Balance", JOptionPane.INFORMATION_MESSAGE);
+                            if (session.isLoggedIn()) {
+                                JOptionPane.showMessageDialog(ATMFrame.this, "Current balance: " + session.getBalance(), "Balance", JOptionPane.INFORMATION_MESSAGE);
                             }
                         } else if ("Deposit".equals(command)) {
-                            if (currentAccount != null) {
+                            if (session.isLoggedIn()) {
                                 String amountString = JOptionPane.showInputDialog(ATMFrame.this, "Enter amount to deposit:", "Deposit", JOptionPane.PLAIN_MESSAGE);
                                 if (amountString != null && !amountString.isEmpty()) {
                                     try {
-                                        double amount = Double.parseDouble(amountString);
-                                        if (amount > 0) {
-                                            currentAccount.deposit(amount);
-                                            JOptionPane.showMessageDialog(ATMFrame.this, "Deposit successful. New balance: " + currentAccount.getBalance(), "Success", JOptionPane.INFORMATION_MESSAGE);
-                                        } else {
-                                            JOptionPane.showMessageDialog(ATMFrame.this, "Invalid amount.", "Error", JOptionPane.ERROR_MESSAGE);
-                                        }
+                                        double amount = AtmSession.parseAmount(amountString);
+                                        session.deposit(amount);
+                                        JOptionPane.showMessageDialog(ATMFrame.this, "Deposit successful. New balance: " + session.getBalance(), "Success", JOptionPane.INFORMATION_MESSAGE);
                                     } catch (NumberFormatException ex) {
                                         JOptionPane.showMessageDialog(ATMFrame.this, "Invalid amount.", "Error", JOptionPane.ERROR_MESSAGE);
                                     }
                                 }
                             }
                         } else if ("Withdraw".equals(command)) {
-                            if (currentAccount != null) {
+                            if (session.isLoggedIn()) {
                                 String amountString = JOptionPane.showInputDialog(ATMFrame.this, "Enter amount to withdraw:", "Withdraw", JOptionPane.PLAIN_MESSAGE);
                                 if (amountString != null && !amountString.isEmpty()) {
                                     try {
-                                        double amount = Double.parseDouble(amountString);
-                                        if (amount > 0) {
-                                            if (currentAccount.withdraw(amount)) {
-                                                JOptionPane.showMessageDialog(ATMFrame.this, "Withdrawal successful. New balance: " + currentAccount.getBalance(), "Success", JOptionPane.INFORMATION_MESSAGE);
-                                            } else {
-                                                JOptionPane.showMessageDialog(ATMFrame.this, "Insufficient funds.", "Error", JOptionPane.ERROR_MESSAGE);
-                                            }
+                                        double amount = AtmSession.parseAmount(amountString);
+                                        if (session.withdraw(amount)) {
+                                            JOptionPane.showMessageDialog(ATMFrame.this, "Withdrawal successful. New balance: " + session.getBalance(), "Success", JOptionPane.INFORMATION_MESSAGE);
+                                        } else {
+                                            JOptionPane.showMessageDialog(ATMFrame.this, "Insufficient funds.", "Error", JOptionPane.ERROR_MESSAGE);
+                                        }
+                                    } catch (NumberFormatException ex) {
+                                        JOptionPane.showMessageDialog(ATMFrame.this, "Invalid amount.", "Error", JOptionPane.ERROR_MESSAGE);
+                                    } catch (WithdrawalLimitException | WithdrawalDeclinedException ex) {
+                                        JOptionPane.showMessageDialog(ATMFrame.this, ex.getMessage(), "Withdrawal Declined", JOptionPane.ERROR_MESSAGE);
+                                    }
+                                }
+                            }
+                        } else if ("Transfer".equals(command)) {
+                            if (session.isLoggedIn()) {
+                                String toAccount = JOptionPane.showInputDialog(ATMFrame.this, "Enter account number to transfer to:", "Transfer", JOptionPane.PLAIN_MESSAGE);
+                                if (toAccount == null || toAccount.isEmpty()) {
+                                    return;
+                                }
+                                String amountString = JOptionPane.showInputDialog(ATMFrame.this, "Enter amount to transfer:", "Transfer", JOptionPane.PLAIN_MESSAGE);
+                                if (amountString != null && !amountString.isEmpty()) {
+                                    try {
+                                        double amount = AtmSession.parseAmount(amountString);
+                                        if (session.transfer(toAccount, amount)) {
+                                            JOptionPane.showMessageDialog(ATMFrame.this, "Transfer successful. New balance: " + session.getBalance(), "Success", JOptionPane.INFORMATION_MESSAGE);
                                         } else {
-                                            JOptionPane.showMessageDialog(ATMFrame.this, "Invalid amount.", "Error", JOptionPane.ERROR_MESSAGE);
+                                            JOptionPane.showMessageDialog(ATMFrame.this, "Insufficient funds.", "Error", JOptionPane.ERROR_MESSAGE);
                                         }
                                     } catch (NumberFormatException ex) {
                                         JOptionPane.showMessageDialog(ATMFrame.this, "Invalid amount.", "Error", JOptionPane.ERROR_MESSAGE);
+                                    } catch (WithdrawalLimitException | WithdrawalDeclinedException ex) {
+                                        JOptionPane.showMessageDialog(ATMFrame.this, ex.getMessage(), "Transfer Declined", JOptionPane.ERROR_MESSAGE);
+                                    } catch (IllegalArgumentException ex) {
+                                        JOptionPane.showMessageDialog(ATMFrame.this, "Cannot transfer to account " + toAccount + ".", "Error", JOptionPane.ERROR_MESSAGE);
                                     }
                                 }
                             }
                         } else if ("Mini Statement".equals(command)) {
-                            if (currentAccount != null) {
+                            if (session.isLoggedIn()) {
                                 StringBuilder statement = new StringBuilder("--- Mini Statement ---\n");
-                                for (String transaction : currentAccount.getTransactionHistory()) {
+                                for (String transaction : session.getMiniStatement()) {
                                     statement.append(transaction).append("\n");
                                 }
                                 statement.append("---------------------\n");
                                 JOptionPane.showMessageDialog(ATMFrame.this, statement.toString(), "Mini Statement", JOptionPane.INFORMATION_MESSAGE);
                             }
                         } else if ("Fast Cash".equals(command)) {
-                            cardLayout.show(cardPanel, "fastCash");
+                            showScreen("fastCash");
                         } else if ("Change PIN".equals(command)) {
-                            cardLayout.show(cardPanel, "changePin");
+                            showScreen("changePin");
                         } else {
                             JOptionPane.showMessageDialog(ATMFrame.this, command + " feature coming soon!", "Info", JOptionPane.INFORMATION_MESSAGE);
                         }
@@ -261,46 +295,104 @@ public class ATMFrame extends JFrame {
                 });
             }
         }
+        return mainMenuPanel;
+    }
+
+    private JPanel createFastCashPanel() {
+        JPanel fastCashPanel = new JPanel(new GridLayout(2, 2));
 
         ActionListener fastCashListener = new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (currentAccount != null) {
-                    String amountString = ((JButton) e.getSource()).getText().substring(1);
-                    double amount = Double.parseDouble(amountString);
-                    if (currentAccount.withdraw(amount)) {
-                        JOptionPane.showMessageDialog(ATMFrame.this, "Withdrawal successful. New balance: " + currentAccount.getBalance(), "Success", JOptionPane.INFORMATION_MESSAGE);
-                    } else {
-                        JOptionPane.showMessageDialog(ATMFrame.this, "Insufficient funds.", "Error", JOptionPane.ERROR_MESSAGE);
+                if (session.isLoggedIn()) {
+                    int option = Integer.parseInt(e.getActionCommand());
+                    try {
+                        if (session.fastCash(option)) {
+                            JOptionPane.showMessageDialog(ATMFrame.this, "Withdrawal successful. New balance: " + session.getBalance(), "Success", JOptionPane.INFORMATION_MESSAGE);
+                        } else {
+                            JOptionPane.showMessageDialog(ATMFrame.this, "Insufficient funds.", "Error", JOptionPane.ERROR_MESSAGE);
+                        }
+                    } catch (WithdrawalLimitException | WithdrawalDeclinedException ex) {
+                        JOptionPane.showMessageDialog(ATMFrame.this, ex.getMessage(), "Withdrawal Declined", JOptionPane.ERROR_MESSAGE);
                     }
-                    cardLayout.show(cardPanel, "mainMenu");
+                    showScreen("mainMenu");
                 }
             }
         };
 
-        twentyButton.addActionListener(fastCashListener);
-        fortyButton.addActionListener(fastCashListener);
-        sixtyButton.addActionListener(fastCashListener);
-        hundredButton.addActionListener(fastCashListener);
+        for (int option = 0; option < AtmSession.FAST_CASH_AMOUNTS.size(); option++) {
+            JButton button = new JButton("₹" + Math.round(AtmSession.FAST_CASH_AMOUNTS.get(option)));
+            button.setActionCommand(String.valueOf(option));
+            button.addActionListener(fastCashListener);
+            fastCashPanel.add(button);
+        }
+        return fastCashPanel;
+    }
+
+    private JPanel createChangePinPanel() {
+        JPanel changePinPanel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbcPin = new GridBagConstraints();
+        gbcPin.insets = new Insets(5, 5, 5, 5);
+
+        JLabel oldPinLabel = new JLabel("Old PIN:");
+        gbcPin.gridx = 0;
+        gbcPin.gridy = 0;
+        changePinPanel.add(oldPinLabel, gbcPin);
+
+        JPasswordField oldPinField = new JPasswordField(15);
+        gbcPin.gridx = 1;
+        gbcPin.gridy = 0;
+        changePinPanel.add(oldPinField, gbcPin);
+
+        JLabel newPinLabel = new JLabel("New PIN:");
+        gbcPin.gridx = 0;
+        gbcPin.gridy = 1;
+        changePinPanel.add(newPinLabel, gbcPin);
+
+        JPasswordField newPinField = new JPasswordField(15);
+        gbcPin.gridx = 1;
+        gbcPin.gridy = 1;
+        changePinPanel.add(newPinField, gbcPin);
+
+        JLabel confirmPinLabel = new JLabel("Confirm New PIN:");
+        gbcPin.gridx = 0;
+        gbcPin.gridy = 2;
+        changePinPanel.add(confirmPinLabel, gbcPin);
+
+        JPasswordField confirmPinField = new JPasswordField(15);
+        gbcPin.gridx = 1;
+        gbcPin.gridy = 2;
+        changePinPanel.add(confirmPinField, gbcPin);
+
+        JButton changePinButton = new JButton("Change PIN");
+        gbcPin.gridx = 1;
+        gbcPin.gridy = 3;
+        changePinPanel.add(changePinButton, gbcPin);
+        
+        JButton backButton = new JButton("Back to Main Menu");
+        gbcPin.gridx = 0;
+        gbcPin.gridy = 3;
+        changePinPanel.add(backButton, gbcPin);
 
         changePinButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (currentAccount != null) {
+                if (session.isLoggedIn()) {
                     String oldPin = new String(oldPinField.getPassword());
                     String newPin = new String(newPinField.getPassword());
                     String confirmPin = new String(confirmPinField.getPassword());
 
-                    if (currentAccount.validatePin(oldPin)) {
-                        if (newPin.equals(confirmPin)) {
-                            currentAccount.setPin(newPin);
-                            JOptionPane.showMessageDialog(ATMFrame.this, "PIN changed successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
-                            cardLayout.show(cardPanel, "mainMenu");
-                        } else {
-                            JOptionPane.showMessageDialog(ATMFrame.this, "New PINs do not match.", "Error", JOptionPane.ERROR_MESSAGE);
-                        }
+                    if (!newPin.equals(confirmPin)) {
+                        JOptionPane.showMessageDialog(ATMFrame.this, "New PINs do not match.", "Error", JOptionPane.ERROR_MESSAGE);
                     } else {
-                        JOptionPane.showMessageDialog(ATMFrame.this, "Incorrect old PIN.", "Error", JOptionPane.ERROR_MESSAGE);
+                        runInBackground(changePinButton, () -> session.changePin(oldPin, newPin), changed -> {
+                            if (changed) {
+                                JOptionPane.showMessageDialog(ATMFrame.this, "PIN changed successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
+                                showScreen("mainMenu");
+                            } else {
+                                JOptionPane.showMessageDialog(ATMFrame.this, "Incorrect old PIN.", "Error", JOptionPane.ERROR_MESSAGE);
+                            }
+                        });
                     }
                 }
             }
@@ -309,20 +401,28 @@ public class ATMFrame extends JFrame {
         backButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                cardLayout.show(cardPanel, "mainMenu");
+                showScreen("mainMenu");
             }
         });
 
-        add(cardPanel);
+        return changePinPanel;
+    }
 
-        startButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                cardLayout.show(cardPanel, "login");
+    /**
+     * Runs a slow session call on the terminal's worker thread and handles its result back on the event thread.
+     * The button that started it is disabled meanwhile, so it cannot be pressed again.
+     */
+    private <T> void runInBackground(JButton trigger, Supplier<T> task, Consumer<T> onResult) {
+        trigger.setEnabled(false);
+        CompletableFuture.supplyAsync(task, worker).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            trigger.setEnabled(true);
+            if (error != null) {
+                error.printStackTrace();
+                JOptionPane.showMessageDialog(ATMFrame.this, "The request could not be completed. Please try again.", "Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                onResult.accept(result);
             }
-        });
-
-        cardLayout.show(cardPanel, "welcome");
+        }));
     }
 
     public static void main(String[] args) {
@@ -1,35 +1,81 @@
 
-import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Represents a bank account.
  * Each account has an account number, a PIN, a balance, and a transaction history.
+ * The PIN is kept only as a salted hash (see {@link PinHasher}).
+ * The full history is not held in memory; it lives in the shared transaction journal and is read on demand. Only the
+ * last few transactions are kept in memory, in a fixed-size ring (size set with {@code atm.recent.capacity}).
+ * The balance is held as a whole number of minor units (paise) and updated with compare-and-set,
+ * so concurrent sessions on the same account never lose an update or overdraw it. Each change is queued to the journal
+ * while the account's lock is held, so the account's journal records are in the same order as its balance changes and
+ * the latest one always holds its current balance. Withdrawals and transfers out are held to the limits of the
+ * account's class (see {@link WithdrawalLimits}), checked under the same lock as the debit. Deposits, withdrawals and transfers are timed
+ * and counted by {@link OperationStats}.
  */
 public class Account {
+    /** The number of minor units (paise) in one major unit (rupee). */
+    public static final int MINOR_UNITS = 100;
+
+    private static final int RECENT_CAPACITY = Integer.getInteger("atm.recent.capacity", 10);
+    private static final OperationStats DEPOSITS = OperationStats.forOperation("deposit");
+    private static final OperationStats WITHDRAWALS = OperationStats.forOperation("withdraw");
+    private static final OperationStats TRANSFERS = OperationStats.forOperation("transfer");
+
     private String accountNumber;
-    private String pin;
-    private double balance;
-    private List<String> transactionHistory;
-    private final String transactionFile;
+    private volatile String credential;
+    private final AtomicLong balance;
+    private final int accountClass;
+    private final TransactionJournal journal;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile Consumer<Account> changeListener;
+    private final RecentTransactions recent = new RecentTransactions(RECENT_CAPACITY);
+    // Guarded by recent: whether the ring has been filled from the journal yet.
+    private boolean recentLoaded;
+    // Guarded by this; created on the first withdrawal or transfer out.
+    private WithdrawalLimits.Usage withdrawals;
 
     /**
      * Constructs a new Account instance.
      *
      * @param accountNumber The unique identifier for the account.
-     * @param pin The personal identification number for authentication.
+     * @param credential The stored PIN credential, as produced by {@link PinHasher#hash}.
+     * @param balance The initial balance of the account.
+     * @param journal The shared journal that holds the account's transactions.
+     */
+    public Account(String accountNumber, String credential, double balance, TransactionJournal journal) {
+        this(accountNumber, credential, balance, 0, journal);
+    }
+
+    /**
+     * Constructs a new Account instance of an account class.
+     *
+     * @param accountNumber The unique identifier for the account.
+     * @param credential The stored PIN credential, as produced by {@link PinHasher#hash}.
      * @param balance The initial balance of the account.
+     * @param accountClass The account class, which sets its withdrawal limits.
+     * @param journal The shared journal that holds the account's transactions.
      */
-    public Account(String accountNumber, String pin, double balance) {
+    public Account(String accountNumber, String credential, double balance, int accountClass, TransactionJournal journal) {
         this.accountNumber = accountNumber;
-        this.pin = pin;
-        this.balance = balance;
-        this.transactionHistory = new ArrayList<>();
-        this.transactionFile = accountNumber + "_transactions.txt";
-        loadTransactionHistory();
-        if (transactionHistory.isEmpty()) {
-            addTransaction("Initial balance: " + balance);
+        this.credential = credential;
+        this.balance = new AtomicLong(toMinorUnits(balance));
+        this.accountClass = accountClass;
+        this.journal = journal;
+        if (!journal.hasTransactions(accountNumber)) {
+            recentLoaded = true;
+            journal.append(record(TransactionType.INITIAL_BALANCE, this.balance.get(), this.balance.get(), null));
         }
     }
 
@@ -43,105 +89,483 @@ public class Account {
     }
 
     /**
-     * Validates the provided PIN.
+     * Validates the provided PIN. This runs the slow key derivation; logins go through {@link PinVerifier} instead,
+     * which runs it off the caller's thread and limits attempts.
      *
      * @param pin The PIN to validate.
      * @return True if the PIN is correct, false otherwise.
      */
     public boolean validatePin(String pin) {
-        return this.pin.equals(pin);
+        return PinHasher.verify(credential, pin);
+    }
+
+    /**
+     * Returns the account class, which sets the account's withdrawal limits.
+     *
+     * @return The account class.
+     */
+    public int getAccountClass() {
+        return accountClass;
     }
 
     /**
      * Returns the current balance of the account.
      *
-     * @return The current balance.
+     * @return The current balance in rupees.
      */
     public double getBalance() {
-        return balance;
+        return toMajorUnits(balance.get());
+    }
+
+    /**
+     * Returns the current balance of the account in minor units.
+     *
+     * @return The current balance in paise.
+     */
+    public long getBalanceMinor() {
+        return balance.get();
     }
 
     /**
      * Deposits a specified amount into the account.
      *
      * @param amount The amount to deposit.
+     * @throws IllegalArgumentException If the amount is not positive, or the balance would grow too large to hold.
      */
     public void deposit(double amount) {
-        balance += amount;
-        addTransaction("Deposited: " + amount);
+        depositMinor(toMinorUnits(amount));
+    }
+
+    /**
+     * Deposits an amount in minor units into the account.
+     *
+     * @param minor The amount to deposit, in paise.
+     * @throws IllegalArgumentException If the amount is not positive, or the balance would grow too large to hold.
+     */
+    public void depositMinor(long minor) {
+        requirePositive(minor, toMajorUnits(minor));
+        AtmOperationEvent event = DEPOSITS.begin(accountNumber, minor);
+        boolean success = false;
+        try {
+            CompletableFuture<Void> written;
+            synchronized (this) {
+                long balanceAfter = credit(minor);
+                if (balanceAfter < 0) {
+                    throw new IllegalArgumentException("The balance of account " + accountNumber + " cannot take a deposit of "
+                            + toMajorUnits(minor));
+                }
+                written = addTransaction(TransactionType.DEPOSIT, minor, balanceAfter, null, minor);
+            }
+            journal.awaitDurable(written);
+            success = true;
+        } finally {
+            DEPOSITS.end(event, success);
+        }
     }
 
     /**
      * Withdraws a specified amount from the account.
+     * The limit checks, the balance check and the debit happen as one atomic step.
      *
      * @param amount The amount to withdraw.
-     * @return True if the withdrawal was successful, false otherwise.
+     * @return True if the withdrawal was successful, false if the funds were insufficient.
+     * @throws WithdrawalLimitException If the withdrawal would go over one of the account's withdrawal limits.
+     * @throws IllegalArgumentException If the amount is not positive.
      */
     public boolean withdraw(double amount) {
-        if (balance >= amount) {
-            balance -= amount;
-            addTransaction("Withdrew: " + amount);
-            return true;
+        return withdrawMinor(toMinorUnits(amount));
+    }
+
+    /**
+     * Withdraws an amount in minor units from the account.
+     *
+     * @param minor The amount to withdraw, in paise.
+     * @return True if the withdrawal was successful, false if the funds were insufficient.
+     * @throws WithdrawalLimitException If the withdrawal would go over one of the account's withdrawal limits.
+     * @throws IllegalArgumentException If the amount is not positive.
+     */
+    public boolean withdrawMinor(long minor) {
+        AtmOperationEvent event = WITHDRAWALS.begin(accountNumber, minor);
+        boolean success = false;
+        try {
+            success = debitWithinLimits(minor);
+            return success;
+        } finally {
+            WITHDRAWALS.end(event, success);
+        }
+    }
+
+    private boolean debitWithinLimits(long minor) {
+        // A negative withdrawal would pass the funds and limit checks and raise the balance.
+        requirePositive(minor, toMajorUnits(minor));
+        CompletableFuture<Void> written;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            WithdrawalLimits.Usage usage = withdrawalUsage(now);
+            usage.check(minor, now);
+            long balanceAfter = debit(minor);
+            if (balanceAfter < 0) {
+                return false;
+            }
+            usage.record(minor, now);
+            written = appendOrUndo(journal, Collections.singletonList(record(TransactionType.WITHDRAWAL, minor, balanceAfter, null)), () -> {
+                undo(-minor);
+                usage.forget(minor, now);
+            });
+        }
+        journal.awaitDurable(written);
+        return true;
+    }
+
+    /**
+     * Records in the journal that the account is closed, paying out its balance. The account's history ends there,
+     * so replaying the journal does not bring the account back, and one opened later under the same number starts a
+     * new history.
+     */
+    public void recordClosed() {
+        CompletableFuture<Void> written;
+        synchronized (this) {
+            written = journal.appendAsync(Collections.singletonList(record(TransactionType.CLOSED, balance.get(), 0, null)));
+        }
+        journal.awaitDurable(written);
+    }
+
+    /**
+     * Moves an amount from one account to another.
+     * Both accounts are locked in account-number order, so any number of concurrent transfers in either direction
+     * cannot deadlock, and the debit and credit happen together while no other transfer touches either account.
+     * The debit is a compare-and-set like a withdrawal, so concurrent withdrawals still cannot overdraw the source,
+     * and is held to the source's withdrawal limits like a withdrawal. Both journal entries are written as one unit.
+     *
+     * @param from The account to debit.
+     * @param to The account to credit.
+     * @param amount The amount to transfer.
+     * @return True if the transfer was made, false if the source account has insufficient funds.
+     * @throws WithdrawalLimitException If the transfer would go over one of the source account's withdrawal limits.
+     * @throws IllegalArgumentException If both accounts are the same, the amount is not positive, or the target's
+     *         balance would grow too large to hold.
+     */
+    public static boolean transfer(Account from, Account to, double amount) {
+        return transferMinor(from, to, toMinorUnits(amount));
+    }
+
+    /**
+     * Moves an amount in minor units from one account to another, as {@link #transfer} does.
+     *
+     * @param from The account to debit.
+     * @param to The account to credit.
+     * @param minor The amount to transfer, in paise.
+     * @return True if the transfer was made, false if the source account has insufficient funds.
+     * @throws WithdrawalLimitException If the transfer would go over one of the source account's withdrawal limits.
+     * @throws IllegalArgumentException If both accounts are the same, the amount is not positive, or the target's
+     *         balance would grow too large to hold.
+     */
+    public static boolean transferMinor(Account from, Account to, long minor) {
+        int order = from.accountNumber.compareTo(to.accountNumber);
+        if (order == 0) {
+            throw new IllegalArgumentException("Cannot transfer from account " + from.accountNumber + " to itself");
+        }
+        // A negative debit would raise the source balance and a negative credit drain the target.
+        requirePositive(minor, toMajorUnits(minor));
+        AtmOperationEvent event = TRANSFERS.begin(from.accountNumber, minor);
+        boolean success = false;
+        try {
+            success = move(from, to, minor, order);
+            return success;
+        } finally {
+            TRANSFERS.end(event, success);
+        }
+    }
+
+    private static boolean move(Account from, Account to, long minor, int order) {
+        Account first = order < 0 ? from : to;
+        Account second = order < 0 ? to : from;
+        CompletableFuture<Void> written;
+        synchronized (first) {
+            synchronized (second) {
+                long now = System.currentTimeMillis();
+                WithdrawalLimits.Usage usage = from.withdrawalUsage(now);
+                usage.check(minor, now);
+                long fromBalance = from.debit(minor);
+                if (fromBalance < 0) {
+                    return false;
+                }
+                long toBalance = to.credit(minor);
+                if (toBalance < 0) {
+                    // Nothing is recorded yet, and the source is locked, so only its debit has to be taken back.
+                    from.balance.addAndGet(minor);
+                    throw new IllegalArgumentException("The balance of account " + to.accountNumber + " cannot take a transfer of "
+                            + toMajorUnits(minor));
+                }
+                usage.record(minor, now);
+                written = appendOrUndo(from.journal, Arrays.asList(
+                        from.record(TransactionType.TRANSFER_OUT, minor, fromBalance, to.accountNumber),
+                        to.record(TransactionType.TRANSFER_IN, minor, toBalance, from.accountNumber)), () -> {
+                            from.undo(-minor);
+                            to.undo(minor);
+                            usage.forget(minor, now);
+                        });
+            }
+        }
+        // Like single-account transactions, the write is waited for outside the locks so transfers share group commits.
+        from.journal.awaitDurable(written);
+        return true;
+    }
+
+    /**
+     * Returns the account's usage of its withdrawal limits, loading it from the journal the first time. Must hold the
+     * account's lock.
+     */
+    private WithdrawalLimits.Usage withdrawalUsage(long nowMillis) {
+        if (withdrawals == null) {
+            withdrawals = WithdrawalLimits.forClass(accountClass).loadUsage(this, nowMillis);
+        }
+        return withdrawals;
+    }
+
+    private static void requirePositive(long minor, double amount) {
+        if (minor <= 0) {
+            throw new IllegalArgumentException("The amount must be positive: " + amount);
+        }
+    }
+
+    /**
+     * Adds an amount to the balance unless the sum would overflow.
+     *
+     * @return The balance after the credit in paise, or -1 if the balance would grow too large to hold.
+     */
+    private long credit(long minor) {
+        while (true) {
+            long current = balance.get();
+            long balanceAfter;
+            try {
+                balanceAfter = Math.addExact(current, minor);
+            } catch (ArithmeticException ex) {
+                return -1;
+            }
+            if (balance.compareAndSet(current, balanceAfter)) {
+                markDirty();
+                return balanceAfter;
+            }
+        }
+    }
+
+    /**
+     * Takes an amount from the balance if it is large enough.
+     *
+     * @return The balance after the debit in paise, or -1 if the balance was too small.
+     */
+    private long debit(long minor) {
+        while (true) {
+            long current = balance.get();
+            if (current < minor) {
+                return -1;
+            }
+            if (balance.compareAndSet(current, current - minor)) {
+                markDirty();
+                return current - minor;
+            }
         }
-        return false;
     }
 
     /**
-     * Returns the transaction history for the account.
+     * Converts an amount in rupees to paise, rounding half up to the nearest paisa.
+     *
+     * @param amount The amount in rupees.
+     * @return The amount in paise.
+     */
+    public static long toMinorUnits(double amount) {
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact();
+    }
+
+    /**
+     * Converts an amount in paise to rupees.
+     *
+     * @param minor The amount in paise.
+     * @return The amount in rupees.
+     */
+    public static double toMajorUnits(long minor) {
+        return (double) minor / MINOR_UNITS;
+    }
+
+    /**
+     * Returns the full transaction history for the account. It is read from the journal on disk, so it should only
+     * be requested when the whole history is really needed.
      *
-     * @return A list of transaction records.
+     * @return A list of transaction records, oldest first.
      */
     public List<String> getTransactionHistory() {
-        return transactionHistory;
+        return describe(journal.readAll(accountNumber));
     }
 
     /**
-     * Adds a transaction record to the history and saves it to the transaction file.
+     * Returns the most recent transactions for the account. Up to the ring's capacity they come from memory;
+     * beyond that only the requested entries are read from the journal.
      *
-     * @param transaction The transaction details to add.
+     * @param count The maximum number of transactions to return.
+     * @return A list of transaction records, oldest first.
      */
-    private void addTransaction(String transaction) {
-        transactionHistory.add(transaction);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(transactionFile, true))) {
-            writer.write(transaction);
-            writer.newLine();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public List<String> getRecentTransactions(int count) {
+        if (count > recent.getCapacity()) {
+            return describe(journal.readRecent(accountNumber, count));
+        }
+        synchronized (recent) {
+            loadRecent();
+            return recent.describe(count);
         }
     }
 
     /**
-     * Loads the transaction history from the transaction file.
+     * Returns the account's transactions in a time range, read from the journal.
+     *
+     * @param fromMillis The start of the range, inclusive, in epoch milliseconds.
+     * @param toMillis The end of the range, inclusive, in epoch milliseconds.
+     * @param types The types to include, or null for all types.
+     * @return The matching transactions, oldest first.
      */
-    private void loadTransactionHistory() {
-        File file = new File(transactionFile);
-        if (file.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    transactionHistory.add(line);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+    public List<Transaction> getTransactions(long fromMillis, long toMillis, Set<TransactionType> types) {
+        return journal.query(accountNumber, fromMillis, toMillis, types);
+    }
+
+    private static List<String> describe(List<Transaction> transactions) {
+        List<String> descriptions = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            descriptions.add(transaction.describe());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Records a transaction in the recent-transactions ring and queues it to the shared transaction journal, for a
+     * change just made to the balance. Must hold the account's lock.
+     *
+     * @param type The transaction type.
+     * @param amountMinor The amount in paise.
+     * @param balanceAfterMinor The balance after the transaction in paise.
+     * @param detail The counterparty for transfers, otherwise null.
+     * @param changeMinor The change that was made, undone if the record cannot be written.
+     * @return A future that completes when the journal has written the transaction.
+     */
+    private CompletableFuture<Void> addTransaction(TransactionType type, long amountMinor, long balanceAfterMinor, String detail,
+                                                   long changeMinor) {
+        return appendOrUndo(journal, Collections.singletonList(record(type, amountMinor, balanceAfterMinor, detail)),
+                () -> undo(changeMinor));
+    }
+
+    /**
+     * Queues journal records for balance changes that were already made, and undoes the changes if the records cannot
+     * be written, so a balance never holds money the journal does not. A journal that fails to write stops taking
+     * appends, so no later record can have been based on a change that is undone.
+     *
+     * @return A future that completes once the records are written, or once the changes are undone if they are not.
+     */
+    private static CompletableFuture<Void> appendOrUndo(TransactionJournal journal, List<Transaction> records, Runnable undo) {
+        CompletableFuture<Void> written;
+        try {
+            written = journal.appendAsync(records);
+        } catch (RuntimeException ex) {
+            undo.run();
+            throw ex;
+        }
+        return written.whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                undo.run();
+            }
+        });
+    }
+
+    /**
+     * Takes back a change to the balance whose journal record was not written, and drops the recent transactions so
+     * they are read again from the journal.
+     */
+    private void undo(long changeMinor) {
+        balance.addAndGet(-changeMinor);
+        markDirty();
+        synchronized (recent) {
+            recent.clear();
+            recentLoaded = false;
+        }
+    }
+
+    /**
+     * Records a transaction in the recent-transactions ring.
+     *
+     * @return The transaction to append to the journal.
+     */
+    private Transaction record(TransactionType type, long amountMinor, long balanceAfterMinor, String detail) {
+        synchronized (recent) {
+            loadRecent();
+            recent.add(type, amountMinor, detail);
+        }
+        return new Transaction(accountNumber, type, amountMinor, balanceAfterMinor, detail);
+    }
+
+    /**
+     * Fills the ring from the tail of the journal the first time it is used. Must hold the ring's lock.
+     */
+    private void loadRecent() {
+        if (!recentLoaded) {
+            for (Transaction transaction : journal.readRecent(accountNumber, recent.getCapacity())) {
+                recent.add(transaction.getType(), transaction.getAmountMinor(), transaction.getDetail());
             }
+            recentLoaded = true;
         }
     }
 
     /**
-     * Sets a new PIN for the account.
+     * Sets a new PIN for the account, stored as a freshly salted hash.
      *
      * @param newPin The new PIN to set.
      */
     public void setPin(String newPin) {
-        this.pin = newPin;
+        this.credential = PinHasher.hash(newPin);
+        markDirty();
+    }
+
+    /**
+     * Sets a listener that is told when the account changes after it was last persisted. It is called once per
+     * change from clean to changed, on the thread that made the change.
+     *
+     * @param listener The listener, or null for none.
+     */
+    public void setChangeListener(Consumer<Account> listener) {
+        this.changeListener = listener;
+    }
+
+    private void markDirty() {
+        if (!dirty.getAndSet(true)) {
+            Consumer<Account> listener = changeListener;
+            if (listener != null) {
+                listener.accept(this);
+            }
+        }
+    }
+
+    /**
+     * Clears the account's changed flag. Called before the account is persisted, so a change made while it is
+     * being written sets the flag again and is picked up by the next save. If the write fails,
+     * {@link #markUnsaved} sets it again.
+     *
+     * @return True if the account had changed since it was last persisted.
+     */
+    public boolean markClean() {
+        return dirty.getAndSet(false);
+    }
+
+    /**
+     * Sets the account's changed flag again after persisting it failed, so the next save writes it, and tells the
+     * change listener as for any other change.
+     */
+    public void markUnsaved() {
+        markDirty();
     }
 
     /**
-     * Returns the PIN.
+     * Returns the stored PIN credential.
      *
-     * @return The PIN.
+     * @return The encoded credential.
      */
-    public String getPin() {
-        return pin;
+    public String getCredential() {
+        return credential;
     }
 }
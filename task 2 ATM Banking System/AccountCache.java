@@ -0,0 +1,129 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A write-behind cache in front of an {@link AccountService}. Accounts report themselves when they change, and a
+ * background thread writes the changed ones to the account store in batches, every {@code atm.flush.millis}
+ * milliseconds (100 by default), with one flush to disk per batch. Transactions no longer wait for the store: they
+ * are already durable in the journal, which is what the store is recovered from if the process stops before a batch
+ * is written. Every {@code atm.snapshot.seconds} seconds (60 by default) the same thread also writes a snapshot of
+ * all accounts, which rebuilds the store if it is ever lost.
+ */
+public class AccountCache implements Closeable {
+    private static final long FLUSH_MILLIS = Long.getLong("atm.flush.millis", 100);
+    private static final long SNAPSHOT_SECONDS = Long.getLong("atm.snapshot.seconds", 60);
+
+    private final AccountService accountService;
+    private final Supplier<Collection<Account>> allAccounts;
+    private final Set<Account> changed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "account-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a cache and starts its background flushes and snapshots.
+     *
+     * @param accountService The service that writes the accounts.
+     * @param allAccounts Supplies all current accounts, for snapshots.
+     */
+    public AccountCache(AccountService accountService, Supplier<Collection<Account>> allAccounts) {
+        this.accountService = accountService;
+        this.allAccounts = allAccounts;
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::snapshotQuietly, SNAPSHOT_SECONDS, SNAPSHOT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts tracking an account, so its changes are written behind.
+     *
+     * @param account The account.
+     */
+    public void track(Account account) {
+        account.setChangeListener(this::markChanged);
+    }
+
+    /**
+     * Stops tracking an account.
+     *
+     * @param account The account.
+     */
+    public void untrack(Account account) {
+        account.setChangeListener(null);
+        changed.remove(account);
+    }
+
+    /**
+     * Queues an account to be written with the next batch.
+     *
+     * @param account The account that changed.
+     */
+    public void markChanged(Account account) {
+        changed.add(account);
+    }
+
+    /**
+     * Writes every queued account now, on the caller's thread.
+     */
+    public synchronized void flush() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<Account> batch = new ArrayList<>(changed.size());
+        for (Iterator<Account> it = changed.iterator(); it.hasNext(); ) {
+            batch.add(it.next());
+            // An account that changes again from here on is queued again, because saving clears its changed flag first.
+            it.remove();
+        }
+        accountService.saveAccounts(batch);
+    }
+
+    /**
+     * Writes a snapshot of all accounts now, on the caller's thread.
+     */
+    public void snapshot() {
+        accountService.writeSnapshot(new ArrayList<>(allAccounts.get()));
+    }
+
+    /**
+     * Stops the background work and writes everything still queued, followed by a final snapshot.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        snapshot();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // A failed batch must not cancel the schedule; the journal still holds the changes it lost.
+            e.printStackTrace();
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
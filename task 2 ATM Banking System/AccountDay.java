@@ -0,0 +1,105 @@
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * One account's business day, as the {@link EndOfDayBatch} hands it to each {@link BatchJob}: the transactions made on
+ * that day and the balances the account opened and closed it with, worked out from the balance each transaction left.
+ */
+public class AccountDay {
+    private final Account account;
+    private final LocalDate date;
+    private final List<Transaction> transactions;
+    private final long openingMinor;
+    private final long closingMinor;
+
+    /**
+     * Works out an account's business day from its transactions since the day began.
+     *
+     * @param account The account.
+     * @param date The business day.
+     * @param since The account's transactions from the start of the day until now, oldest first.
+     * @param dayEndMillis The last millisecond of the day.
+     */
+    public AccountDay(Account account, LocalDate date, List<Transaction> since, long dayEndMillis) {
+        int dayCount = 0;
+        while (dayCount < since.size() && since.get(dayCount).getTimeMillis() <= dayEndMillis) {
+            dayCount++;
+        }
+        this.account = account;
+        this.date = date;
+        this.transactions = since.subList(0, dayCount);
+        this.closingMinor = dayCount < since.size() ? balanceBefore(since.get(dayCount)) : account.getBalanceMinor();
+        this.openingMinor = dayCount > 0 ? balanceBefore(since.get(0)) : closingMinor;
+    }
+
+    /**
+     * Returns the balance an account had just before a transaction.
+     *
+     * @param transaction The transaction.
+     * @return The balance in paise, or {@link Transaction#UNKNOWN} if the transaction does not show it.
+     */
+    public static long balanceBefore(Transaction transaction) {
+        long after = transaction.getBalanceAfterMinor();
+        if (after == Transaction.UNKNOWN) {
+            return Transaction.UNKNOWN;
+        }
+        switch (transaction.getType()) {
+            case INITIAL_BALANCE:
+                return 0;
+            case DEPOSIT:
+            case TRANSFER_IN:
+                return after - transaction.getAmountMinor();
+            case WITHDRAWAL:
+            case TRANSFER_OUT:
+            case CLOSED:
+                return after + transaction.getAmountMinor();
+            default:
+                return Transaction.UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns the account.
+     *
+     * @return The account.
+     */
+    public Account getAccount() {
+        return account;
+    }
+
+    /**
+     * Returns the business day.
+     *
+     * @return The date.
+     */
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * Returns the transactions made on the day.
+     *
+     * @return The transactions, oldest first.
+     */
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Returns the balance at the start of the day.
+     *
+     * @return The balance in paise, or {@link Transaction#UNKNOWN} if it cannot be worked out.
+     */
+    public long getOpeningMinor() {
+        return openingMinor;
+    }
+
+    /**
+     * Returns the balance at the end of the day.
+     *
+     * @return The balance in paise, or {@link Transaction#UNKNOWN} if it cannot be worked out.
+     */
+    public long getClosingMinor() {
+        return closingMinor;
+    }
+}
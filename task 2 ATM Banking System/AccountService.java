@@ -1,61 +1,314 @@
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
+import java.util.stream.Collectors;
 
-public class AccountService {
+/**
+ * Loads and saves accounts: their records live in the partitioned account store, their transactions in the shared
+ * journal. The journal is the authority on balances. Every transaction records the balance it left, so on loading, an
+ * account whose stored balance is behind its latest journaled balance (because the process stopped before the store was
+ * written) is brought up to date from the journal. A snapshot of all accounts, written to a temporary file and renamed
+ * into place, is used to rebuild the store if it is lost or cannot be read. Loading, saving and snapshots are timed and
+ * counted by {@link OperationStats}.
+ */
+public class AccountService implements Closeable {
     private static final String ACCOUNTS_FILE = "accounts.txt";
+    private static final String JOURNAL_FILE = "transactions.journal";
+    private static final String SNAPSHOT_FILE = "accounts.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x41544d50; // "ATMP"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String STORE_FILES = "accounts-*.dat";
+    private static final OperationStats LOADS = OperationStats.forOperation("accounts.load");
+    private static final OperationStats SAVES = OperationStats.forOperation("accounts.save");
+    private static final OperationStats SNAPSHOTS = OperationStats.forOperation("accounts.snapshot");
 
-    public List<Account> loadAccounts() {
-        List<Account> accounts = new ArrayList<>();
-        File file = new File(ACCOUNTS_FILE);
-        if (!file.exists()) {
-            createDefaultAccountsFile();
-        }
+    private final File directory;
+    private final PartitionedAccountStore store;
+    private final TransactionJournal journal;
 
-        try (InputStream input = new FileInputStream(ACCOUNTS_FILE)) {
-            Properties props = new Properties();
-            props.load(input);
+    /**
+     * Opens the account store and the shared transaction journal in the working directory.
+     */
+    public AccountService() {
+        this(new File("."));
+    }
 
-            for (String accountNumber : props.stringPropertyNames()) {
-                String[] accountData = props.getProperty(accountNumber).split(",");
-                String pin = new String(Base64.getDecoder().decode(accountData[0]));
-                double balance = Double.parseDouble(accountData[1]);
-                Account account = new Account(accountNumber, pin, balance);
-                accounts.add(account);
+    /**
+     * Opens the account store and the shared transaction journal in a directory. The journal's durability is set with
+     * the {@code atm.journal.durability} system property (FSYNC, WRITE or ASYNC; FSYNC by default). A journal still in
+     * the old text format is converted first.
+     *
+     * @param directory The directory that holds the account files.
+     */
+    public AccountService(File directory) {
+        this.directory = directory;
+        TransactionJournal.Durability durability =
+                TransactionJournal.Durability.valueOf(System.getProperty("atm.journal.durability", "FSYNC").toUpperCase());
+        try {
+            // Partitions that are lost or unreadable are rebuilt from the snapshot, if there is one.
+            store = new PartitionedAccountStore(directory, new File(directory, SNAPSHOT_FILE).exists());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot open the account store", ex);
+        }
+        try {
+            File journalFile = new File(directory, JOURNAL_FILE);
+            TransactionConverter.recoverConversion(journalFile);
+            if (TransactionConverter.isTextJournal(journalFile)) {
+                TransactionConverter.convertTextJournal(journalFile);
             }
+            journal = new TransactionJournal(journalFile, durability);
         } catch (IOException ex) {
-            ex.printStackTrace();
+            throw new UncheckedIOException("Cannot open " + JOURNAL_FILE, ex);
+        }
+    }
+
+    /**
+     * Loads all accounts, filling an empty store from the snapshot, the old {@code accounts.txt} or the defaults first,
+     * and lost partitions from the snapshot. The partitions are read and their accounts built in parallel.
+     * Balances the store missed are recovered from the journal and written back.
+     *
+     * @throws UncheckedIOException If the store has to be filled but the snapshot, the old file or the store cannot be
+     *         read or written. A damaged snapshot fails the load rather than letting the defaults replace the accounts.
+     */
+    public List<Account> loadAccounts() {
+        AtmIoEvent event = LOADS.beginIo(STORE_FILES);
+        try {
+            if (store.isEmpty()) {
+                if (!restoreSnapshot()) {
+                    importAccountsFile();
+                }
+            } else if (store.hasLostPartitions() && !restoreSnapshot()) {
+                throw new IOException("Partitions of the account store were lost and there is no " + SNAPSHOT_FILE + " to rebuild them from");
+            }
+        } catch (IOException ex) {
+            LOADS.endIo(event, 0, 0, false);
+            throw new UncheckedIOException("Cannot load the accounts", ex);
+        }
+        List<AccountStore.Record> records = store.readAll();
+        List<Account> accounts = records.parallelStream().map(this::toAccount).collect(Collectors.toList());
+        List<Account> recovered = new ArrayList<>();
+        for (int i = 0; i < accounts.size(); i++) {
+            if (accounts.get(i).getBalanceMinor() != records.get(i).balanceMinor) {
+                recovered.add(accounts.get(i));
+            }
+        }
+        if (!recovered.isEmpty()) {
+            System.out.println("Recovered the balances of " + recovered.size() + " accounts from " + JOURNAL_FILE);
+            if (!writeRecords(recovered)) {
+                recovered.forEach(Account::markUnsaved);
+            }
         }
+        LOADS.endIo(event, accounts.size(), 0, true);
         return accounts;
     }
 
+    /**
+     * Writes the accounts that changed since they were last saved to the account store, flushing them to disk
+     * together. Accounts that are not in the store yet are added. If the write fails, the accounts are marked as
+     * changed again, so the next save retries them.
+     */
     public void saveAccounts(List<Account> accounts) {
-        Properties props = new Properties();
+        List<Account> changed = new ArrayList<>();
         for (Account account : accounts) {
-            String pin = Base64.getEncoder().encodeToString(account.getPin().getBytes());
-            props.setProperty(account.getAccountNumber(), pin + "," + account.getBalance());
+            if (account.markClean() || !store.contains(account.getAccountNumber())) {
+                changed.add(account);
+            }
+        }
+        if (!changed.isEmpty() && !writeRecords(changed)) {
+            changed.forEach(Account::markUnsaved);
         }
+    }
 
-        try (OutputStream output = new FileOutputStream(ACCOUNTS_FILE)) {
-            props.store(output, null);
+    /**
+     * Writes a snapshot of all accounts next to the store. It is written to a temporary file, forced to disk and then
+     * renamed over the previous snapshot, so a crash leaves either the old snapshot or the new one, never a torn one.
+     * The accounts keep changing while it is written; each balance is the one its account had when it was read, and
+     * the journal brings it up to date if the snapshot is ever restored.
+     */
+    public void writeSnapshot(Collection<Account> accounts) {
+        AtmIoEvent event = SNAPSHOTS.beginIo(SNAPSHOT_FILE);
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        File tmp = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(accounts.size());
+            for (Account account : accounts) {
+                out.writeUTF(account.getAccountNumber());
+                out.writeUTF(account.getCredential());
+                out.writeLong(account.getBalanceMinor());
+                out.writeByte(account.getAccountClass());
+            }
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            SNAPSHOTS.endIo(event, 0, 0, false);
+            return;
+        }
+        long bytes = tmp.length();
+        try {
+            Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            SNAPSHOTS.endIo(event, accounts.size(), bytes, true);
         } catch (IOException ex) {
             ex.printStackTrace();
+            SNAPSHOTS.endIo(event, 0, 0, false);
         }
     }
 
-    private void createDefaultAccountsFile() {
-        Properties props = new Properties();
-        // Default accounts: 123456 (pin: 1234), 654321 (pin: 4321)
-        props.setProperty("123456", Base64.getEncoder().encodeToString("1234".getBytes()) + ",1000.0");
-        props.setProperty("654321", Base64.getEncoder().encodeToString("4321".getBytes()) + ",500.0");
+    /**
+     * Removes an account's record from the account store.
+     */
+    public void deleteAccount(String accountNumber) {
+        store.delete(accountNumber);
+    }
+
+    /**
+     * Writes everything still queued to the journal and closes the journal and the account store.
+     */
+    @Override
+    public void close() {
+        journal.close();
+        try {
+            store.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private Account toAccount(AccountStore.Record record) {
+        if (!journal.hasTransactions(record.accountNumber)) {
+            importLegacyTransactions(record.accountNumber);
+        }
+        long balanceMinor = journal.getLatestBalance(record.accountNumber);
+        if (balanceMinor == Transaction.UNKNOWN) {
+            balanceMinor = record.balanceMinor;
+        }
+        return new Account(record.accountNumber, record.credential, Account.toMajorUnits(balanceMinor), record.accountClass, journal);
+    }
+
+    /**
+     * Writes accounts to the store.
+     *
+     * @return False if the store could not be written.
+     */
+    private boolean writeRecords(List<Account> accounts) {
+        List<AccountStore.Record> records = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            records.add(new AccountStore.Record(account.getAccountNumber(), account.getCredential(), account.getBalanceMinor(), account.getAccountClass()));
+        }
+        AtmIoEvent event = SAVES.beginIo(STORE_FILES);
+        try {
+            store.writeAll(records);
+            SAVES.endIo(event, records.size(), 0, true);
+            return true;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            SAVES.endIo(event, records.size(), 0, false);
+            return false;
+        }
+    }
+
+    /**
+     * Fills an empty store, or the partitions of the store that were lost, from the latest snapshot, if there is one.
+     *
+     * @return True if the store was restored, false if there is no snapshot.
+     * @throws IOException If there is a snapshot but it cannot be read, or the store cannot be written.
+     */
+    private boolean restoreSnapshot() throws IOException {
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        if (!snapshot.exists()) {
+            return false;
+        }
+        boolean everything = store.isEmpty();
+        List<AccountStore.Record> records = new ArrayList<>();
+        for (AccountStore.Record record : readSnapshot(directory)) {
+            if (everything || store.isLost(record.accountNumber)) {
+                records.add(record);
+            }
+        }
+        store.writeAll(records);
+        return true;
+    }
+
+    /**
+     * Reads the accounts in the latest snapshot in a directory.
+     *
+     * @param directory The directory that holds the account files.
+     * @return The accounts as they were when the snapshot was written, or an empty list if there is no snapshot.
+     * @throws IOException If the snapshot cannot be read.
+     */
+    public static List<AccountStore.Record> readSnapshot(File directory) throws IOException {
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        List<AccountStore.Record> records = new ArrayList<>();
+        if (!snapshot.exists()) {
+            return records;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not an account snapshot: " + snapshot);
+            }
+            in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                records.add(new AccountStore.Record(in.readUTF(), in.readUTF(), in.readLong(), in.readByte()));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Fills an empty account store from the old {@code accounts.txt} Properties file, or with the default accounts
+     * if there is none. The old file is left in place but no longer read.
+     *
+     * @throws IOException If the old file cannot be read or the store cannot be written.
+     */
+    private void importAccountsFile() throws IOException {
+        File file = new File(directory, ACCOUNTS_FILE);
+        if (!file.exists()) {
+            createDefaultAccounts();
+            return;
+        }
+
+        try (InputStream input = new FileInputStream(file)) {
+            Properties props = new Properties();
+            props.load(input);
 
-        try (OutputStream output = new FileOutputStream(ACCOUNTS_FILE)) {
-            props.store(output, null);
+            for (String accountNumber : props.stringPropertyNames()) {
+                String[] accountData = props.getProperty(accountNumber).split(",");
+                double balance = Double.parseDouble(accountData[1]);
+                // The Base64 PIN is kept as it is and replaced by a hash the first time the account logs in.
+                store.write(accountNumber, accountData[0], Account.toMinorUnits(balance), 0);
+            }
+        }
+    }
+
+    /**
+     * Copies an account's transactions from its old per-account file into the shared journal.
+     * The old file is left in place; once the journal holds the account's transactions it is no longer read.
+     */
+    private void importLegacyTransactions(String accountNumber) {
+        File file = new File(directory, accountNumber + "_transactions.txt");
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            TransactionConverter.convertLegacyFile(file, accountNumber, journal);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
     }
+
+    private void createDefaultAccounts() throws IOException {
+        // Default accounts: 123456 (pin: 1234), 654321 (pin: 4321)
+        store.write("123456", PinHasher.hash("1234"), Account.toMinorUnits(1000.0), 0);
+        store.write("654321", PinHasher.hash("4321"), Account.toMinorUnits(500.0), 0);
+    }
 }
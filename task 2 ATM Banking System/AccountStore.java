@@ -0,0 +1,309 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A file of fixed-width binary account records, memory-mapped and updated in place.
+ * Every record has the same size, so an account's record is found from its slot number alone, and a hash directory
+ * in memory maps each account number to its slot. Writing an account changes and flushes only its own record instead
+ * of rewriting the whole file.
+ * <p>
+ * Layout: a {@value #HEADER_SIZE}-byte header (magic, version, record size, slot count) followed by the records.
+ * Each record holds a flags byte, an account class byte, the lengths of the account number and the PIN credential,
+ * the account number, the balance in paise and the PIN credential. Deleted records are reused for new accounts.
+ * <p>
+ * The records are mapped in regions of 2^16 slots rather than as one buffer, because a single mapping cannot exceed
+ * 2 GB (about 8.4M records); with regions one file holds up to {@value #MAX_SLOTS} accounts.
+ */
+public class AccountStore implements Closeable {
+    private static final int MAGIC = 0x41544d53; // "ATMS"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 256;
+    private static final int INITIAL_SLOTS = 64;
+    // Records are mapped in regions of 2^16 slots (16 MB), so no single mapping comes near the 2 GB limit.
+    private static final int REGION_SHIFT = 16;
+    private static final int REGION_SLOTS = 1 << REGION_SHIFT;
+    /** The most accounts one store file can hold (2^30, a 256 GB file). */
+    public static final int MAX_SLOTS = 1 << 30;
+
+    private static final int FLAGS = 0;
+    private static final int ACCOUNT_CLASS = 1;
+    private static final int NUMBER_LENGTH = 2;
+    private static final int CREDENTIAL_LENGTH = 3;
+    private static final int NUMBER = 4;
+    private static final int BALANCE = 32;
+    private static final int CREDENTIAL = 40;
+
+    /** The longest account number a record can hold, in bytes. */
+    public static final int MAX_NUMBER_LENGTH = BALANCE - NUMBER;
+    /** The longest PIN credential a record can hold, in bytes. */
+    public static final int MAX_CREDENTIAL_LENGTH = RECORD_SIZE - CREDENTIAL;
+
+    private static final byte IN_USE = 1;
+
+    /**
+     * One account record as read from the store.
+     */
+    public static class Record {
+        public final String accountNumber;
+        public final String credential;
+        public final long balanceMinor;
+        public final int accountClass;
+
+        Record(String accountNumber, String credential, long balanceMinor, int accountClass) {
+            this.accountNumber = accountNumber;
+            this.credential = credential;
+            this.balanceMinor = balanceMinor;
+            this.accountClass = accountClass;
+        }
+    }
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Map<String, Integer> directory = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final MappedByteBuffer header;
+    // The records, mapped REGION_SLOTS at a time; only the last region can be shorter.
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private int slotCount;
+
+    /**
+     * Opens (or creates) an account store and builds its directory.
+     *
+     * @param file The store file.
+     * @throws IOException If the file cannot be opened or is not an account store.
+     */
+    public AccountStore(File file) throws IOException {
+        boolean created = !file.exists() || file.length() == 0;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        if (!created && channel.size() < HEADER_SIZE) {
+            channel.close();
+            throw new IOException("Not an account store: " + file);
+        }
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (created) {
+            slotCount = INITIAL_SLOTS;
+            header.putInt(0, MAGIC);
+            header.putShort(4, VERSION);
+            header.putShort(6, (short) RECORD_SIZE);
+            header.putInt(8, slotCount);
+            mapRegions(0, slotCount);
+            header.force();
+        } else {
+            slotCount = header.getInt(8);
+            if (header.getInt(0) != MAGIC || header.getShort(6) != RECORD_SIZE || slotCount <= 0
+                    || channel.size() < HEADER_SIZE + (long) slotCount * RECORD_SIZE) {
+                channel.close();
+                throw new IOException("Not an account store: " + file);
+            }
+            mapRegions(0, slotCount);
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            MappedByteBuffer region = regionOf(slot);
+            int offset = offsetOf(slot);
+            if (region.get(offset + FLAGS) == IN_USE) {
+                directory.put(readString(region, offset + NUMBER, region.get(offset + NUMBER_LENGTH)), slot);
+            } else {
+                freeSlots.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the store holds no accounts.
+     *
+     * @return True if there are no account records.
+     */
+    public synchronized boolean isEmpty() {
+        return directory.isEmpty();
+    }
+
+    /**
+     * Checks whether the store holds an account.
+     *
+     * @param accountNumber The account number.
+     * @return True if the account has a record.
+     */
+    public synchronized boolean contains(String accountNumber) {
+        return directory.containsKey(accountNumber);
+    }
+
+    /**
+     * Reads every account record.
+     *
+     * @return The records, in slot order.
+     */
+    public synchronized List<Record> readAll() {
+        List<Record> records = new ArrayList<>(directory.size());
+        for (int slot = 0; slot < slotCount; slot++) {
+            MappedByteBuffer region = regionOf(slot);
+            int offset = offsetOf(slot);
+            if (region.get(offset + FLAGS) == IN_USE) {
+                records.add(new Record(
+                        readString(region, offset + NUMBER, region.get(offset + NUMBER_LENGTH)),
+                        readString(region, offset + CREDENTIAL, region.get(offset + CREDENTIAL_LENGTH) & 0xff),
+                        region.getLong(offset + BALANCE),
+                        region.get(offset + ACCOUNT_CLASS)));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Writes an account's record in place and flushes it to disk, adding the record if the account is new.
+     *
+     * @param accountNumber The account number.
+     * @param credential The encoded PIN credential.
+     * @param balanceMinor The balance in paise.
+     * @param accountClass The account class.
+     * @throws IOException If the store has to grow and cannot.
+     */
+    public synchronized void write(String accountNumber, String credential, long balanceMinor, int accountClass) throws IOException {
+        // put may grow the store and remap its last region, so the mapping is only read after it returns.
+        int slot = put(accountNumber, credential, balanceMinor, accountClass);
+        regionOf(slot).force(offsetOf(slot), RECORD_SIZE);
+    }
+
+    /**
+     * Adds or replaces several accounts' records and flushes them together, with one force of each region they are
+     * in instead of one per record.
+     *
+     * @param records The records to write.
+     * @throws IOException If the store has to grow and cannot.
+     */
+    public synchronized void writeAll(List<Record> records) throws IOException {
+        Set<Integer> touched = new HashSet<>();
+        for (Record record : records) {
+            touched.add(put(record.accountNumber, record.credential, record.balanceMinor, record.accountClass) >>> REGION_SHIFT);
+        }
+        for (int region : touched) {
+            regions.get(region).force();
+        }
+    }
+
+    /**
+     * Puts a record in the mapped file without flushing it.
+     *
+     * @return The record's slot.
+     */
+    private int put(String accountNumber, String credential, long balanceMinor, int accountClass) throws IOException {
+        byte[] number = accountNumber.getBytes(StandardCharsets.UTF_8);
+        byte[] pin = credential.getBytes(StandardCharsets.UTF_8);
+        if (number.length > MAX_NUMBER_LENGTH || pin.length > MAX_CREDENTIAL_LENGTH) {
+            throw new IllegalArgumentException("Account " + accountNumber + " does not fit in a " + RECORD_SIZE + "-byte record");
+        }
+        Integer slot = directory.get(accountNumber);
+        if (slot == null) {
+            if (freeSlots.isEmpty()) {
+                grow();
+            }
+            slot = freeSlots.poll();
+            directory.put(accountNumber, slot);
+        }
+        MappedByteBuffer region = regionOf(slot);
+        int offset = offsetOf(slot);
+        region.put(offset + ACCOUNT_CLASS, (byte) accountClass);
+        region.put(offset + NUMBER_LENGTH, (byte) number.length);
+        region.put(offset + CREDENTIAL_LENGTH, (byte) pin.length);
+        region.put(offset + NUMBER, number);
+        region.putLong(offset + BALANCE, balanceMinor);
+        region.put(offset + CREDENTIAL, pin);
+        region.put(offset + FLAGS, IN_USE);
+        return slot;
+    }
+
+    /**
+     * Deletes an account's record, freeing its slot for reuse.
+     *
+     * @param accountNumber The account number.
+     * @return True if the account had a record.
+     */
+    public synchronized boolean delete(String accountNumber) {
+        Integer slot = directory.remove(accountNumber);
+        if (slot == null) {
+            return false;
+        }
+        MappedByteBuffer region = regionOf(slot);
+        int offset = offsetOf(slot);
+        region.put(offset + FLAGS, (byte) 0);
+        region.force(offset, 1);
+        freeSlots.add(slot);
+        return true;
+    }
+
+    /**
+     * Flushes and closes the store.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+        header.force();
+        channel.close();
+        raf.close();
+    }
+
+    /**
+     * Doubles the number of slots. The file is extended and the new slots mapped; existing records stay where they
+     * are, and only a last region that was not full yet is mapped again.
+     */
+    private void grow() throws IOException {
+        if (slotCount > MAX_SLOTS / 2) {
+            throw new IOException("The account store is full: it holds at most " + MAX_SLOTS + " accounts");
+        }
+        int newSlotCount = slotCount * 2;
+        regions.get(regions.size() - 1).force();
+        mapRegions(slotCount, newSlotCount);
+        for (int slot = slotCount; slot < newSlotCount; slot++) {
+            freeSlots.add(slot);
+        }
+        slotCount = newSlotCount;
+        header.putInt(8, slotCount);
+        header.force();
+    }
+
+    /**
+     * Maps the regions that hold a range of new slots, replacing the mapping of a last region that was too short.
+     */
+    private void mapRegions(int fromSlot, int toSlot) throws IOException {
+        for (int region = fromSlot >>> REGION_SHIFT; region <= (toSlot - 1) >>> REGION_SHIFT; region++) {
+            long firstSlot = (long) region << REGION_SHIFT;
+            long slots = Math.min(REGION_SLOTS, toSlot - firstSlot);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + firstSlot * RECORD_SIZE, slots * RECORD_SIZE);
+            if (region < regions.size()) {
+                regions.set(region, mapped);
+            } else {
+                regions.add(mapped);
+            }
+        }
+    }
+
+    private MappedByteBuffer regionOf(int slot) {
+        return regions.get(slot >>> REGION_SHIFT);
+    }
+
+    private static int offsetOf(int slot) {
+        return (slot & (REGION_SLOTS - 1)) * RECORD_SIZE;
+    }
+
+    private static String readString(MappedByteBuffer region, int offset, int length) {
+        byte[] bytes = new byte[length];
+        region.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,101 @@
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * An account's withdrawal activity, summarised for the fraud rules and kept up to date one withdrawal at a time
+ * instead of being recomputed from the history: the number of withdrawals, a moving average of their amounts, the
+ * latest one and how many of the same amount came in a row, and how many were made in each hour of the day. Transfers
+ * out of the account count as withdrawals, since they take money out of it just the same.
+ */
+public class ActivityProfile {
+    // Weight of the newest amount in the moving average.
+    private static final double AVERAGE_WEIGHT = 0.2;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private long count;
+    private double averageMinor;
+    private long lastAmountMinor;
+    private long lastMillis;
+    private int repeats;
+    private final int[] hourCounts = new int[24];
+
+    /**
+     * Adds a withdrawal that was made.
+     *
+     * @param amountMinor The amount in paise.
+     * @param timeMillis The time it was made, in epoch milliseconds.
+     */
+    public synchronized void record(long amountMinor, long timeMillis) {
+        averageMinor = count == 0 ? amountMinor : averageMinor + AVERAGE_WEIGHT * (amountMinor - averageMinor);
+        repeats = count > 0 && amountMinor == lastAmountMinor ? repeats + 1 : 1;
+        count++;
+        lastAmountMinor = amountMinor;
+        lastMillis = timeMillis;
+        hourCounts[hourOf(timeMillis)]++;
+    }
+
+    /**
+     * Returns the number of withdrawals recorded.
+     *
+     * @return The count.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the moving average of the withdrawn amounts, weighted towards the latest.
+     *
+     * @return The average in paise, or 0 if there are none.
+     */
+    public synchronized double getAverageMinor() {
+        return averageMinor;
+    }
+
+    /**
+     * Returns the amount of the latest withdrawal.
+     *
+     * @return The amount in paise, or 0 if there are none.
+     */
+    public synchronized long getLastAmountMinor() {
+        return lastAmountMinor;
+    }
+
+    /**
+     * Returns the time of the latest withdrawal.
+     *
+     * @return The time in epoch milliseconds, or 0 if there are none.
+     */
+    public synchronized long getLastMillis() {
+        return lastMillis;
+    }
+
+    /**
+     * Returns how many withdrawals in a row, up to and including the latest, were of the latest amount.
+     *
+     * @return The number of repeats.
+     */
+    public synchronized int getRepeats() {
+        return repeats;
+    }
+
+    /**
+     * Returns how many withdrawals were made in an hour of the day.
+     *
+     * @param hour The hour of the day in the local time zone, 0 to 23.
+     * @return The count.
+     */
+    public synchronized int getHourCount(int hour) {
+        return hourCounts[hour];
+    }
+
+    /**
+     * Returns the hour of the day of a time in the local time zone.
+     *
+     * @param timeMillis The time in epoch milliseconds.
+     * @return The hour, 0 to 23.
+     */
+    public static int hourOf(long timeMillis) {
+        return Instant.ofEpochMilli(timeMillis).atZone(ZONE).getHour();
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the latency, throughput and allocation of the ATM's main code paths against generated data, so a change
+ * that slows one of them down shows up as a regression. For every combination of account count and history length,
+ * a scratch directory is filled with that many accounts, each with that many transactions in the journal, and then
+ * these are measured in turn:
+ * <ul>
+ *     <li>{@code open}: opening the {@link AccountService}, which maps the account store and loads the journal index;</li>
+ *     <li>{@code loadAccounts}: reading every account into memory;</li>
+ *     <li>{@code login}: {@link ATM#login} with the right PIN on a random account;</li>
+ *     <li>{@code deposit} and {@code withdraw}: one rupee on a random account;</li>
+ *     <li>{@code saveAccounts}: saving all accounts after 100 of them have changed.</li>
+ * </ul>
+ * Each measurement first runs for a warm-up period that is not counted. Allocation is the number of bytes allocated
+ * by the measuring thread per operation, so work done on the journal's writer thread or the PIN verifier's pool is not
+ * included. The journal's durability and the PIN hashing cost are set with the usual {@code atm.journal.durability}
+ * and {@code atm.pin.iterations} properties; the scratch directory is created under {@code java.io.tmpdir}.
+ * <p>
+ * Usage: {@code java AtmBenchmark [accountCounts] [historyLengths] [seconds]} with comma-separated lists
+ * (defaults {@code 1000,10000,100000}, {@code 0,100} and 2 seconds per measurement). Larger runs such as
+ * {@code 10000000} accounts or {@code 100000} transactions per account need several gigabytes of disk and heap.
+ */
+public class AtmBenchmark {
+    private static final String PIN = "1234";
+    private static final int BATCH_SIZE = 10_000;
+    private static final int CHANGED_ACCOUNTS = 100;
+    private static final int MIN_RUNS = 3;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        int[] accountCounts = parseList(args.length > 0 ? args[0] : "1000,10000,100000");
+        int[] historyLengths = parseList(args.length > 1 ? args[1] : "0,100");
+        long nanos = (long) ((args.length > 2 ? Double.parseDouble(args[2]) : 2) * 1e9);
+        // The ATM's write-behind flushes would save changed accounts behind the measured saveAccounts calls.
+        if (System.getProperty("atm.flush.millis") == null) {
+            System.setProperty("atm.flush.millis", String.valueOf(Long.MAX_VALUE / 2));
+        }
+        // Limits high enough never to be reached, so withdraw still pays for checking them.
+        if (System.getProperty("atm.limits.0") == null) {
+            System.setProperty("atm.limits.0", "1000000000,1000000000,1000000000");
+        }
+
+        System.out.println("journal durability " + System.getProperty("atm.journal.durability", "FSYNC")
+                + ", PIN iterations " + PinHasher.getIterations());
+        System.out.printf("%-13s %10s %8s %10s %10s %10s %10s %10s %10s%n",
+                "benchmark", "accounts", "history", "ops", "ops/s", "p50 us", "p99 us", "max us", "B/op");
+        for (int accountCount : accountCounts) {
+            for (int historyLength : historyLengths) {
+                File directory = Files.createTempDirectory("atm-benchmark").toFile();
+                try {
+                    run(directory, accountCount, historyLength, nanos);
+                } finally {
+                    deleteDirectory(directory);
+                }
+            }
+        }
+    }
+
+    private static void run(File directory, int accountCount, int historyLength, long nanos) throws IOException {
+        String[] accountNumbers = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountNumbers[i] = String.format("%08d", i);
+        }
+        long start = System.nanoTime();
+        populate(directory, accountNumbers, historyLength);
+        System.out.printf("# %d accounts with %d transactions each generated in %.1f s%n",
+                accountCount, historyLength, (System.nanoTime() - start) / 1e9);
+        String label = String.format("%10d %8d", accountCount, historyLength);
+
+        // Opening and loading are measured on fresh services, closing each before the next opens the same files.
+        Result open = new Result();
+        Result load = new Result();
+        long deadline = System.nanoTime() + nanos;
+        for (int run = 0; run < MIN_RUNS || System.nanoTime() < deadline; run++) {
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long begin = System.nanoTime();
+            AccountService service = new AccountService(directory);
+            long opened = System.nanoTime();
+            long openAllocated = THREADS.getCurrentThreadAllocatedBytes();
+            service.loadAccounts();
+            long loaded = System.nanoTime();
+            load.add(loaded - opened, THREADS.getCurrentThreadAllocatedBytes() - openAllocated);
+            open.add(opened - begin, openAllocated - allocated);
+            service.close();
+        }
+        open.print("open", label);
+        load.print("loadAccounts", label);
+
+        AccountService service = new AccountService(directory);
+        ATM atm = new ATM(service);
+        Random random = new Random(42);
+        measure("login", label, nanos, () -> {
+            if (atm.login(accountNumbers[random.nextInt(accountCount)], PIN) == null) {
+                throw new IllegalStateException("Login failed");
+            }
+        });
+        measure("deposit", label, nanos, () -> atm.getAccount(accountNumbers[random.nextInt(accountCount)]).deposit(1));
+        measure("withdraw", label, nanos, () -> atm.getAccount(accountNumbers[random.nextInt(accountCount)]).withdraw(1));
+        List<Account> accounts = new ArrayList<>(accountCount);
+        for (String accountNumber : accountNumbers) {
+            accounts.add(atm.getAccount(accountNumber));
+        }
+        service.saveAccounts(accounts);
+        Result save = new Result();
+        for (int phase = 0; phase < 2; phase++) {
+            // The first phase is the warm-up.
+            deadline = System.nanoTime() + nanos / 2;
+            for (int run = 0; run < MIN_RUNS || System.nanoTime() < deadline; run++) {
+                for (int i = 0; i < Math.min(CHANGED_ACCOUNTS, accountCount); i++) {
+                    atm.getAccount(accountNumbers[random.nextInt(accountCount)]).deposit(0.01);
+                }
+                long allocated = THREADS.getCurrentThreadAllocatedBytes();
+                long begin = System.nanoTime();
+                service.saveAccounts(accounts);
+                if (phase == 1) {
+                    save.add(System.nanoTime() - begin, THREADS.getCurrentThreadAllocatedBytes() - allocated);
+                }
+            }
+        }
+        save.print("saveAccounts", label);
+        atm.close();
+        service.close();
+    }
+
+    /**
+     * Runs an operation repeatedly, first for half the given time as a warm-up and then for the given time measured.
+     */
+    private static void measure(String name, String label, long nanos, Runnable operation) {
+        long warmUpEnd = System.nanoTime() + nanos / 2;
+        for (int run = 0; run < MIN_RUNS || System.nanoTime() < warmUpEnd; run++) {
+            operation.run();
+        }
+        Result result = new Result();
+        long deadline = System.nanoTime() + nanos;
+        for (int run = 0; run < MIN_RUNS || System.nanoTime() < deadline; run++) {
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long begin = System.nanoTime();
+            operation.run();
+            result.add(System.nanoTime() - begin, THREADS.getCurrentThreadAllocatedBytes() - allocated);
+        }
+        result.print(name, label);
+    }
+
+    /**
+     * Writes the accounts straight to a new account store and their histories straight to a new journal, then
+     * closes both so the benchmark opens them the way the ATM does.
+     */
+    private static void populate(File directory, String[] accountNumbers, int historyLength) throws IOException {
+        String credential = PinHasher.hash(PIN);
+        long balanceMinor = Account.toMinorUnits(1_000_000);
+        try (PartitionedAccountStore store = new PartitionedAccountStore(directory, false)) {
+            for (String accountNumber : accountNumbers) {
+                store.write(accountNumber, credential, balanceMinor, 0);
+            }
+        }
+        try (TransactionJournal journal = new TransactionJournal(new File(directory, "transactions.journal"), TransactionJournal.Durability.WRITE)) {
+            List<Transaction> batch = new ArrayList<>(BATCH_SIZE);
+            for (String accountNumber : accountNumbers) {
+                batch.add(new Transaction(accountNumber, TransactionType.INITIAL_BALANCE, balanceMinor, balanceMinor, null));
+                for (int i = 0; i < historyLength; i++) {
+                    // Deposits and withdrawals of one rupee alternate, so the balance after each is known.
+                    boolean deposit = i % 2 == 0;
+                    batch.add(new Transaction(accountNumber, deposit ? TransactionType.DEPOSIT : TransactionType.WITHDRAWAL,
+                            Account.MINOR_UNITS, balanceMinor + (deposit ? Account.MINOR_UNITS : 0), null));
+                    if (batch.size() == BATCH_SIZE) {
+                        journal.appendAll(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            journal.appendAll(batch);
+        }
+    }
+
+    private static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static void deleteDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory.toPath());
+    }
+
+    /**
+     * The latencies and allocations of one measurement.
+     */
+    private static final class Result {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long totalNanos;
+        private long totalBytes;
+
+        void add(long nanos, long bytes) {
+            latencies.record(nanos);
+            totalNanos += nanos;
+            totalBytes += bytes;
+        }
+
+        void print(String name, String label) {
+            long count = latencies.getCount();
+            System.out.printf("%-13s %s %10d %10.0f %10.1f %10.1f %10.1f %10d%n", name, label, count, count / (totalNanos / 1e9),
+                    latencies.getPercentile(50) / 1e3, latencies.getPercentile(99) / 1e3, latencies.getMax() / 1e3,
+                    totalBytes / count);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for one piece of persistence I/O: a journal write, a save to the account store, a
+ * snapshot or loading the accounts. Its duration includes any flush to disk, so slow disks show up as long events.
+ */
+@Name("atm.Io")
+@Label("ATM Persistence I/O")
+@Category({"ATM", "Persistence"})
+@StackTrace(false)
+@Description("A write or read of the account files")
+public class AtmIoEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Records")
+    long records;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Succeeded")
+    boolean success;
+
+    // Not recorded: when the I/O started, for the latency histogram.
+    transient long startNanos;
+}
@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives an {@link AtmServer} with many concurrent simulated terminals and reports throughput and latency.
+ * Every terminal opens its own connection, logs in to one of the test accounts and repeatedly checks its balance,
+ * deposits and withdraws the same amount in turn, and reads a mini statement until the run ends, so balances are unchanged
+ * afterwards. Terminals run on virtual threads where the JVM supports them.
+ * <p>
+ * Usage: {@code java AtmLoadTest [address] [terminals] [seconds] [thinkMillis]}
+ * (defaults {@value AtmProtocol#DEFAULT_ADDRESS}, 2000, 10, 0). The accounts are given with the
+ * {@code atm.loadtest.accounts} system property as {@code number:pin} pairs separated by commas
+ * (default {@code 123456:1234,654321:4321}). Start the server with {@code -Datm.limits.0=none -Datm.fraud.rules=none},
+ * or the accounts soon reach their withdrawal limits and have their repeated withdrawals declined.
+ */
+public class AtmLoadTest {
+    private static final String[] OPERATIONS = {"login", "balance", "deposit", "withdraw", "statement"};
+
+    public static void main(String[] args) throws InterruptedException {
+        String address = args.length > 0 ? args[0] : AtmProtocol.DEFAULT_ADDRESS;
+        int terminals = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long thinkMillis = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        String[] accounts = System.getProperty("atm.loadtest.accounts", "123456:1234,654321:4321").split(",");
+
+        List<LatencyHistogram[]> results = new ArrayList<>();
+        CountDownLatch connected = new CountDownLatch(terminals);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(terminals);
+        int[] failures = new int[1];
+        ExecutorService executor = AtmServer.newThreadPerTaskExecutor();
+        long[] deadline = new long[1];
+
+        for (int t = 0; t < terminals; t++) {
+            String[] credentials = accounts[t % accounts.length].split(":");
+            LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            results.add(histograms);
+            long seed = t;
+            executor.execute(() -> {
+                boolean ready = false;
+                try (AtmSession session = new RemoteAtmSession(AtmProtocol.parseAddress(address))) {
+                    ready = true;
+                    connected.countDown();
+                    start.await();
+                    long begin = System.nanoTime();
+                    if (!session.login(credentials[0], credentials[1])) {
+                        throw new IllegalStateException("Login failed for " + credentials[0]);
+                    }
+                    histograms[0].record(System.nanoTime() - begin);
+                    Random random = new Random(seed);
+                    boolean deposited = false;
+                    while (System.nanoTime() < deadline[0]) {
+                        int operation = 1 + random.nextInt(OPERATIONS.length - 1);
+                        if (operation == 2 || operation == 3) {
+                            // Deposits and withdrawals alternate so the terminal leaves the balance as it found it.
+                            operation = deposited ? 3 : 2;
+                            deposited = !deposited;
+                        }
+                        begin = System.nanoTime();
+                        switch (operation) {
+                            case 1:
+                                session.getBalance();
+                                break;
+                            case 2:
+                                session.deposit(1);
+                                break;
+                            case 3:
+                                session.withdraw(1);
+                                break;
+                            default:
+                                session.getRecentTransactions(5);
+                                break;
+                        }
+                        histograms[operation].record(System.nanoTime() - begin);
+                        if (thinkMillis > 0) {
+                            Thread.sleep(thinkMillis);
+                        }
+                    }
+                    if (deposited) {
+                        session.withdraw(1);
+                    }
+                } catch (Exception ex) {
+                    synchronized (failures) {
+                        if (failures[0]++ == 0) {
+                            ex.printStackTrace();
+                        }
+                    }
+                    if (!ready) {
+                        connected.countDown();
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        connected.await();
+        System.out.println(terminals + " terminals connected to " + address);
+        long begin = System.nanoTime();
+        deadline[0] = begin + TimeUnit.SECONDS.toNanos(seconds);
+        start.countDown();
+        finished.await();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        executor.shutdown();
+
+        System.out.printf("%-10s %10s %10s %10s %10s %10s%n", "operation", "count", "ops/s", "p50 ms", "p99 ms", "max ms");
+        long total = 0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            LatencyHistogram merged = new LatencyHistogram();
+            for (LatencyHistogram[] histograms : results) {
+                merged.merge(histograms[i]);
+            }
+            total += merged.getCount();
+            System.out.printf("%-10s %10d %10.0f %10.3f %10.3f %10.3f%n", OPERATIONS[i], merged.getCount(),
+                    merged.getCount() / elapsed, merged.getPercentile(50) / 1e6, merged.getPercentile(99) / 1e6,
+                    merged.getMax() / 1e6);
+        }
+        System.out.printf("%d operations in %.1f s (%.0f ops/s), %d failed terminals%n", total, elapsed, total / elapsed, failures[0]);
+    }
+}
@@ -0,0 +1,32 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for one ATM operation, such as a login or a withdrawal, timed from start to finish.
+ * Events are recorded on the thread that ran the operation, so on the server they carry the session thread's name,
+ * which names the terminal.
+ */
+@Name("atm.Operation")
+@Label("ATM Operation")
+@Category({"ATM", "Operations"})
+@StackTrace(false)
+@Description("A customer operation on an account")
+public class AtmOperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Account Number")
+    String accountNumber;
+
+    @Label("Amount (paise)")
+    long amount;
+
+    @Label("Succeeded")
+    boolean success;
+
+    // Not recorded: when the operation started, for the latency histogram.
+    transient long startNanos;
+}
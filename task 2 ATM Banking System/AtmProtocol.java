@@ -0,0 +1,72 @@
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+
+/**
+ * The request/response protocol between ATM terminals and the ATM server.
+ * Every request is one opcode byte followed by its arguments, and every response is one status byte followed by its
+ * results, written with {@link java.io.DataOutputStream}: strings as modified UTF-8, amounts as longs in paise and
+ * counts as ints. A connection carries one terminal session, and requests on it are answered in order.
+ * <pre>
+ * LOGIN       accountNumber, pin      -&gt; OK | FAILED | ERROR
+ * BALANCE                             -&gt; OK balance
+ * DEPOSIT     amount                  -&gt; OK balance | INVALID
+ * WITHDRAW    amount                  -&gt; OK balance | FAILED | INVALID | LIMIT_EXCEEDED message | DECLINED message
+ * STATEMENT   count                   -&gt; OK count, transaction...
+ * CHANGE_PIN  oldPin, newPin          -&gt; OK | FAILED | ERROR
+ * TRANSFER    toAccountNumber, amount -&gt; OK balance | FAILED | INVALID | LIMIT_EXCEEDED message | DECLINED message
+ * LOGOUT                              -&gt; OK
+ * </pre>
+ * Any request other than LOGIN answers NOT_LOGGED_IN when no account is logged in, and DEPOSIT, WITHDRAW and
+ * TRANSFER answer INVALID for an amount that is not positive or is over the server's largest amount per operation.
+ * DEPOSIT also answers INVALID when the balance would grow too large to hold. Any request answers ERROR when it fails
+ * on the server for another reason; the session stays open. LOGIN and CHANGE_PIN answer FAILED for a wrong PIN or
+ * a locked account, and ERROR when the server is too busy to check the PIN. TRANSFER answers FAILED for insufficient
+ * funds, INVALID when the target account does not exist or is the logged-in account, and LIMIT_EXCEEDED, with the
+ * reason, when the transfer would go over one of the account's withdrawal limits, or DECLINED, with the reason, when
+ * the fraud screen declines it.
+ * WITHDRAW answers FAILED for insufficient funds and LIMIT_EXCEEDED, with the reason, when the withdrawal would go
+ * over one of the account's withdrawal limits, or DECLINED, with the reason, when the fraud screen declines it.
+ */
+public final class AtmProtocol {
+    public static final byte LOGIN = 1;
+    public static final byte BALANCE = 2;
+    public static final byte DEPOSIT = 3;
+    public static final byte WITHDRAW = 4;
+    public static final byte STATEMENT = 5;
+    public static final byte CHANGE_PIN = 6;
+    public static final byte LOGOUT = 7;
+    public static final byte TRANSFER = 8;
+
+    public static final byte OK = 0;
+    public static final byte FAILED = 1;
+    public static final byte NOT_LOGGED_IN = 2;
+    public static final byte ERROR = 3;
+    public static final byte INVALID = 4;
+    public static final byte LIMIT_EXCEEDED = 5;
+    public static final byte DECLINED = 6;
+
+    /** The address used when none is given. */
+    public static final String DEFAULT_ADDRESS = "localhost:7070";
+
+    private AtmProtocol() {
+    }
+
+    /**
+     * Parses a server address: {@code unix:/path/to/socket} for a Unix-domain socket, otherwise {@code host:port}
+     * or just {@code port} (on localhost) for TCP.
+     *
+     * @param address The address to parse.
+     * @return The socket address.
+     */
+    public static SocketAddress parseAddress(String address) {
+        if (address.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(address.substring("unix:".length()));
+        }
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress("localhost", Integer.parseInt(address));
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+}
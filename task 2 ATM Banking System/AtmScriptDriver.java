@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays scripted terminal sessions against the headless {@link AtmSession} engine as fast as they will go, with many
+ * sessions at once, and reports the throughput and latency of each operation. A script has one operation per line,
+ * blank lines and lines starting with {@code #} being ignored:
+ * <pre>
+ * login       accountNumber pin
+ * balance
+ * deposit     amount
+ * withdraw    amount
+ * fastcash    option
+ * statement
+ * transfer    toAccountNumber amount
+ * changepin   oldPin newPin
+ * logout
+ * </pre>
+ * Scripts are read and checked before the run starts, so parsing is not measured. Each session replays its script from
+ * the top again and again until the time is up. An operation fails if it returns false or throws; the session carries
+ * on with the next line. Sessions work on accounts loaded in this process, all sharing one {@link ATM}, or, if the
+ * {@code atm.server} system property is set, each connect to that server.
+ * <p>
+ * Usage: {@code java AtmScriptDriver scripts [sessions] [seconds]}, where scripts is a comma-separated list of script
+ * files handed out to the sessions in turn (defaults 1 session and 10 seconds). Unless the session is meant to hit
+ * them, run with {@code -Datm.limits.0=none -Datm.fraud.rules=none}, and note that every login pays for the PIN hash
+ * ({@code atm.pin.iterations}).
+ */
+public class AtmScriptDriver {
+    /**
+     * The operations a script can use.
+     */
+    private enum Operation {
+        LOGIN(2), BALANCE(0), DEPOSIT(1), WITHDRAW(1), FASTCASH(1), STATEMENT(0), TRANSFER(2), CHANGEPIN(2), LOGOUT(0);
+
+        private final int arguments;
+
+        Operation(int arguments) {
+            this.arguments = arguments;
+        }
+    }
+
+    /**
+     * One parsed line of a script.
+     */
+    private static final class Step {
+        final Operation operation;
+        final String[] arguments;
+        final double amount;
+        final int option;
+
+        Step(Operation operation, String[] arguments, double amount, int option) {
+            this.operation = operation;
+            this.arguments = arguments;
+            this.amount = amount;
+            this.option = option;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: java AtmScriptDriver scripts [sessions] [seconds]");
+            System.exit(2);
+        }
+        List<List<Step>> scripts = new ArrayList<>();
+        for (String file : args[0].split(",")) {
+            scripts.add(parse(file));
+        }
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String server = System.getProperty("atm.server");
+        ATM atm = server == null || server.isEmpty() ? new ATM() : null;
+
+        int operations = Operation.values().length;
+        List<LatencyHistogram[]> latencies = new ArrayList<>();
+        List<long[]> failures = new ArrayList<>();
+        CountDownLatch finished = new CountDownLatch(sessions);
+        ExecutorService executor = AtmServer.newThreadPerTaskExecutor();
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.SECONDS.toNanos(seconds);
+        for (int s = 0; s < sessions; s++) {
+            List<Step> script = scripts.get(s % scripts.size());
+            LatencyHistogram[] histograms = new LatencyHistogram[operations];
+            for (int i = 0; i < operations; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            long[] failed = new long[operations];
+            latencies.add(histograms);
+            failures.add(failed);
+            executor.execute(() -> {
+                AtmSession session = null;
+                try {
+                    session = atm != null ? new LocalAtmSession(atm) : new RemoteAtmSession(AtmProtocol.parseAddress(server));
+                    while (System.nanoTime() < deadline) {
+                        for (Step step : script) {
+                            long start = System.nanoTime();
+                            boolean ok;
+                            try {
+                                ok = run(session, step);
+                            } catch (RuntimeException ex) {
+                                ok = false;
+                            }
+                            histograms[step.operation.ordinal()].record(System.nanoTime() - start);
+                            if (!ok) {
+                                failed[step.operation.ordinal()]++;
+                            }
+                            if (System.nanoTime() >= deadline) {
+                                break;
+                            }
+                        }
+                    }
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                } finally {
+                    // A local session's close closes the ATM they all share, which is done once below.
+                    if (session != null && atm == null) {
+                        session.close();
+                    }
+                    finished.countDown();
+                }
+            });
+        }
+        finished.await();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        executor.shutdown();
+        if (atm != null) {
+            atm.close();
+        }
+
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s%n", "operation", "count", "failed", "ops/s", "p50 us", "p99 us", "max us");
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram merged = new LatencyHistogram();
+            long failed = 0;
+            for (int s = 0; s < sessions; s++) {
+                merged.merge(latencies.get(s)[operation.ordinal()]);
+                failed += failures.get(s)[operation.ordinal()];
+            }
+            if (merged.getCount() == 0) {
+                continue;
+            }
+            total += merged.getCount();
+            System.out.printf("%-10s %10d %10d %10.0f %10.1f %10.1f %10.1f%n", operation.name().toLowerCase(),
+                    merged.getCount(), failed, merged.getCount() / elapsed, merged.getPercentile(50) / 1e3,
+                    merged.getPercentile(99) / 1e3, merged.getMax() / 1e3);
+        }
+        System.out.printf("%d operations by %d sessions in %.1f s (%.0f ops/s)%n", total, sessions, elapsed, total / elapsed);
+    }
+
+    private static boolean run(AtmSession session, Step step) {
+        String[] arguments = step.arguments;
+        switch (step.operation) {
+            case LOGIN:
+                return session.login(arguments[0], arguments[1]);
+            case BALANCE:
+                session.getBalance();
+                return true;
+            case DEPOSIT:
+                session.deposit(step.amount);
+                return true;
+            case WITHDRAW:
+                return session.withdraw(step.amount);
+            case FASTCASH:
+                return session.fastCash(step.option);
+            case STATEMENT:
+                session.getMiniStatement();
+                return true;
+            case TRANSFER:
+                return session.transfer(arguments[0], step.amount);
+            case CHANGEPIN:
+                return session.changePin(arguments[0], arguments[1]);
+            default:
+                session.logout();
+                return true;
+        }
+    }
+
+    /**
+     * Reads a script, failing on the first line that is not a valid operation.
+     */
+    private static List<Step> parse(String file) throws IOException {
+        List<Step> steps = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            try {
+                Operation operation = Operation.valueOf(words[0].toUpperCase());
+                if (words.length - 1 != operation.arguments) {
+                    throw new IllegalArgumentException(operation.name().toLowerCase() + " takes " + operation.arguments + " arguments");
+                }
+                String[] arguments = new String[operation.arguments];
+                System.arraycopy(words, 1, arguments, 0, arguments.length);
+                double amount = 0;
+                int option = 0;
+                if (operation == Operation.DEPOSIT || operation == Operation.WITHDRAW) {
+                    amount = AtmSession.parseAmount(arguments[0]);
+                } else if (operation == Operation.TRANSFER) {
+                    amount = AtmSession.parseAmount(arguments[1]);
+                } else if (operation == Operation.FASTCASH) {
+                    option = Integer.parseInt(arguments[0]);
+                    if (option < 0 || option >= AtmSession.FAST_CASH_AMOUNTS.size()) {
+                        throw new IllegalArgumentException("No fast cash option " + option);
+                    }
+                }
+                steps.add(new Step(operation, arguments, amount, option));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException(file + ":" + (i + 1) + ": " + ex.getMessage(), ex);
+            }
+        }
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException(file + " has no operations");
+        }
+        return steps;
+    }
+}
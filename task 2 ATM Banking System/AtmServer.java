@@ -0,0 +1,301 @@
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A headless ATM server that owns the accounts and serves terminals over TCP or a Unix-domain socket, using the
+ * {@link AtmProtocol}. Each connection is one terminal session and is handled on its own thread: a virtual thread where
+ * the JVM supports them, so thousands of mostly idle terminals cost little, otherwise a pooled platform thread. Every
+ * change to an account is in the transaction journal before the terminal gets its response; the account store is
+ * updated behind it by the ATM's {@link AccountCache}. Withdrawals and transfers go through the ATM's
+ * {@link FraudScreen}, whose per-rule costs are printed when the server is closed. Amounts are taken in paise as the
+ * terminal sent them, and no single deposit, withdrawal or transfer may be larger than {@code atm.server.maxAmount}
+ * rupees (default {@value #DEFAULT_MAX_AMOUNT}). A request that fails unexpectedly is answered ERROR, and the session
+ * goes on.
+ * <p>
+ * Usage: {@code java AtmServer [address]}, where the address is {@code host:port}, {@code port} or
+ * {@code unix:/path/to/socket} (default {@value AtmProtocol#DEFAULT_ADDRESS}).
+ */
+public class AtmServer implements Closeable {
+    private static final int BACKLOG = 4096;
+    private static final String DEFAULT_MAX_AMOUNT = "1000000";
+    private static final long MAX_AMOUNT_MINOR = Account.toMinorUnits(Double.parseDouble(
+            System.getProperty("atm.server.maxAmount", DEFAULT_MAX_AMOUNT)));
+
+    private final ATM atm;
+    private final SocketAddress address;
+    private final ServerSocketChannel server;
+    private final ExecutorService sessions = newThreadPerTaskExecutor();
+    private volatile boolean closed;
+
+    /**
+     * Binds a server for an ATM's accounts.
+     *
+     * @param atm The ATM holding the accounts.
+     * @param address The address to listen on.
+     * @throws IOException If the address cannot be bound.
+     */
+    public AtmServer(ATM atm, SocketAddress address) throws IOException {
+        this.atm = atm;
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address, BACKLOG);
+        this.address = server.getLocalAddress();
+    }
+
+    /**
+     * Returns the address the server is listening on.
+     *
+     * @return The bound address.
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Accepts terminals until the server is closed, handling each on its own thread.
+     */
+    public void serve() {
+        while (!closed) {
+            try {
+                SocketChannel terminal = server.accept();
+                sessions.execute(() -> handle(terminal));
+            } catch (ClosedChannelException ex) {
+                return;
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting terminals and closes the ATM, saving the accounts.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        sessions.shutdownNow();
+        atm.close();
+        for (String line : atm.getFraudScreen().report()) {
+            System.out.println("Fraud rule " + line);
+        }
+    }
+
+    private void handle(SocketChannel terminal) {
+        try (SocketChannel channel = terminal) {
+            // Flight recordings show each event's thread, so naming it after the terminal shows where operations came from.
+            Thread.currentThread().setName("atm-session " + channel.getRemoteAddress());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            Account account = null;
+            while (true) {
+                int opcode = in.read();
+                if (opcode < 0) {
+                    return;
+                }
+                if (opcode == AtmProtocol.LOGIN) {
+                    String accountNumber = in.readUTF();
+                    String pin = in.readUTF();
+                    account = null;
+                    try {
+                        account = atm.login(accountNumber, pin);
+                        out.writeByte(account != null ? AtmProtocol.OK : AtmProtocol.FAILED);
+                    } catch (CompletionException ex) {
+                        // The PIN verifier is saturated; the terminal may try again.
+                        out.writeByte(AtmProtocol.ERROR);
+                    }
+                } else {
+                    try {
+                        handleRequest((byte) opcode, account, in, out);
+                    } catch (RuntimeException ex) {
+                        // Every request's arguments are read before it runs, so the stream is still in step and
+                        // only this request fails.
+                        ex.printStackTrace();
+                        out.writeByte(AtmProtocol.ERROR);
+                    }
+                    if (opcode == AtmProtocol.LOGOUT) {
+                        account = null;
+                    }
+                }
+                out.flush();
+            }
+        } catch (EOFException ex) {
+            // The terminal disconnected in the middle of a request.
+        } catch (IOException ex) {
+            if (!closed) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void handleRequest(byte opcode, Account account, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (opcode) {
+            case AtmProtocol.BALANCE:
+                if (loggedIn(account, out)) {
+                    out.writeByte(AtmProtocol.OK);
+                    out.writeLong(account.getBalanceMinor());
+                }
+                break;
+            case AtmProtocol.DEPOSIT: {
+                long amount = in.readLong();
+                if (loggedIn(account, out) && validAmount(amount, out)) {
+                    try {
+                        account.depositMinor(amount);
+                        out.writeByte(AtmProtocol.OK);
+                        out.writeLong(account.getBalanceMinor());
+                    } catch (IllegalArgumentException ex) {
+                        out.writeByte(AtmProtocol.INVALID);
+                    }
+                }
+                break;
+            }
+            case AtmProtocol.WITHDRAW: {
+                long amount = in.readLong();
+                // Checked here, before the fraud screen sees the amount.
+                if (loggedIn(account, out) && validAmount(amount, out)) {
+                    try {
+                        if (atm.withdrawMinor(account, amount)) {
+                            out.writeByte(AtmProtocol.OK);
+                            out.writeLong(account.getBalanceMinor());
+                        } else {
+                            out.writeByte(AtmProtocol.FAILED);
+                        }
+                    } catch (WithdrawalLimitException ex) {
+                        out.writeByte(AtmProtocol.LIMIT_EXCEEDED);
+                        out.writeUTF(ex.getMessage());
+                    } catch (WithdrawalDeclinedException ex) {
+                        out.writeByte(AtmProtocol.DECLINED);
+                        out.writeUTF(ex.getMessage());
+                    }
+                }
+                break;
+            }
+            case AtmProtocol.TRANSFER: {
+                String toAccountNumber = in.readUTF();
+                long amount = in.readLong();
+                if (loggedIn(account, out) && validAmount(amount, out)) {
+                    try {
+                        if (atm.transferMinor(account, toAccountNumber, amount)) {
+                            out.writeByte(AtmProtocol.OK);
+                            out.writeLong(account.getBalanceMinor());
+                        } else {
+                            out.writeByte(AtmProtocol.FAILED);
+                        }
+                    } catch (WithdrawalLimitException ex) {
+                        out.writeByte(AtmProtocol.LIMIT_EXCEEDED);
+                        out.writeUTF(ex.getMessage());
+                    } catch (WithdrawalDeclinedException ex) {
+                        out.writeByte(AtmProtocol.DECLINED);
+                        out.writeUTF(ex.getMessage());
+                    } catch (IllegalArgumentException ex) {
+                        out.writeByte(AtmProtocol.INVALID);
+                    }
+                }
+                break;
+            }
+            case AtmProtocol.STATEMENT: {
+                int count = in.readInt();
+                if (loggedIn(account, out)) {
+                    List<String> transactions = account.getRecentTransactions(count);
+                    out.writeByte(AtmProtocol.OK);
+                    out.writeInt(transactions.size());
+                    for (String transaction : transactions) {
+                        out.writeUTF(transaction);
+                    }
+                }
+                break;
+            }
+            case AtmProtocol.CHANGE_PIN: {
+                String oldPin = in.readUTF();
+                String newPin = in.readUTF();
+                if (loggedIn(account, out)) {
+                    try {
+                        if (atm.changePin(account, oldPin, newPin)) {
+                            out.writeByte(AtmProtocol.OK);
+                        } else {
+                            out.writeByte(AtmProtocol.FAILED);
+                        }
+                    } catch (CompletionException ex) {
+                        out.writeByte(AtmProtocol.ERROR);
+                    }
+                }
+                break;
+            }
+            case AtmProtocol.LOGOUT:
+                out.writeByte(AtmProtocol.OK);
+                break;
+            default:
+                // An unknown opcode leaves the rest of the stream unreadable, so the session ends here.
+                out.writeByte(AtmProtocol.ERROR);
+                out.flush();
+                throw new EOFException("Unknown opcode " + opcode);
+        }
+    }
+
+    private static boolean loggedIn(Account account, DataOutputStream out) throws IOException {
+        if (account == null) {
+            out.writeByte(AtmProtocol.NOT_LOGGED_IN);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Answers INVALID for an amount a terminal sent that is not positive or is over the largest one allowed; amounts
+     * are only checked by the terminal's own UI, so the server cannot trust them.
+     */
+    private static boolean validAmount(long amount, DataOutputStream out) throws IOException {
+        if (amount <= 0 || amount > MAX_AMOUNT_MINOR) {
+            out.writeByte(AtmProtocol.INVALID);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread, or, on a JVM without virtual threads,
+     * on a cached pool of daemon platform threads.
+     *
+     * @return The executor.
+     */
+    public static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "atm-session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String address = args.length > 0 ? args[0] : AtmProtocol.DEFAULT_ADDRESS;
+        AtmServer server = new AtmServer(new ATM(), AtmProtocol.parseAddress(address));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "atm-server-shutdown"));
+        System.out.println("ATM server listening on " + server.getAddress());
+        server.serve();
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.List;
+
+/**
+ * One terminal's session with the ATM: log in to an account, then operate on it.
+ * {@link LocalAtmSession} works directly on accounts loaded in this process; {@link RemoteAtmSession} sends every
+ * operation to an {@link AtmServer}, so any number of terminals share one set of accounts. This is the whole of the
+ * ATM's session logic, including amount checks, fast cash and the mini statement, so the GUI, {@link AtmScriptDriver}
+ * and tests all drive the same engine.
+ */
+public interface AtmSession extends AutoCloseable {
+    /** The amounts offered by fast cash, in rupees. */
+    List<Double> FAST_CASH_AMOUNTS = List.of(100.0, 500.0, 1000.0, 2000.0);
+    /** The number of transactions on a mini statement. */
+    int MINI_STATEMENT_SIZE = 10;
+
+    /**
+     * Logs in to an account, ending any previous login.
+     *
+     * @param accountNumber The account number.
+     * @param pin The PIN for the account.
+     * @return True if the login was successful.
+     */
+    boolean login(String accountNumber, String pin);
+
+    /**
+     * Checks whether an account is logged in.
+     *
+     * @return True if an account is logged in.
+     */
+    boolean isLoggedIn();
+
+    /**
+     * Returns the balance of the logged-in account.
+     *
+     * @return The balance in rupees.
+     */
+    double getBalance();
+
+    /**
+     * Deposits into the logged-in account.
+     *
+     * @param amount The amount to deposit.
+     * @throws IllegalArgumentException If the amount is not positive.
+     */
+    void deposit(double amount);
+
+    /**
+     * Withdraws from the logged-in account.
+     *
+     * @param amount The amount to withdraw.
+     * @return True if the withdrawal was successful, false if the funds were insufficient.
+     * @throws WithdrawalLimitException If the withdrawal would go over one of the account's withdrawal limits.
+     * @throws WithdrawalDeclinedException If the fraud screen declines the withdrawal.
+     * @throws IllegalArgumentException If the amount is not positive.
+     */
+    boolean withdraw(double amount);
+
+    /**
+     * Withdraws one of the {@link #FAST_CASH_AMOUNTS} from the logged-in account.
+     *
+     * @param option The position of the amount in the list.
+     * @return True if the withdrawal was successful, false if the funds were insufficient.
+     * @throws IllegalArgumentException If there is no such option.
+     * @throws WithdrawalLimitException If the withdrawal would go over one of the account's withdrawal limits.
+     * @throws WithdrawalDeclinedException If the fraud screen declines the withdrawal.
+     */
+    default boolean fastCash(int option) {
+        if (option < 0 || option >= FAST_CASH_AMOUNTS.size()) {
+            throw new IllegalArgumentException("No fast cash option " + option);
+        }
+        return withdraw(FAST_CASH_AMOUNTS.get(option));
+    }
+
+    /**
+     * Transfers money from the logged-in account to another account.
+     *
+     * @param toAccountNumber The number of the account to credit.
+     * @param amount The amount to transfer.
+     * @return True if the transfer was made, false if the funds were insufficient.
+     * @throws WithdrawalLimitException If the transfer would go over one of the account's withdrawal limits.
+     * @throws WithdrawalDeclinedException If the fraud screen declines the transfer.
+     * @throws IllegalArgumentException If the target account does not exist or is the logged-in account.
+     */
+    boolean transfer(String toAccountNumber, double amount);
+
+    /**
+     * Returns the most recent transactions of the logged-in account.
+     *
+     * @param count The maximum number of transactions to return.
+     * @return The transactions, oldest first.
+     */
+    List<String> getRecentTransactions(int count);
+
+    /**
+     * Returns the mini statement of the logged-in account: its last {@value #MINI_STATEMENT_SIZE} transactions.
+     *
+     * @return The transactions, oldest first.
+     */
+    default List<String> getMiniStatement() {
+        return getRecentTransactions(MINI_STATEMENT_SIZE);
+    }
+
+    /**
+     * Changes the PIN of the logged-in account.
+     *
+     * @param oldPin The current PIN.
+     * @param newPin The new PIN.
+     * @return True if the PIN was changed, false if the current PIN was wrong.
+     */
+    boolean changePin(String oldPin, String newPin);
+
+    /**
+     * Logs out of the current account.
+     */
+    void logout();
+
+    /**
+     * Ends the session, saving any changes.
+     */
+    @Override
+    void close();
+
+    /**
+     * Reads an amount as entered at a terminal.
+     *
+     * @param text The amount in rupees.
+     * @return The amount.
+     * @throws NumberFormatException If the text is not a positive number.
+     */
+    static double parseAmount(String text) {
+        double amount = Double.parseDouble(text.trim());
+        if (!(amount > 0) || Double.isInfinite(amount)) {
+            throw new NumberFormatException("Not a positive amount: " + text);
+        }
+        return amount;
+    }
+
+    /**
+     * Opens a session for a terminal. If the {@code atm.server} system property is set, the session connects to the
+     * ATM server at that address; otherwise it loads the accounts in this process.
+     *
+     * @return A new session.
+     */
+    static AtmSession open() {
+        String server = System.getProperty("atm.server");
+        if (server != null && !server.isEmpty()) {
+            return new RemoteAtmSession(AtmProtocol.parseAddress(server));
+        }
+        return new LocalAtmSession(new ATM());
+    }
+}
@@ -0,0 +1,23 @@
+import java.io.PrintWriter;
+
+/**
+ * One step of the {@link EndOfDayBatch}, run for every account. The batch calls a job for many accounts at once from
+ * different threads, each time with the writer of the chunk of accounts being processed, so a job must keep no state
+ * of its own between calls other than what is safe to share.
+ */
+public interface BatchJob {
+    /**
+     * Returns the job's name, which also names its output file.
+     *
+     * @return The name.
+     */
+    String getName();
+
+    /**
+     * Processes one account's business day.
+     *
+     * @param day The account and its transactions on the business day.
+     * @param out Where the job writes its output for the account, if any.
+     */
+    void process(AccountDay day, PrintWriter out);
+}
@@ -0,0 +1,133 @@
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The built-in end-of-day jobs.
+ */
+public final class BatchJobs {
+    private BatchJobs() {
+    }
+
+    /**
+     * Creates jobs by name: {@code statements} for {@link Statements}, {@code interest} for {@link InterestAccrual},
+     * with the annual rate in percent of the {@code atm.batch.interestPercent} system property (default 3), and
+     * {@code reconcile} for {@link Reconciliation}.
+     *
+     * @param names Comma-separated job names.
+     * @return The jobs.
+     */
+    public static List<BatchJob> parse(String names) {
+        List<BatchJob> jobs = new ArrayList<>();
+        for (String name : names.split(",")) {
+            switch (name.trim()) {
+                case "statements":
+                    jobs.add(new Statements());
+                    break;
+                case "interest":
+                    jobs.add(new InterestAccrual(Double.parseDouble(System.getProperty("atm.batch.interestPercent", "3"))));
+                    break;
+                case "reconcile":
+                    jobs.add(new Reconciliation());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown batch job: " + name);
+            }
+        }
+        return jobs;
+    }
+
+    private static String amount(long minor) {
+        return minor == Transaction.UNKNOWN ? "unknown" : String.valueOf(Account.toMajorUnits(minor));
+    }
+
+    /**
+     * Writes a daily statement for every account that had transactions on the day.
+     */
+    public static class Statements implements BatchJob {
+        private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+        @Override
+        public String getName() {
+            return "statements";
+        }
+
+        @Override
+        public void process(AccountDay day, PrintWriter out) {
+            if (day.getTransactions().isEmpty()) {
+                return;
+            }
+            out.println("Account " + day.getAccount().getAccountNumber() + ", " + day.getDate() + ": opening "
+                    + amount(day.getOpeningMinor()) + ", closing " + amount(day.getClosingMinor()));
+            for (Transaction transaction : day.getTransactions()) {
+                out.println("  " + TIME.format(Instant.ofEpochMilli(transaction.getTimeMillis())) + " "
+                        + transaction.describe() + " (balance " + amount(transaction.getBalanceAfterMinor()) + ")");
+            }
+        }
+    }
+
+    /**
+     * Accrues a day's interest on every account's closing balance, at an annual rate over 365 days, rounded to the
+     * nearest paisa. Accruals are written out, not credited; crediting them is left to a periodic posting run.
+     */
+    public static class InterestAccrual implements BatchJob {
+        private final double annualPercent;
+
+        /**
+         * Constructs the job.
+         *
+         * @param annualPercent The annual interest rate in percent.
+         */
+        public InterestAccrual(double annualPercent) {
+            this.annualPercent = annualPercent;
+        }
+
+        @Override
+        public String getName() {
+            return "interest";
+        }
+
+        @Override
+        public void process(AccountDay day, PrintWriter out) {
+            long closing = day.getClosingMinor();
+            if (closing == Transaction.UNKNOWN || closing <= 0) {
+                return;
+            }
+            long accrued = Math.round(closing * annualPercent / (100 * 365.0));
+            out.println(day.getAccount().getAccountNumber() + "," + day.getDate() + "," + amount(closing) + "," + amount(accrued));
+        }
+    }
+
+    /**
+     * Checks that every transaction of the day moved the balance by its amount from where the one before left it, and
+     * that the last one left the balance the account closed the day with, reporting every account where they did not.
+     */
+    public static class Reconciliation implements BatchJob {
+        @Override
+        public String getName() {
+            return "reconcile";
+        }
+
+        @Override
+        public void process(AccountDay day, PrintWriter out) {
+            long expected = day.getOpeningMinor();
+            for (Transaction transaction : day.getTransactions()) {
+                long before = AccountDay.balanceBefore(transaction);
+                if (expected != Transaction.UNKNOWN && before != Transaction.UNKNOWN && before != expected) {
+                    out.println(day.getAccount().getAccountNumber() + ": expected a balance of " + amount(expected)
+                            + " before #" + transaction.getSequence() + " (" + transaction.describe() + "), found "
+                            + amount(before));
+                }
+                expected = transaction.getBalanceAfterMinor();
+            }
+            long closing = day.getClosingMinor();
+            if (expected != Transaction.UNKNOWN && closing != Transaction.UNKNOWN && closing != expected) {
+                out.println(day.getAccount().getAccountNumber() + ": the day's transactions leave " + amount(expected)
+                        + " but the account closed the day with " + amount(closing));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs random concurrent deposits and withdrawals on one account and checks that its balance ends exactly where the
+ * operations that were made put it, to the paisa. The account lives in a scratch directory with its own journal, so
+ * the real account files are not touched, and in an account class without withdrawal limits, so only the balance
+ * declines a withdrawal. After the run no withdrawal may have overdrawn the account, and the journal must hold exactly
+ * one entry for every deposit and withdrawal that was made. A deposit that would take a balance past the largest one
+ * that can be held must be refused and leave the balance as it was.
+ * <p>
+ * Usage: {@code java DepositWithdrawStressTest [threads] [operationsPerThread] [seed]}
+ * (defaults 8, 20000, random).
+ */
+public class DepositWithdrawStressTest {
+    private static final long INITIAL_BALANCE_MINOR = 100_000;
+    private static final long MAX_AMOUNT_MINOR = 50_000;
+    private static final int UNLIMITED_CLASS = 99;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int operationsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : new Random().nextLong();
+        System.setProperty("atm.limits." + UNLIMITED_CLASS, "none");
+
+        File directory = Files.createTempDirectory("deposit-withdraw-stress").toFile();
+        TransactionJournal journal = new TransactionJournal(new File(directory, "transactions.journal"), TransactionJournal.Durability.WRITE);
+        String credential = PinHasher.hash("0000");
+        Account account = new Account("000000", credential, Account.toMajorUnits(INITIAL_BALANCE_MINOR), UNLIMITED_CLASS, journal);
+
+        Account full = new Account("000001", credential, 0, UNLIMITED_CLASS, journal);
+        double largeDeposit = 5e16;
+        full.deposit(largeDeposit);
+        long fullBalance = full.getBalanceMinor();
+        boolean overflowAccepted;
+        try {
+            full.deposit(largeDeposit);
+            overflowAccepted = true;
+        } catch (IllegalArgumentException ex) {
+            overflowAccepted = false;
+        }
+        boolean overflowKept = full.getBalanceMinor() == fullBalance;
+
+        AtomicLong deposits = new AtomicLong();
+        AtomicLong depositedMinor = new AtomicLong();
+        AtomicLong withdrawals = new AtomicLong();
+        AtomicLong withdrawnMinor = new AtomicLong();
+        AtomicLong declined = new AtomicLong();
+        AtomicLong negativeSeen = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(seed + t);
+            workers.add(executor.submit(() -> {
+                for (int i = 0; i < operationsPerThread; i++) {
+                    long minor = 1 + random.nextInt((int) MAX_AMOUNT_MINOR);
+                    if (random.nextBoolean()) {
+                        account.deposit(Account.toMajorUnits(minor));
+                        deposits.incrementAndGet();
+                        depositedMinor.addAndGet(minor);
+                    } else if (account.withdraw(Account.toMajorUnits(minor))) {
+                        withdrawals.incrementAndGet();
+                        withdrawnMinor.addAndGet(minor);
+                    } else {
+                        declined.incrementAndGet();
+                    }
+                    if (account.getBalanceMinor() < 0) {
+                        negativeSeen.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        long balance = account.getBalanceMinor();
+        long expectedBalance = INITIAL_BALANCE_MINOR + depositedMinor.get() - withdrawnMinor.get();
+        // The account's history starts with its "Initial balance" entry.
+        long journalEntries = account.getTransactionHistory().size() - 1;
+        long made = deposits.get() + withdrawals.get();
+        journal.close();
+        deleteDirectory(directory);
+
+        System.out.printf("seed %d: %d deposits, %d withdrawals made, %d declined in %.2f s (%.0f/s)%n",
+                seed, deposits.get(), withdrawals.get(), declined.get(), seconds, (made + declined.get()) / seconds);
+        boolean exact = balance == expectedBalance;
+        boolean journaled = journalEntries == made;
+        System.out.println("balance " + balance + " paise" + (exact ? " (exact)" : " (EXPECTED " + expectedBalance + ")"));
+        System.out.println("negative balances seen: " + negativeSeen.get());
+        System.out.println("journal entries: " + journalEntries + (journaled ? " (one per operation)" : " (EXPECTED " + made + ")"));
+        System.out.println("overflowing deposit " + (overflowAccepted ? "ACCEPTED" : "refused")
+                + (overflowKept ? ", balance kept" : ", balance CHANGED"));
+        if (!exact || negativeSeen.get() > 0 || !journaled || overflowAccepted || !overflowKept) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    private static void deleteDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory.toPath());
+    }
+}
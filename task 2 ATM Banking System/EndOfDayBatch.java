@@ -0,0 +1,257 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs end-of-day jobs, such as statements, interest accrual and reconciliation, over every account for one business
+ * day. The accounts are sorted by number and cut into chunks of {@code atm.batch.chunkSize} (default 10000), and the
+ * chunks are processed in parallel on a fork-join pool of {@code atm.batch.threads} threads (default: number of
+ * processors). Each account's transactions for the day are read from the journal by following its chain, handed to
+ * every {@link BatchJob} and dropped, so memory does not grow with the number of accounts or transactions.
+ * <p>
+ * Each job writes its output for a chunk to a file of its own, which is renamed into place when the chunk is done,
+ * after which the chunk is recorded in a checkpoint file. A run that stops part way resumes with the chunks it had not
+ * finished, as long as the business day, chunk size and number of accounts are the same. When every chunk is done, each
+ * job's chunk files are joined into one {@code <job>.txt} in account order. Progress and throughput are printed while
+ * the run goes, with each job's share of the time at the end.
+ * <p>
+ * Usage: {@code java EndOfDayBatch [date] [outputDirectory]} (defaults today and {@code eod-<date>}), with the jobs given
+ * by the {@code atm.batch.jobs} system property (default {@code statements,interest,reconcile}, see
+ * {@link BatchJobs#parse}). It opens the account files in the working directory, so it must not run while an ATM or
+ * server is using them.
+ */
+public class EndOfDayBatch {
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String COMPLETE = "complete";
+    private static final long PROGRESS_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final List<Account> accounts;
+    private final List<BatchJob> jobs;
+    private final LocalDate date;
+    private final File outputDirectory;
+    private final int chunkSize;
+    private final int threads;
+    private final long dayStartMillis;
+    private final long dayEndMillis;
+    private final LongAdder accountsDone = new LongAdder();
+    private final LongAdder transactionsDone = new LongAdder();
+    private final LongAdder[] jobNanos;
+    private final AtomicLong nextProgress = new AtomicLong();
+    private long startNanos;
+
+    /**
+     * Constructs a batch over a set of accounts.
+     *
+     * @param accounts The accounts.
+     * @param jobs The jobs to run for every account.
+     * @param date The business day.
+     * @param outputDirectory The directory for the jobs' output and the checkpoint.
+     */
+    public EndOfDayBatch(Collection<Account> accounts, List<BatchJob> jobs, LocalDate date, File outputDirectory) {
+        this.accounts = new ArrayList<>(accounts);
+        this.accounts.sort(Comparator.comparing(Account::getAccountNumber));
+        this.jobs = jobs;
+        this.date = date;
+        this.outputDirectory = outputDirectory;
+        this.chunkSize = Integer.getInteger("atm.batch.chunkSize", 10_000);
+        this.threads = Integer.getInteger("atm.batch.threads", Runtime.getRuntime().availableProcessors());
+        ZoneId zone = ZoneId.systemDefault();
+        this.dayStartMillis = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        this.dayEndMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() - 1;
+        this.jobNanos = new LongAdder[jobs.size()];
+        for (int i = 0; i < jobNanos.length; i++) {
+            jobNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Runs the batch, resuming an earlier run of the same batch that did not finish.
+     *
+     * @return False if the batch had already been completed, true otherwise.
+     * @throws IOException If the output or the checkpoint cannot be written.
+     */
+    public boolean run() throws IOException {
+        Files.createDirectories(outputDirectory.toPath());
+        int chunkCount = (accounts.size() + chunkSize - 1) / chunkSize;
+        String header = date + " " + chunkSize + " " + accounts.size();
+        Set<Integer> done = readCheckpoint(header);
+        if (done == null) {
+            return false;
+        }
+        List<Integer> pending = IntStream.range(0, chunkCount).filter(chunk -> !done.contains(chunk)).boxed()
+                .collect(Collectors.toList());
+        if (!done.isEmpty()) {
+            System.out.println("Resuming: " + done.size() + " of " + chunkCount + " chunks were already done");
+        }
+
+        startNanos = System.nanoTime();
+        nextProgress.set(startNanos + PROGRESS_NANOS);
+        try (FileChannel checkpoint = FileChannel.open(new File(outputDirectory, CHECKPOINT_FILE).toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> pending.parallelStream().forEach(chunk -> runChunk(chunk, checkpoint))).join();
+            } finally {
+                pool.shutdown();
+            }
+            for (BatchJob job : jobs) {
+                joinOutput(job, chunkCount);
+            }
+            appendLine(checkpoint, COMPLETE);
+        }
+        report();
+        return true;
+    }
+
+    /**
+     * Reads the chunks already done from the checkpoint, or starts a new checkpoint if there is none for this batch.
+     *
+     * @return The chunks done, or null if the whole batch is complete.
+     */
+    private Set<Integer> readCheckpoint(String header) throws IOException {
+        File file = new File(outputDirectory, CHECKPOINT_FILE);
+        Set<Integer> done = new HashSet<>();
+        if (file.exists()) {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(header)) {
+                for (String line : lines.subList(1, lines.size())) {
+                    if (line.equals(COMPLETE)) {
+                        return null;
+                    }
+                    try {
+                        done.add(Integer.parseInt(line));
+                    } catch (NumberFormatException ex) {
+                        // A line torn by a crash; its chunk is simply done again.
+                    }
+                }
+                return done;
+            }
+        }
+        try (FileChannel checkpoint = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            appendLine(checkpoint, header);
+        }
+        return done;
+    }
+
+    private void runChunk(int chunk, FileChannel checkpoint) {
+        List<Account> slice = accounts.subList(chunk * chunkSize, Math.min(accounts.size(), (chunk + 1) * chunkSize));
+        PrintWriter[] outputs = new PrintWriter[jobs.size()];
+        try {
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i] = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(chunkFile(jobs.get(i), chunk, ".tmp")), StandardCharsets.UTF_8), 1 << 16));
+            }
+            for (Account account : slice) {
+                AccountDay day = new AccountDay(account, date, account.getTransactions(dayStartMillis, Long.MAX_VALUE, null), dayEndMillis);
+                for (int i = 0; i < outputs.length; i++) {
+                    long begin = System.nanoTime();
+                    jobs.get(i).process(day, outputs[i]);
+                    jobNanos[i].add(System.nanoTime() - begin);
+                }
+                transactionsDone.add(day.getTransactions().size());
+            }
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i].close();
+                if (outputs[i].checkError()) {
+                    throw new IOException("Cannot write the " + jobs.get(i).getName() + " output of chunk " + chunk);
+                }
+                Files.move(chunkFile(jobs.get(i), chunk, ".tmp").toPath(), chunkFile(jobs.get(i), chunk, ".txt").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            appendLine(checkpoint, String.valueOf(chunk));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            for (PrintWriter output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+        accountsDone.add(slice.size());
+        long now = System.nanoTime();
+        long next = nextProgress.get();
+        if (now >= next && nextProgress.compareAndSet(next, now + PROGRESS_NANOS)) {
+            double seconds = (now - startNanos) / 1e9;
+            System.out.printf("%d accounts, %d transactions in %.1f s (%.0f accounts/s)%n",
+                    accountsDone.sum(), transactionsDone.sum(), seconds, accountsDone.sum() / seconds);
+        }
+    }
+
+    private static void appendLine(FileChannel checkpoint, String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (checkpoint) {
+            checkpoint.write(ByteBuffer.wrap(bytes));
+            checkpoint.force(false);
+        }
+    }
+
+    /**
+     * Joins a job's chunk files into its output file, through a temporary file, and deletes them. A job whose output
+     * was already joined before a crash is left as it is.
+     */
+    private void joinOutput(BatchJob job, int chunkCount) throws IOException {
+        File output = new File(outputDirectory, job.getName() + ".txt");
+        boolean joined = chunkCount > 0 && output.exists() && !chunkFile(job, 0, ".txt").exists();
+        if (!joined) {
+            File temporary = new File(outputDirectory, job.getName() + ".txt.tmp");
+            try (FileOutputStream out = new FileOutputStream(temporary)) {
+                for (int chunk = 0; chunk < chunkCount; chunk++) {
+                    Files.copy(chunkFile(job, chunk, ".txt").toPath(), out);
+                }
+                out.getFD().sync();
+            }
+            Files.move(temporary.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            Files.deleteIfExists(chunkFile(job, chunk, ".txt").toPath());
+        }
+    }
+
+    private File chunkFile(BatchJob job, int chunk, String suffix) {
+        return new File(outputDirectory, job.getName() + "-" + chunk + suffix);
+    }
+
+    private void report() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("End of day %s: %d accounts, %d transactions in %.1f s (%.0f accounts/s, %.0f transactions/s)%n",
+                date, accountsDone.sum(), transactionsDone.sum(), seconds, accountsDone.sum() / seconds,
+                transactionsDone.sum() / seconds);
+        long totalJobNanos = 0;
+        for (LongAdder nanos : jobNanos) {
+            totalJobNanos += nanos.sum();
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            System.out.printf("  %-12s %8.1f ms of thread time (%.0f%%)%n", jobs.get(i).getName(), jobNanos[i].sum() / 1e6,
+                    totalJobNanos == 0 ? 0 : 100.0 * jobNanos[i].sum() / totalJobNanos);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        LocalDate date = args.length > 0 ? LocalDate.parse(args[0]) : LocalDate.now();
+        File outputDirectory = new File(args.length > 1 ? args[1] : "eod-" + date);
+        List<BatchJob> jobs = BatchJobs.parse(System.getProperty("atm.batch.jobs", "statements,interest,reconcile"));
+        try (AccountService service = new AccountService()) {
+            long start = System.nanoTime();
+            List<Account> accounts = service.loadAccounts();
+            System.out.printf("Loaded %d accounts in %.1f s%n", accounts.size(), (System.nanoTime() - start) / 1e9);
+            if (!new EndOfDayBatch(accounts, jobs, date, outputDirectory).run()) {
+                System.out.println("The batch for " + date + " in " + outputDirectory + " is already complete");
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * One check of the fraud screen, run before a withdrawal against the account's recent activity. A transfer out of the
+ * account is screened as a withdrawal of its amount. A rule must only read the profile it is given; it runs on the
+ * screen's worker pool, under the latency budget the rule was added with.
+ */
+public interface FraudRule {
+    /**
+     * The outcome of a rule.
+     */
+    enum Decision {
+        ALLOW,
+        DECLINE
+    }
+
+    /**
+     * Returns the rule's name, as shown in the screen's report.
+     *
+     * @return The name.
+     */
+    String getName();
+
+    /**
+     * Decides whether a withdrawal may go ahead.
+     *
+     * @param profile The account's activity before this withdrawal.
+     * @param amountMinor The amount to withdraw, in paise.
+     * @param nowMillis The time of the withdrawal, in epoch milliseconds.
+     * @return The decision.
+     */
+    Decision evaluate(ActivityProfile profile, long amountMinor, long nowMillis);
+}
@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The built-in fraud rules.
+ */
+public final class FraudRules {
+    private FraudRules() {
+    }
+
+    /**
+     * Creates rules by name: {@code spike} for {@link AmountSpike}, {@code repeat} for {@link RapidRepeat} and
+     * {@code hours} for {@link UnusualHour}, each with its default settings.
+     *
+     * @param names Comma-separated rule names, or {@code none} for no rules.
+     * @return The rules.
+     */
+    public static List<FraudRule> parse(String names) {
+        List<FraudRule> rules = new ArrayList<>();
+        if (names.trim().equalsIgnoreCase("none")) {
+            return rules;
+        }
+        for (String name : names.split(",")) {
+            switch (name.trim()) {
+                case "spike":
+                    rules.add(new AmountSpike(5, 5));
+                    break;
+                case "repeat":
+                    rules.add(new RapidRepeat(3, TimeUnit.MINUTES.toMillis(2)));
+                    break;
+                case "hours":
+                    rules.add(new UnusualHour(20));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown fraud rule: " + name);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Declines a withdrawal many times larger than the account's usual amount.
+     */
+    public static class AmountSpike implements FraudRule {
+        private final long minHistory;
+        private final double factor;
+
+        /**
+         * Constructs the rule.
+         *
+         * @param minHistory The number of earlier withdrawals needed before the rule applies.
+         * @param factor How many times the average amount a withdrawal may be.
+         */
+        public AmountSpike(long minHistory, double factor) {
+            this.minHistory = minHistory;
+            this.factor = factor;
+        }
+
+        @Override
+        public String getName() {
+            return "spike";
+        }
+
+        @Override
+        public Decision evaluate(ActivityProfile profile, long amountMinor, long nowMillis) {
+            if (profile.getCount() >= minHistory && amountMinor > factor * profile.getAverageMinor()) {
+                return Decision.DECLINE;
+            }
+            return Decision.ALLOW;
+        }
+    }
+
+    /**
+     * Declines the same amount again soon after it was already withdrawn several times in a row.
+     */
+    public static class RapidRepeat implements FraudRule {
+        private final int maxRepeats;
+        private final long windowMillis;
+
+        /**
+         * Constructs the rule.
+         *
+         * @param maxRepeats The most withdrawals of one amount in a row.
+         * @param windowMillis How soon after the previous withdrawal another counts as a rapid repeat.
+         */
+        public RapidRepeat(int maxRepeats, long windowMillis) {
+            this.maxRepeats = maxRepeats;
+            this.windowMillis = windowMillis;
+        }
+
+        @Override
+        public String getName() {
+            return "repeat";
+        }
+
+        @Override
+        public Decision evaluate(ActivityProfile profile, long amountMinor, long nowMillis) {
+            if (profile.getCount() > 0 && amountMinor == profile.getLastAmountMinor()
+                    && nowMillis - profile.getLastMillis() < windowMillis && profile.getRepeats() >= maxRepeats) {
+                return Decision.DECLINE;
+            }
+            return Decision.ALLOW;
+        }
+    }
+
+    /**
+     * Declines an above-average withdrawal at an hour of the day the account has never withdrawn at before.
+     */
+    public static class UnusualHour implements FraudRule {
+        private final long minHistory;
+
+        /**
+         * Constructs the rule.
+         *
+         * @param minHistory The number of earlier withdrawals needed before the account's usual hours are known.
+         */
+        public UnusualHour(long minHistory) {
+            this.minHistory = minHistory;
+        }
+
+        @Override
+        public String getName() {
+            return "hours";
+        }
+
+        @Override
+        public Decision evaluate(ActivityProfile profile, long amountMinor, long nowMillis) {
+            if (profile.getCount() >= minHistory && profile.getHourCount(ActivityProfile.hourOf(nowMillis)) == 0
+                    && amountMinor > profile.getAverageMinor()) {
+                return Decision.DECLINE;
+            }
+            return Decision.ALLOW;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Screens withdrawals and transfers out for fraud before they are debited. Each account has an
+ * {@link ActivityProfile} that is kept up to date as withdrawals and transfers out are made, filled from the journal's
+ * last {@value #HISTORY_DAYS} days the first time the account is screened. The rules run in parallel on a bounded worker pool, each under its own latency budget: a rule
+ * that has not decided when its budget runs out, or cannot be started because the pool is full, counts as the
+ * timeout decision instead, so the screen never holds up a withdrawal for longer than the largest budget. A rule that
+ * throws also counts as the timeout decision, and as a failure in its costs. A withdrawal goes ahead only if every
+ * rule allows it. The cost of each rule is recorded and reported with
+ * {@link #report()}.
+ * <p>
+ * Configured with system properties: {@code atm.fraud.rules} (the rules of {@link FraudRules#parse}, default
+ * {@code spike,repeat,hours}), {@code atm.fraud.budgetMicros} (each rule's budget, default 2000),
+ * {@code atm.fraud.timeoutDecision} ({@code ALLOW} or {@code DECLINE}, default {@code ALLOW}) and
+ * {@code atm.fraud.threads} (default: number of processors).
+ */
+public class FraudScreen implements AutoCloseable {
+    private static final int HISTORY_DAYS = 30;
+    private static final int QUEUE = 1024;
+
+    private final List<BudgetedRule> rules = new CopyOnWriteArrayList<>();
+    private final FraudRule.Decision timeoutDecision;
+    private final Map<String, ActivityProfile> profiles = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Constructs a screen with the rules and settings of the system properties.
+     */
+    public FraudScreen() {
+        this(FraudRule.Decision.valueOf(System.getProperty("atm.fraud.timeoutDecision", "ALLOW").trim().toUpperCase()));
+        long budgetNanos = TimeUnit.MICROSECONDS.toNanos(Long.getLong("atm.fraud.budgetMicros", 2000));
+        for (FraudRule rule : FraudRules.parse(System.getProperty("atm.fraud.rules", "spike,repeat,hours"))) {
+            addRule(rule, budgetNanos);
+        }
+    }
+
+    /**
+     * Constructs a screen without rules.
+     *
+     * @param timeoutDecision The decision of a rule that does not decide within its budget.
+     */
+    public FraudScreen(FraudRule.Decision timeoutDecision) {
+        this.timeoutDecision = timeoutDecision;
+        int threads = Integer.getInteger("atm.fraud.threads", Runtime.getRuntime().availableProcessors());
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE), task -> {
+            Thread thread = new Thread(task, "fraud-screen");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds a rule.
+     *
+     * @param rule The rule.
+     * @param budgetNanos How long the rule may take to decide, in nanoseconds.
+     */
+    public void addRule(FraudRule rule, long budgetNanos) {
+        rules.add(new BudgetedRule(rule, budgetNanos));
+    }
+
+    /**
+     * Checks a withdrawal or transfer out against every rule.
+     *
+     * @param account The account to withdraw from.
+     * @param amountMinor The amount in paise.
+     * @param nowMillis The time of the withdrawal, in epoch milliseconds.
+     * @throws WithdrawalDeclinedException If a rule declines the withdrawal.
+     */
+    public void screen(Account account, long amountMinor, long nowMillis) {
+        if (rules.isEmpty()) {
+            return;
+        }
+        ActivityProfile profile = profileOf(account);
+        List<BudgetedRule> started = new ArrayList<>(rules.size());
+        List<CompletableFuture<FraudRule.Decision>> decisions = new ArrayList<>(rules.size());
+        for (BudgetedRule rule : rules) {
+            started.add(rule);
+            decisions.add(rule.start(profile, amountMinor, nowMillis));
+        }
+        boolean declined = false;
+        for (int i = 0; i < decisions.size(); i++) {
+            if (started.get(i).finish(decisions.get(i).join()) == FraudRule.Decision.DECLINE) {
+                declined = true;
+            }
+        }
+        if (declined) {
+            throw new WithdrawalDeclinedException("This withdrawal was declined for your security. Please contact the bank.");
+        }
+    }
+
+    /**
+     * Adds a withdrawal or transfer out that was made to the account's profile.
+     *
+     * @param account The account.
+     * @param amountMinor The amount in paise.
+     * @param nowMillis The time it was screened at, in epoch milliseconds.
+     */
+    public void record(Account account, long amountMinor, long nowMillis) {
+        if (!rules.isEmpty()) {
+            profileOf(account).record(amountMinor, nowMillis);
+        }
+    }
+
+    /**
+     * Describes what each rule has cost so far: how often it ran, declined, threw and ran out of its budget, and how
+     * long it took to evaluate.
+     *
+     * @return One line per rule that has run.
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        for (BudgetedRule rule : rules) {
+            String line = rule.describe();
+            if (line != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Stops the worker pool.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private ActivityProfile profileOf(Account account) {
+        ActivityProfile profile = profiles.get(account.getAccountNumber());
+        if (profile == null) {
+            profile = profiles.computeIfAbsent(account.getAccountNumber(), k -> {
+                ActivityProfile loaded = new ActivityProfile();
+                long now = System.currentTimeMillis();
+                for (Transaction transaction : account.getTransactions(now - TimeUnit.DAYS.toMillis(HISTORY_DAYS), now,
+                        EnumSet.of(TransactionType.WITHDRAWAL, TransactionType.TRANSFER_OUT))) {
+                    loaded.record(transaction.getAmountMinor(), transaction.getTimeMillis());
+                }
+                return loaded;
+            });
+        }
+        return profile;
+    }
+
+    /**
+     * A rule with its budget and its running costs.
+     */
+    private final class BudgetedRule {
+        private final FraudRule rule;
+        private final long budgetNanos;
+        private final LatencyHistogram evaluationNanos = new LatencyHistogram();
+        private final LongAdder declines = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        BudgetedRule(FraudRule rule, long budgetNanos) {
+            this.rule = rule;
+            this.budgetNanos = budgetNanos;
+        }
+
+        /**
+         * Starts the rule on the pool; the future completes with null if the rule misses its budget.
+         */
+        CompletableFuture<FraudRule.Decision> start(ActivityProfile profile, long amountMinor, long nowMillis) {
+            try {
+                return CompletableFuture.supplyAsync(() -> evaluate(profile, amountMinor, nowMillis), pool)
+                        .completeOnTimeout(null, budgetNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ex) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        FraudRule.Decision finish(FraudRule.Decision decision) {
+            if (decision == null) {
+                timeouts.increment();
+                decision = timeoutDecision;
+            }
+            if (decision == FraudRule.Decision.DECLINE) {
+                declines.increment();
+            }
+            return decision;
+        }
+
+        private FraudRule.Decision evaluate(ActivityProfile profile, long amountMinor, long nowMillis) {
+            long begin = System.nanoTime();
+            FraudRule.Decision decision;
+            try {
+                decision = rule.evaluate(profile, amountMinor, nowMillis);
+            } catch (RuntimeException ex) {
+                // A broken rule must not fail the withdrawal it screens; it decides as if it had run out of time.
+                failures.increment();
+                decision = timeoutDecision;
+            }
+            long elapsed = System.nanoTime() - begin;
+            synchronized (evaluationNanos) {
+                evaluationNanos.record(elapsed);
+            }
+            return decision;
+        }
+
+        String describe() {
+            synchronized (evaluationNanos) {
+                long count = evaluationNanos.getCount();
+                if (count == 0 && timeouts.sum() == 0) {
+                    return null;
+                }
+                return String.format("%s: %d evaluated, %d declined, %d failed, %d over the %.0f us budget, p50 %.1f us, p99 %.1f us, max %.1f us",
+                        rule.getName(), count, declines.sum(), failures.sum(), timeouts.sum(), budgetNanos / 1e3,
+                        evaluationNanos.getPercentile(50) / 1e3, evaluationNanos.getPercentile(99) / 1e3,
+                        evaluationNanos.getMax() / 1e3);
+            }
+        }
+    }
+}
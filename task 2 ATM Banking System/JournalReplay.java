@@ -0,0 +1,611 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Replays the transaction journal to recompute every account's balance from its initial balance, checks the balances
+ * against the ones the journal and the account store recorded, and can rebuild the account store from the journal.
+ * <p>
+ * The journal is memory-mapped and cut into segments of {@code atm.replay.segmentMB} megabytes (default 64), which are
+ * replayed in parallel on a fork-join pool of {@code atm.replay.threads} threads (default: number of processors), a
+ * few segments per thread ahead of the one being joined, so memory does not grow with the length of the journal. A
+ * segment finds its first record by looking for a length, layout and checksum that fit, and reads on past its end to
+ * the first record that starts in the next segment, so the segments join up; where one does not, because a record
+ * only looked valid, the segment is replayed again from where the previous one ended. Each segment sums up, for every
+ * account, how its records change the balance: either by a net amount or, from an initial balance on, outright. Joining
+ * the summaries in journal order gives each account's balance. Every record's balance is also checked against the
+ * recomputed one, and every back-pointer against the account's previous record; a segment whose records only fit
+ * together if its accounts opened with other balances than the earlier segments left them is replayed again with the
+ * right ones, so every record that differs is counted. Reading stops at the first record that is torn or corrupt, as
+ * opening the journal would.
+ * <p>
+ * Usage: {@code java JournalReplay [verify|rebuild] [directory]} (defaults {@code verify} and the working
+ * directory). {@code verify} compares the recomputed balances with the account store; it can run next to a running
+ * ATM, whose store may lag the journal by its write-behind delay. Accounts whose last record closed them are
+ * expected to be absent from the store. {@code rebuild} writes every account whose stored balance is wrong or
+ * missing back into the store, reopening lost or unreadable partitions empty, with the balance the journal gives it:
+ * the latest recorded one, which is what the ATM recovers on loading, or the recomputed one for histories converted
+ * without balances, and deletes the accounts that were closed. It takes the PIN credentials from the store or the
+ * snapshot, and must not run while an ATM or server has the accounts open. Either exits with status 1 if anything
+ * does not match.
+ */
+public class JournalReplay {
+    private static final String JOURNAL_FILE = "transactions.journal";
+    private static final long UNKNOWN = Transaction.UNKNOWN;
+    // Sequence, time, previous offset, amount and balance; type; account number length; detail flag.
+    private static final int MIN_BODY = 5 * Long.BYTES + 1 + Short.BYTES + 1;
+    private static final int TYPE = 5 * Long.BYTES;
+    private static final int NUMBER = TYPE + 1 + Short.BYTES;
+    private static final int MAX_LISTED = 20;
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final File directory;
+    private final File journalFile;
+    private final long segmentSize;
+    private final int threads;
+    private Map<String, Tally> accounts = Collections.emptyMap();
+    private long length;
+    private long end;
+    private long records;
+
+    /**
+     * Constructs a replay of the journal in a directory.
+     *
+     * @param directory The directory that holds the account files.
+     */
+    public JournalReplay(File directory) {
+        this.directory = directory;
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.segmentSize = Math.max(Long.getLong("atm.replay.segmentMB", 64), 2) << 20;
+        this.threads = Integer.getInteger("atm.replay.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Replays the whole journal and prints what it read and any records that do not add up.
+     *
+     * @return True if every account's records agree with its recomputed balances and back-pointers.
+     * @throws IOException If the journal cannot be read or is still in the text format.
+     */
+    public boolean replay() throws IOException {
+        if (!journalFile.exists()) {
+            System.out.println("There is no " + JOURNAL_FILE + " in " + directory);
+            return true;
+        }
+        if (TransactionConverter.isTextJournal(journalFile)) {
+            throw new IOException(JOURNAL_FILE + " is still in the text format; convert it with TransactionConverter first");
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ)) {
+            // A running ATM keeps appending; only what was there when the replay started is read.
+            length = channel.size();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                replaySegments(channel, pool);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Replayed %d records of %d accounts (%.1f MB) in %.2f s (%.0f MB/s, %d threads)%n",
+                records, accounts.size(), end / 1e6, seconds, end / 1e6 / seconds, threads);
+        if (end < length) {
+            System.out.println("The journal ends at offset " + end + ": the " + (length - end)
+                    + " bytes after it are torn or corrupt, and are cut off when the journal is next opened");
+        }
+        return reportJournal();
+    }
+
+    /**
+     * Replays the segments in parallel and joins their summaries in journal order as they finish. Only a few segments
+     * per thread are replayed ahead of the join, so memory does not grow with the length of the journal. A segment
+     * that does not start where the previous one ended, or whose records need its accounts' opening balances to be
+     * checked, is replayed again with them.
+     */
+    private void replaySegments(FileChannel channel, ForkJoinPool pool) throws IOException {
+        int segmentCount = (int) Math.max(0, (length - TransactionJournal.HEADER_SIZE + segmentSize - 1) / segmentSize);
+        Map<String, Tally> joined = new HashMap<>();
+        accounts = joined;
+        Function<String, Tally> opening = accountNumber -> {
+            Tally state = joined.get(accountNumber);
+            return state != null ? new Tally(true, state.known, state.balance, state.lastOffset) : first(accountNumber);
+        };
+        Deque<CompletableFuture<Segment>> ahead = new ArrayDeque<>();
+        int submitted = 0;
+        long expected = TransactionJournal.HEADER_SIZE;
+        end = expected;
+        for (int index = 0; index < segmentCount; index++) {
+            for (; submitted < segmentCount && submitted < index + 2 * threads; submitted++) {
+                int next = submitted;
+                Function<String, Tally> start = next == 0 ? JournalReplay::first : JournalReplay::relative;
+                ahead.add(CompletableFuture.supplyAsync(() -> scanQuietly(channel, next, -1, start), pool));
+            }
+            Segment segment;
+            try {
+                segment = ahead.removeFirst().join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) ex.getCause()).getCause();
+                }
+                throw ex;
+            }
+            if (segment.firstOffset != expected || needsOpenings(segment, joined)) {
+                segment = scan(channel, index, expected, opening);
+            }
+            for (Map.Entry<String, Tally> entry : segment.tallies.entrySet()) {
+                merge(joined.computeIfAbsent(entry.getKey(), JournalReplay::first), entry.getValue());
+            }
+            records += segment.records;
+            end = segment.endOffset;
+            if (segment.corruptAt >= 0) {
+                break;
+            }
+            expected = segment.endOffset;
+        }
+    }
+
+    /**
+     * Checks whether any record a segment could not check on its own, without its accounts' opening balances, fails
+     * to fit the balances the earlier segments left.
+     */
+    private static boolean needsOpenings(Segment segment, Map<String, Tally> joined) {
+        for (Map.Entry<String, Tally> entry : segment.tallies.entrySet()) {
+            Tally tally = entry.getValue();
+            Tally state = joined.get(entry.getKey());
+            if (state != null && state.known
+                    && (!tally.uniform || tally.requiredOpening != UNKNOWN && tally.requiredOpening != state.balance)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void merge(Tally state, Tally tally) {
+        if (tally.firstPrevious != UNKNOWN && tally.firstPrevious != state.lastOffset) {
+            state.brokenLinks++;
+        }
+        if (state.known) {
+            state.checked += tally.pending;
+        }
+        if (tally.absolute) {
+            state.known = tally.known;
+            state.balance = tally.balance;
+        } else {
+            state.balance += tally.balance;
+        }
+        if (state.firstMismatch == UNKNOWN && tally.firstMismatch != UNKNOWN) {
+            state.firstMismatch = tally.firstMismatch;
+            state.mismatchRecorded = tally.mismatchRecorded;
+            state.mismatchComputed = tally.mismatchComputed;
+        }
+        state.records += tally.records;
+        state.checked += tally.checked;
+        state.mismatches += tally.mismatches;
+        state.brokenLinks += tally.brokenLinks;
+        state.lastRecorded = tally.lastRecorded;
+        state.lastOffset = tally.lastOffset;
+        state.closed = tally.closed;
+    }
+
+    private Segment scanQuietly(FileChannel channel, int index, long start, Function<String, Tally> opening) {
+        try {
+            return scan(channel, index, start, opening);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Replays the records that start in one segment.
+     *
+     * @param index The segment number.
+     * @param start Where the segment's first record starts, or -1 to find it.
+     * @param opening How each account's summary starts.
+     */
+    private Segment scan(FileChannel channel, int index, long start, Function<String, Tally> opening) throws IOException {
+        long segmentStart = TransactionJournal.HEADER_SIZE + index * segmentSize;
+        long segmentEnd = Math.min(length, segmentStart + segmentSize);
+        long mapEnd = Math.min(length, segmentEnd + 2 * Integer.BYTES + TransactionJournal.MAX_RECORD);
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, mapEnd - segmentStart);
+        int limit = (int) (segmentEnd - segmentStart);
+        CRC32 crc = new CRC32();
+        int position = 0;
+        if (start >= 0) {
+            position = (int) (start - segmentStart);
+        } else if (index > 0) {
+            while (position < limit && recordSize(map, position, crc) < 0) {
+                position++;
+            }
+        }
+        Segment segment = new Segment(position < limit ? segmentStart + position : -1);
+        byte[] number = new byte[Short.BYTES + 0xffff];
+        while (position < limit) {
+            int size = recordSize(map, position, crc);
+            if (size < 0) {
+                segment.corruptAt = segmentStart + position;
+                break;
+            }
+            int body = position + Integer.BYTES;
+            int type = map.get(body + TYPE) & 0xff;
+            String accountNumber = accountNumber(map, body + TYPE + 1, number);
+            segment.tallies.computeIfAbsent(accountNumber, opening).add(segmentStart + position,
+                    map.getLong(body + 2 * Long.BYTES), type < TYPES.length ? TYPES[type] : TransactionType.OTHER,
+                    map.getLong(body + 3 * Long.BYTES), map.getLong(body + 4 * Long.BYTES), map.getLong(body));
+            segment.records++;
+            position += size;
+        }
+        segment.endOffset = segmentStart + position;
+        return segment;
+    }
+
+    /**
+     * Checks that a whole record starts at a position: its length, the layout of its body and its checksum.
+     *
+     * @return The size of the record, or -1 if no valid record starts there.
+     */
+    private static int recordSize(ByteBuffer map, int position, CRC32 crc) {
+        int available = map.limit() - position;
+        if (available < Integer.BYTES) {
+            return -1;
+        }
+        int bodyLength = map.getInt(position);
+        if (bodyLength < MIN_BODY || bodyLength > TransactionJournal.MAX_RECORD || bodyLength > available - 2 * Integer.BYTES) {
+            return -1;
+        }
+        int body = position + Integer.BYTES;
+        int flag = NUMBER + (map.getShort(body + TYPE + 1) & 0xffff);
+        if (flag >= bodyLength) {
+            return -1;
+        }
+        byte hasDetail = map.get(body + flag);
+        int expected;
+        if (hasDetail == 0) {
+            expected = flag + 1;
+        } else if (hasDetail == 1 && flag + 1 + Short.BYTES <= bodyLength) {
+            expected = flag + 1 + Short.BYTES + (map.getShort(body + flag + 1) & 0xffff);
+        } else {
+            return -1;
+        }
+        if (expected != bodyLength) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(map.slice(body, bodyLength));
+        if ((int) crc.getValue() != map.getInt(body + bodyLength)) {
+            return -1;
+        }
+        return bodyLength + 2 * Integer.BYTES;
+    }
+
+    /**
+     * Decodes an account number written with {@code writeUTF}, without a stream for the usual ASCII digits.
+     */
+    private static String accountNumber(ByteBuffer map, int position, byte[] scratch) {
+        int utfLength = map.getShort(position) & 0xffff;
+        map.get(position, scratch, 0, Short.BYTES + utfLength);
+        for (int i = Short.BYTES; i < Short.BYTES + utfLength; i++) {
+            if (scratch[i] <= 0) {
+                try {
+                    return new DataInputStream(new ByteArrayInputStream(scratch, 0, Short.BYTES + utfLength)).readUTF();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+        return new String(scratch, Short.BYTES, utfLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Prints the accounts whose records do not agree with their recomputed balances or back-pointers.
+     */
+    private boolean reportJournal() {
+        List<String> mismatched = new ArrayList<>();
+        List<String> unlinked = new ArrayList<>();
+        long unknown = 0;
+        long checked = 0;
+        long mismatches = 0;
+        for (Map.Entry<String, Tally> entry : accounts.entrySet()) {
+            Tally tally = entry.getValue();
+            checked += tally.checked;
+            mismatches += tally.mismatches;
+            if (tally.mismatches > 0) {
+                mismatched.add(entry.getKey());
+            }
+            if (tally.brokenLinks > 0) {
+                unlinked.add(entry.getKey());
+            }
+            if (!tally.known) {
+                unknown++;
+            }
+        }
+        System.out.println("Checked " + checked + " recorded balances: " + mismatches + " differ from the recomputed ones, in "
+                + mismatched.size() + " accounts");
+        list(mismatched, accountNumber -> {
+            Tally tally = accounts.get(accountNumber);
+            return accountNumber + ": " + tally.mismatches + " of " + tally.records + " records differ, first #" + tally.firstMismatch
+                    + " recorded " + Account.toMajorUnits(tally.mismatchRecorded) + ", recomputed " + Account.toMajorUnits(tally.mismatchComputed);
+        });
+        if (!unlinked.isEmpty()) {
+            System.out.println(unlinked.size() + " accounts have records that do not point back to their previous record");
+            list(unlinked, accountNumber -> accountNumber + ": " + accounts.get(accountNumber).brokenLinks + " broken links");
+        }
+        if (unknown > 0) {
+            System.out.println(unknown + " accounts cannot be recomputed: they have no initial balance, or a transaction of an unknown kind since");
+        }
+        return mismatched.isEmpty() && unlinked.isEmpty();
+    }
+
+    /**
+     * Compares the recomputed balances with the account store and prints the accounts that differ.
+     *
+     * @return True if every account in the journal is in the store with the balance the journal gives it.
+     */
+    public boolean verifyStore() {
+        String[] names = directory.list();
+        if (names == null || Arrays.stream(names).noneMatch(name -> name.matches("accounts(-\\d+\\.dat|\\.dat|\\.partitions)"))) {
+            System.out.println("There is no account store in " + directory);
+            return accounts.isEmpty();
+        }
+        List<AccountStore.Record> stored;
+        try (PartitionedAccountStore store = new PartitionedAccountStore(directory, false)) {
+            stored = store.readAll();
+        } catch (IOException ex) {
+            System.out.println("The account store cannot be read (" + ex.getMessage() + "); rebuild it with JournalReplay rebuild");
+            return false;
+        }
+        Map<String, AccountStore.Record> byNumber = byNumber(stored);
+        List<String> wrong = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        List<String> closed = new ArrayList<>();
+        long withoutHistory = 0;
+        for (AccountStore.Record record : stored) {
+            Tally tally = accounts.get(record.accountNumber);
+            if (tally == null) {
+                withoutHistory++;
+            } else if (tally.closed) {
+                closed.add(record.accountNumber);
+            } else if (tally.restoredBalance() != UNKNOWN && tally.restoredBalance() != record.balanceMinor) {
+                wrong.add(record.accountNumber);
+            }
+        }
+        for (Map.Entry<String, Tally> entry : accounts.entrySet()) {
+            if (!entry.getValue().closed && !byNumber.containsKey(entry.getKey())) {
+                missing.add(entry.getKey());
+            }
+        }
+        System.out.println("Compared " + stored.size() + " accounts in the store: " + wrong.size() + " have a different balance, "
+                + missing.size() + " accounts in the journal are missing, " + closed.size() + " were closed but are still stored, "
+                + withoutHistory + " have no history in the journal");
+        list(wrong, accountNumber -> accountNumber + ": store " + Account.toMajorUnits(byNumber.get(accountNumber).balanceMinor)
+                + ", journal " + Account.toMajorUnits(accounts.get(accountNumber).restoredBalance()));
+        list(missing, accountNumber -> accountNumber + ": missing");
+        list(closed, accountNumber -> accountNumber + ": closed");
+        return wrong.isEmpty() && missing.isEmpty() && closed.isEmpty();
+    }
+
+    /**
+     * Writes every account whose stored balance is wrong or missing back into the store, with the balance the journal
+     * gives it, and deletes the accounts the journal shows as closed. Partitions that are lost or unreadable are
+     * reopened empty and refilled.
+     *
+     * @return True if every account in the journal is now in the store.
+     * @throws IOException If the store cannot be opened or written, or the snapshot cannot be read.
+     */
+    public boolean rebuildStore() throws IOException {
+        Map<String, AccountStore.Record> credentials = byNumber(AccountService.readSnapshot(directory));
+        try (PartitionedAccountStore store = new PartitionedAccountStore(directory, true)) {
+            Map<String, AccountStore.Record> stored = byNumber(store.readAll());
+            // The store's PIN credentials are newer than the snapshot's.
+            credentials.putAll(stored);
+            List<AccountStore.Record> rebuilt = new ArrayList<>();
+            List<String> unrecoverable = new ArrayList<>();
+            int deleted = 0;
+            for (Map.Entry<String, Tally> entry : accounts.entrySet()) {
+                if (entry.getValue().closed) {
+                    if (store.delete(entry.getKey())) {
+                        deleted++;
+                    }
+                    continue;
+                }
+                long balanceMinor = entry.getValue().restoredBalance();
+                AccountStore.Record current = stored.get(entry.getKey());
+                if (balanceMinor == UNKNOWN || current != null && current.balanceMinor == balanceMinor) {
+                    continue;
+                }
+                AccountStore.Record credential = credentials.get(entry.getKey());
+                if (credential == null) {
+                    unrecoverable.add(entry.getKey());
+                } else {
+                    rebuilt.add(new AccountStore.Record(entry.getKey(), credential.credential, balanceMinor, credential.accountClass));
+                }
+            }
+            store.writeAll(rebuilt);
+            System.out.println("Rebuilt " + rebuilt.size() + " accounts in the store and deleted " + deleted + " closed ones; "
+                    + unrecoverable.size() + " cannot be rebuilt because neither the store nor the snapshot has their PIN");
+            list(unrecoverable, accountNumber -> accountNumber + ": no PIN credential");
+            return unrecoverable.isEmpty();
+        }
+    }
+
+    private static Map<String, AccountStore.Record> byNumber(List<AccountStore.Record> records) {
+        Map<String, AccountStore.Record> byNumber = new HashMap<>();
+        for (AccountStore.Record record : records) {
+            byNumber.put(record.accountNumber, record);
+        }
+        return byNumber;
+    }
+
+    private static void list(List<String> accountNumbers, Function<String, String> describe) {
+        Collections.sort(accountNumbers);
+        for (String accountNumber : accountNumbers.subList(0, Math.min(MAX_LISTED, accountNumbers.size()))) {
+            System.out.println("  " + describe.apply(accountNumber));
+        }
+        if (accountNumbers.size() > MAX_LISTED) {
+            System.out.println("  ... and " + (accountNumbers.size() - MAX_LISTED) + " more");
+        }
+    }
+
+    /**
+     * Starts an account's summary at the start of the journal, before any of its records.
+     */
+    private static Tally first(String accountNumber) {
+        return new Tally(true, false, 0, -1);
+    }
+
+    /**
+     * Starts an account's summary in a segment whose opening balances are not known yet.
+     */
+    private static Tally relative(String accountNumber) {
+        return new Tally(false, true, 0, UNKNOWN);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String mode = args.length > 0 ? args[0] : "verify";
+        if (!mode.equals("verify") && !mode.equals("rebuild")) {
+            System.err.println("Usage: java JournalReplay [verify|rebuild] [directory]");
+            System.exit(2);
+        }
+        JournalReplay replay = new JournalReplay(new File(args.length > 1 ? args[1] : "."));
+        boolean consistent = replay.replay();
+        consistent &= mode.equals("rebuild") ? replay.rebuildStore() : replay.verifyStore();
+        if (!consistent) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The records of one segment, summed up per account.
+     */
+    private static final class Segment {
+        final long firstOffset;
+        final Map<String, Tally> tallies = new HashMap<>();
+        long endOffset;
+        long corruptAt = -1;
+        long records;
+
+        Segment(long firstOffset) {
+            this.firstOffset = firstOffset;
+        }
+    }
+
+    /**
+     * One account's records in a segment, or in the journal so far once segments are joined: how they change its
+     * balance, and how many of them do not fit.
+     */
+    private static final class Tally {
+        // Whether the balance no longer depends on the opening balance, because it was given or an initial balance was seen.
+        boolean absolute;
+        // False after a transaction whose effect on the balance is unknown, or before any initial balance.
+        boolean known;
+        // The balance, or while not absolute, the change since the opening balance.
+        long balance;
+        // While not absolute, the opening balance the records with a balance call for, and whether they all agree on it.
+        long requiredOpening = UNKNOWN;
+        boolean uniform = true;
+        long pending;
+        long records;
+        long checked;
+        long mismatches;
+        long firstMismatch = UNKNOWN;
+        long mismatchRecorded;
+        long mismatchComputed;
+        long lastRecorded = UNKNOWN;
+        long lastOffset;
+        // The back-pointer of the first record, when the offset of the one before it is not known yet.
+        long firstPrevious = UNKNOWN;
+        long brokenLinks;
+        // Whether the account's latest record closed it.
+        boolean closed;
+
+        Tally(boolean absolute, boolean known, long balance, long lastOffset) {
+            this.absolute = absolute;
+            this.known = known;
+            this.balance = balance;
+            this.lastOffset = lastOffset;
+        }
+
+        void add(long offset, long previousOffset, TransactionType type, long amountMinor, long recordedMinor, long sequence) {
+            records++;
+            if (lastOffset == UNKNOWN) {
+                firstPrevious = previousOffset;
+            } else if (previousOffset != lastOffset) {
+                brokenLinks++;
+            }
+            // The record after a closing one starts a new chain, as for a new account.
+            lastOffset = type == TransactionType.CLOSED ? -1 : offset;
+            closed = type == TransactionType.CLOSED;
+            switch (type) {
+                case INITIAL_BALANCE:
+                    absolute = true;
+                    known = true;
+                    balance = amountMinor;
+                    break;
+                case DEPOSIT:
+                case TRANSFER_IN:
+                    balance += amountMinor;
+                    break;
+                case WITHDRAWAL:
+                case TRANSFER_OUT:
+                case CLOSED:
+                    balance -= amountMinor;
+                    break;
+                default:
+                    absolute = true;
+                    known = false;
+                    break;
+            }
+            if (recordedMinor != UNKNOWN) {
+                if (!absolute) {
+                    long opening = recordedMinor - balance;
+                    if (requiredOpening == UNKNOWN) {
+                        requiredOpening = opening;
+                    } else if (opening != requiredOpening) {
+                        uniform = false;
+                    }
+                    pending++;
+                } else if (known) {
+                    checked++;
+                    if (balance != recordedMinor) {
+                        mismatches++;
+                        if (firstMismatch == UNKNOWN) {
+                            firstMismatch = sequence;
+                            mismatchRecorded = recordedMinor;
+                            mismatchComputed = balance;
+                        }
+                    }
+                }
+            }
+            lastRecorded = recordedMinor;
+        }
+
+        /**
+         * Returns the balance the ATM recovers the account with: the latest recorded one, or the recomputed one if the
+         * latest record has none.
+         */
+        long restoredBalance() {
+            if (lastRecorded != UNKNOWN) {
+                return lastRecorded;
+            }
+            return known ? balance : UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.List;
+
+/**
+ * A session that works directly on the accounts held by an {@link ATM} in this process.
+ */
+public class LocalAtmSession implements AtmSession {
+    private final ATM atm;
+    private Account currentAccount;
+
+    /**
+     * Constructs a session on an ATM.
+     *
+     * @param atm The ATM holding the accounts.
+     */
+    public LocalAtmSession(ATM atm) {
+        this.atm = atm;
+    }
+
+    @Override
+    public boolean login(String accountNumber, String pin) {
+        currentAccount = atm.login(accountNumber, pin);
+        return currentAccount != null;
+    }
+
+    @Override
+    public boolean isLoggedIn() {
+        return currentAccount != null;
+    }
+
+    @Override
+    public double getBalance() {
+        return account().getBalance();
+    }
+
+    @Override
+    public void deposit(double amount) {
+        account().deposit(amount);
+    }
+
+    @Override
+    public boolean withdraw(double amount) {
+        return atm.withdraw(account(), amount);
+    }
+
+    @Override
+    public boolean transfer(String toAccountNumber, double amount) {
+        return atm.transfer(account(), toAccountNumber, amount);
+    }
+
+    @Override
+    public List<String> getRecentTransactions(int count) {
+        return account().getRecentTransactions(count);
+    }
+
+    @Override
+    public boolean changePin(String oldPin, String newPin) {
+        return atm.changePin(account(), oldPin, newPin);
+    }
+
+    @Override
+    public void logout() {
+        currentAccount = null;
+    }
+
+    @Override
+    public void close() {
+        atm.close();
+        for (String line : atm.getFraudScreen().report()) {
+            System.out.println("Fraud rule " + line);
+        }
+    }
+
+    private Account account() {
+        if (currentAccount == null) {
+            throw new IllegalStateException("No account is logged in");
+        }
+        return currentAccount;
+    }
+}
@@ -0,0 +1,182 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts and times one kind of ATM operation or persistence I/O, and emits a JDK Flight Recorder event for each.
+ * The latencies go into a histogram striped by thread, so threads rarely share a stripe's lock, and the counters are
+ * {@link LongAdder}s; the stripes are only merged when the statistics are read. Every kind is registered with the
+ * platform MBean server when it is first used, so they can be watched with any JMX console.
+ * <p>
+ * An operation is timed with {@link #begin} and {@link #end}, a persistence I/O with {@link #beginIo} and
+ * {@link #endIo}. When no flight recording is running, an event costs little more than the two clock reads.
+ */
+public class OperationStats implements OperationStatsMXBean {
+    private static final Map<String, OperationStats> BY_NAME = new ConcurrentHashMap<>();
+    // A power of two of at least twice the number of processors.
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2;
+
+    private final String name;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[STRIPES];
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private OperationStats(String name) {
+        this.name = name;
+        for (int i = 0; i < STRIPES; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the statistics of a kind of operation, registering them over JMX the first time.
+     *
+     * @param name The operation's name, such as {@code login} or {@code journal.write}.
+     * @return The statistics.
+     */
+    public static OperationStats forOperation(String name) {
+        OperationStats stats = BY_NAME.get(name);
+        if (stats == null) {
+            stats = new OperationStats(name);
+            OperationStats existing = BY_NAME.putIfAbsent(name, stats);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName("atm:type=Operation,name=" + name));
+            } catch (JMException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Starts timing an operation on an account.
+     *
+     * @param accountNumber The account number.
+     * @param amountMinor The amount in paise, or 0 if the operation has none.
+     * @return The operation's event, to pass to {@link #end}.
+     */
+    public AtmOperationEvent begin(String accountNumber, long amountMinor) {
+        AtmOperationEvent event = new AtmOperationEvent();
+        event.operation = name;
+        event.accountNumber = accountNumber;
+        event.amount = amountMinor;
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Finishes timing an operation.
+     *
+     * @param event The event returned by {@link #begin}.
+     * @param success Whether the operation succeeded.
+     */
+    public void end(AtmOperationEvent event, boolean success) {
+        record(System.nanoTime() - event.startNanos, success);
+        if (event.shouldCommit()) {
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a persistence I/O.
+     *
+     * @param file The name of the file it reads or writes.
+     * @return The I/O's event, to pass to {@link #endIo}.
+     */
+    public AtmIoEvent beginIo(String file) {
+        AtmIoEvent event = new AtmIoEvent();
+        event.operation = name;
+        event.file = file;
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Finishes timing a persistence I/O.
+     *
+     * @param event The event returned by {@link #beginIo}.
+     * @param records The number of records read or written.
+     * @param bytes The number of bytes read or written, or 0 if not known.
+     * @param success Whether the I/O succeeded.
+     */
+    public void endIo(AtmIoEvent event, long records, long bytes, boolean success) {
+        record(System.nanoTime() - event.startNanos, success);
+        if (event.shouldCommit()) {
+            event.records = records;
+            event.bytes = bytes;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    private void record(long nanos, boolean success) {
+        (success ? successes : failures).increment();
+        LatencyHistogram stripe = latencies[System.identityHashCode(Thread.currentThread()) & (STRIPES - 1)];
+        synchronized (stripe) {
+            stripe.record(nanos);
+        }
+    }
+
+    /**
+     * Merges the stripes into one histogram.
+     */
+    private LatencyHistogram merged() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram stripe : latencies) {
+            synchronized (stripe) {
+                merged.merge(stripe);
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public double getP50Micros() {
+        return merged().getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return merged().getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return merged().getPercentile(99.9) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return merged().getMax() / 1e3;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram stripe : latencies) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        successes.reset();
+        failures.reset();
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * The statistics of one kind of ATM operation or persistence I/O, as exported over JMX under
+ * {@code atm:type=Operation,name=<operation>}. They cover everything since startup or the last reset.
+ */
+public interface OperationStatsMXBean {
+    /**
+     * Returns the number of operations that succeeded.
+     *
+     * @return The count.
+     */
+    long getSuccesses();
+
+    /**
+     * Returns the number of operations that failed or were refused.
+     *
+     * @return The count.
+     */
+    long getFailures();
+
+    /**
+     * Returns the median latency.
+     *
+     * @return The latency in microseconds.
+     */
+    double getP50Micros();
+
+    /**
+     * Returns the 99th percentile latency.
+     *
+     * @return The latency in microseconds.
+     */
+    double getP99Micros();
+
+    /**
+     * Returns the 99.9th percentile latency.
+     *
+     * @return The latency in microseconds.
+     */
+    double getP999Micros();
+
+    /**
+     * Returns the largest latency.
+     *
+     * @return The latency in microseconds.
+     */
+    double getMaxMicros();
+
+    /**
+     * Clears the counters and latencies.
+     */
+    void reset();
+}
@@ -0,0 +1,338 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The account store split into partitions, each an {@link AccountStore} file of its own, {@code accounts-<n>.dat}.
+ * An account lives in the partition chosen by the hash of its account number. Partitions are opened and read in
+ * parallel, so startup gets faster with more cores, and a batch of changed accounts is written partition by partition,
+ * in parallel, so partitions without changes are not touched or flushed at all.
+ * <p>
+ * The number of partitions is fixed when the store is created, from the {@code atm.store.partitions} system property
+ * (default 16), and recorded in {@code accounts.partitions}, so a lost partition file, even the last one, is noticed
+ * and never changes which partition an account belongs to. A store created before the count was recorded takes it
+ * from the partition files that exist and records it. A store in the older single {@code accounts.dat} file is copied
+ * into partitions the first time it is opened and then renamed to {@code accounts.dat.imported}.
+ */
+public class PartitionedAccountStore implements Closeable {
+    private static final String LEGACY_FILE = "accounts.dat";
+    private static final String COUNT_FILE = "accounts.partitions";
+    private static final Pattern PARTITION_FILE = Pattern.compile("accounts-(\\d+)\\.dat");
+
+    private final File directory;
+    private final AccountStore[] partitions;
+    private final boolean[] lost;
+
+    /**
+     * Opens (or creates) the partitions of an account store.
+     *
+     * @param directory The directory that holds the partition files.
+     * @param rebuildable Whether partitions that are missing or cannot be read can be rebuilt, for example from a
+     *                    snapshot. If so they are moved aside and reopened empty; otherwise opening fails.
+     * @throws IOException If a partition cannot be opened.
+     */
+    public PartitionedAccountStore(File directory, boolean rebuildable) throws IOException {
+        this.directory = directory;
+        int recorded = readPartitionCount();
+        int existing = recorded > 0 ? recorded : countPartitionFiles(directory);
+        int count = existing > 0 ? existing : Integer.getInteger("atm.store.partitions", 16);
+        this.partitions = new AccountStore[count];
+        this.lost = new boolean[count];
+        try {
+            IntStream.range(0, count).parallel().forEach(partition -> {
+                try {
+                    partitions[partition] = open(partition, existing > 0, rebuildable);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            closePartitions();
+            throw ex.getCause();
+        }
+        if (recorded != count) {
+            writePartitionCount();
+        }
+        importLegacyStore(rebuildable);
+    }
+
+    /**
+     * Returns the number of partitions.
+     *
+     * @return The partition count.
+     */
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * Returns the partition an account belongs to.
+     *
+     * @param accountNumber The account number.
+     * @return The partition number.
+     */
+    public int partitionOf(String accountNumber) {
+        // String.hashCode is specified, so accounts stay in their partitions across JVMs.
+        return Math.floorMod(accountNumber.hashCode(), partitions.length);
+    }
+
+    /**
+     * Checks whether the store holds no accounts.
+     *
+     * @return True if no partition has an account record.
+     */
+    public boolean isEmpty() {
+        for (AccountStore partition : partitions) {
+            if (!partition.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether any partition was missing or unreadable when the store was opened and was reopened empty.
+     *
+     * @return True if some accounts have to be rebuilt.
+     */
+    public boolean hasLostPartitions() {
+        for (boolean partitionLost : lost) {
+            if (partitionLost) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether an account belongs to a partition that was lost and has to be rebuilt.
+     *
+     * @param accountNumber The account number.
+     * @return True if the account's partition was reopened empty.
+     */
+    public boolean isLost(String accountNumber) {
+        return lost[partitionOf(accountNumber)];
+    }
+
+    /**
+     * Checks whether the store holds an account.
+     *
+     * @param accountNumber The account number.
+     * @return True if the account has a record.
+     */
+    public boolean contains(String accountNumber) {
+        return partitions[partitionOf(accountNumber)].contains(accountNumber);
+    }
+
+    /**
+     * Reads every account record, reading the partitions in parallel.
+     *
+     * @return The records, partition by partition.
+     */
+    public List<AccountStore.Record> readAll() {
+        List<List<AccountStore.Record>> read = IntStream.range(0, partitions.length).parallel()
+                .mapToObj(partition -> partitions[partition].readAll())
+                .collect(Collectors.toList());
+        List<AccountStore.Record> records = new ArrayList<>();
+        for (List<AccountStore.Record> partition : read) {
+            records.addAll(partition);
+        }
+        return records;
+    }
+
+    /**
+     * Writes an account's record in its partition and flushes it to disk.
+     *
+     * @param accountNumber The account number.
+     * @param credential The encoded PIN credential.
+     * @param balanceMinor The balance in paise.
+     * @param accountClass The account class.
+     * @throws IOException If the partition has to grow and cannot.
+     */
+    public void write(String accountNumber, String credential, long balanceMinor, int accountClass) throws IOException {
+        partitions[partitionOf(accountNumber)].write(accountNumber, credential, balanceMinor, accountClass);
+    }
+
+    /**
+     * Writes several accounts' records. They are grouped by partition, and the partitions that have any are written
+     * and flushed in parallel, each with one force; the other partitions are left alone.
+     *
+     * @param records The records to write.
+     * @throws IOException If a partition has to grow and cannot.
+     */
+    public void writeAll(List<AccountStore.Record> records) throws IOException {
+        List<List<AccountStore.Record>> byPartition = new ArrayList<>(partitions.length);
+        for (int i = 0; i < partitions.length; i++) {
+            byPartition.add(null);
+        }
+        for (AccountStore.Record record : records) {
+            int partition = partitionOf(record.accountNumber);
+            if (byPartition.get(partition) == null) {
+                byPartition.set(partition, new ArrayList<>());
+            }
+            byPartition.get(partition).add(record);
+        }
+        try {
+            IntStream.range(0, partitions.length).filter(partition -> byPartition.get(partition) != null).parallel()
+                    .forEach(partition -> {
+                        try {
+                            partitions[partition].writeAll(byPartition.get(partition));
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Deletes an account's record.
+     *
+     * @param accountNumber The account number.
+     * @return True if the account had a record.
+     */
+    public boolean delete(String accountNumber) {
+        return partitions[partitionOf(accountNumber)].delete(accountNumber);
+    }
+
+    /**
+     * Flushes and closes every partition.
+     */
+    @Override
+    public void close() throws IOException {
+        closePartitions();
+    }
+
+    private AccountStore open(int partition, boolean othersExist, boolean rebuildable) throws IOException {
+        File file = partitionFile(partition);
+        if (othersExist && !file.exists()) {
+            if (!rebuildable) {
+                throw new IOException("Partition " + file.getName() + " of the account store is missing");
+            }
+            System.out.println(file.getName() + " is missing; rebuilding it");
+            lost[partition] = true;
+            return new AccountStore(file);
+        }
+        try {
+            return new AccountStore(file);
+        } catch (IOException ex) {
+            if (!rebuildable) {
+                throw ex;
+            }
+            ex.printStackTrace();
+            File corrupt = new File(directory, file.getName() + ".corrupt");
+            Files.move(file.toPath(), corrupt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println(file.getName() + " cannot be read and was moved to " + corrupt.getName() + "; rebuilding it");
+            lost[partition] = true;
+            return new AccountStore(file);
+        }
+    }
+
+    /**
+     * Copies the records of a store in the older single-file format into the partitions and renames the old file once
+     * they are on disk, so an import cut short by a crash is simply done again. A single file that cannot be read
+     * leaves the store empty if it can be rebuilt.
+     */
+    private void importLegacyStore(boolean rebuildable) throws IOException {
+        File legacy = new File(directory, LEGACY_FILE);
+        if (!legacy.exists()) {
+            return;
+        }
+        List<AccountStore.Record> records;
+        try (AccountStore store = new AccountStore(legacy)) {
+            records = store.readAll();
+        } catch (IOException ex) {
+            if (!rebuildable) {
+                throw ex;
+            }
+            ex.printStackTrace();
+            System.out.println(LEGACY_FILE + " cannot be read; rebuilding the account store");
+            return;
+        }
+        writeAll(records);
+        Files.move(legacy.toPath(), new File(directory, LEGACY_FILE + ".imported").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Copied " + records.size() + " accounts from " + LEGACY_FILE + " into " + partitions.length + " partitions");
+    }
+
+    private void closePartitions() throws IOException {
+        IOException failure = null;
+        for (AccountStore partition : partitions) {
+            if (partition == null) {
+                continue;
+            }
+            try {
+                partition.close();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Reads the number of partitions recorded when the store was created.
+     *
+     * @return The count, or 0 if none was recorded.
+     */
+    private int readPartitionCount() throws IOException {
+        File file = new File(directory, COUNT_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        try {
+            return Integer.parseInt(content);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Cannot read the partition count in " + file + ": " + content);
+        }
+    }
+
+    /**
+     * Records the number of partitions, writing it to a temporary file that is forced to disk and renamed into place.
+     */
+    private void writePartitionCount() throws IOException {
+        File file = new File(directory, COUNT_FILE);
+        File tmp = new File(directory, COUNT_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write((partitions.length + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File partitionFile(int partition) {
+        return new File(directory, "accounts-" + partition + ".dat");
+    }
+
+    /**
+     * Returns one more than the highest partition number among the partition files in a directory, or 0 if there are
+     * none.
+     */
+    private static int countPartitionFiles(File directory) {
+        String[] names = directory.list();
+        int count = 0;
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = PARTITION_FILE.matcher(name);
+                if (matcher.matches()) {
+                    count = Math.max(count, Integer.parseInt(matcher.group(1)) + 1);
+                }
+            }
+        }
+        return count;
+    }
+}
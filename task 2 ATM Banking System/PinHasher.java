@@ -0,0 +1,101 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Hashes and checks PINs with PBKDF2-HMAC-SHA256 and a random salt per PIN.
+ * A stored credential has the form {@code pbkdf2$<iterations>$<salt>$<hash>} with Base64 salt and hash, so the cost
+ * can be raised later without invalidating existing PINs. The cost of new hashes is set with the
+ * {@code atm.pin.iterations} system property.
+ * <p>
+ * Credentials without the {@code pbkdf2$} prefix are the old format, the PIN itself in Base64. They are still
+ * accepted so that such accounts can log in and have their PIN rehashed.
+ */
+public final class PinHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int DEFAULT_ITERATIONS = 310_000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PinHasher() {
+    }
+
+    /**
+     * Returns the number of PBKDF2 iterations used for new hashes.
+     *
+     * @return The iteration count.
+     */
+    public static int getIterations() {
+        return Integer.getInteger("atm.pin.iterations", DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Hashes a PIN with a new random salt at the current cost.
+     *
+     * @param pin The PIN to hash.
+     * @return The encoded credential.
+     */
+    public static String hash(String pin) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        int iterations = getIterations();
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(derive(pin, salt, iterations));
+    }
+
+    /**
+     * Checks a PIN against a stored credential. The comparison takes the same time wherever the first difference is.
+     *
+     * @param credential The stored credential, hashed or in the old Base64 format.
+     * @param pin The PIN to check.
+     * @return True if the PIN matches.
+     */
+    public static boolean verify(String credential, String pin) {
+        if (isLegacy(credential)) {
+            return MessageDigest.isEqual(Base64.getDecoder().decode(credential), pin.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = credential.split("\\$");
+        int iterations = Integer.parseInt(parts[1]);
+        byte[] salt = Base64.getDecoder().decode(parts[2]);
+        byte[] expected = Base64.getDecoder().decode(parts[3]);
+        return MessageDigest.isEqual(expected, derive(pin, salt, iterations));
+    }
+
+    /**
+     * Checks whether a credential should be replaced by a fresh hash: it is in the old Base64 format,
+     * or it was hashed with fewer iterations than are configured now.
+     *
+     * @param credential The stored credential.
+     * @return True if the credential should be rehashed after the next successful login.
+     */
+    public static boolean needsRehash(String credential) {
+        return isLegacy(credential) || Integer.parseInt(credential.split("\\$")[1]) < getIterations();
+    }
+
+    /**
+     * Checks whether a credential is in the old Base64 format.
+     *
+     * @param credential The stored credential.
+     * @return True if the credential holds the Base64-encoded PIN rather than a hash.
+     */
+    public static boolean isLegacy(String credential) {
+        return !credential.startsWith(PREFIX);
+    }
+
+    private static byte[] derive(String pin, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ALGORITHM + " is not available", ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies PINs asynchronously on a bounded pool of worker threads, so the slow key derivation of {@link PinHasher}
+ * never runs on a terminal's UI thread and a burst of logins cannot use more than the pool's threads.
+ * <p>
+ * Each account has a lock-free attempt counter. An attempt is counted before the PIN is checked, so concurrent
+ * guesses cannot get past the limit; once an account reaches the limit it is locked for a while, and a correct PIN
+ * resets the count. A successful check is remembered for a short time as a keyed MAC of the PIN, so a repeat login
+ * with the same PIN skips the key derivation. After a successful login, a PIN stored in the old Base64 format or
+ * hashed at a lower cost is rehashed.
+ * <p>
+ * Tuned with system properties: {@code atm.pin.threads} (default: number of processors), {@code atm.pin.queue}
+ * (pending verifications, default 1024), {@code atm.pin.maxAttempts} (default 3), {@code atm.pin.lockoutSeconds}
+ * (default 30) and {@code atm.pin.cacheSeconds} (default 300, 0 disables the cache).
+ */
+public class PinVerifier implements AutoCloseable {
+    private static final int COUNT_BITS = 16;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final ThreadPoolExecutor pool;
+    private final int maxAttempts;
+    private final long lockoutMillis;
+    private final long cacheMillis;
+    private final byte[] cacheKey = new byte[32];
+    // Per account: the time the lockout ends (in the high bits) and the number of counted attempts (in the low bits).
+    private final Map<String, AtomicLong> attempts = new ConcurrentHashMap<>();
+    private final Map<String, CachedPin> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a verifier configured from system properties.
+     */
+    public PinVerifier() {
+        int threads = Integer.getInteger("atm.pin.threads", Runtime.getRuntime().availableProcessors());
+        int queue = Integer.getInteger("atm.pin.queue", 1024);
+        this.maxAttempts = Integer.getInteger("atm.pin.maxAttempts", 3);
+        this.lockoutMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger("atm.pin.lockoutSeconds", 30));
+        this.cacheMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger("atm.pin.cacheSeconds", 300));
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue), task -> {
+            Thread thread = new Thread(task, "pin-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        new SecureRandom().nextBytes(cacheKey);
+    }
+
+    /**
+     * Checks a PIN for an account on the worker pool.
+     *
+     * @param account The account.
+     * @param pin The PIN entered.
+     * @return A future that completes with true if the PIN is correct, or false if it is wrong or the account is
+     *         locked. It completes exceptionally with a {@link RejectedExecutionException} if the pool is saturated.
+     */
+    public CompletableFuture<Boolean> verify(Account account, String pin) {
+        AtomicLong state = attempts.get(account.getAccountNumber());
+        if (state == null) {
+            state = attempts.computeIfAbsent(account.getAccountNumber(), k -> new AtomicLong());
+        }
+        if (!reserveAttempt(state)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (isCached(account, pin)) {
+            state.set(0);
+            return CompletableFuture.completedFuture(true);
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicLong attemptState = state;
+        try {
+            pool.execute(() -> {
+                try {
+                    result.complete(check(account, pin, attemptState));
+                } catch (RuntimeException ex) {
+                    result.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            releaseAttempt(state);
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether an account is currently locked after too many wrong PINs.
+     *
+     * @param accountNumber The account number.
+     * @return True if login attempts for the account are being refused.
+     */
+    public boolean isLocked(String accountNumber) {
+        AtomicLong state = attempts.get(accountNumber);
+        return state != null && (state.get() >>> COUNT_BITS) > System.currentTimeMillis();
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private boolean check(Account account, String pin, AtomicLong state) {
+        String credential = account.getCredential();
+        if (!PinHasher.verify(credential, pin)) {
+            return false;
+        }
+        state.set(0);
+        if (PinHasher.needsRehash(credential)) {
+            account.setPin(pin);
+        }
+        if (cacheMillis > 0) {
+            cache.put(account.getAccountNumber(), new CachedPin(account.getCredential(), mac(pin), System.currentTimeMillis() + cacheMillis));
+        }
+        return true;
+    }
+
+    private boolean isCached(Account account, String pin) {
+        CachedPin cached = cache.get(account.getAccountNumber());
+        return cached != null
+                && cached.expires > System.currentTimeMillis()
+                && cached.credential.equals(account.getCredential())
+                && MessageDigest.isEqual(cached.mac, mac(pin));
+    }
+
+    /**
+     * Counts an attempt unless the account is locked. The attempt that reaches the limit locks the account
+     * straight away, and a correct PIN on that attempt unlocks it again.
+     */
+    private boolean reserveAttempt(AtomicLong state) {
+        while (true) {
+            long current = state.get();
+            long lockedUntil = current >>> COUNT_BITS;
+            long now = System.currentTimeMillis();
+            if (lockedUntil > now) {
+                return false;
+            }
+            // An expired lockout starts a new count.
+            long count = lockedUntil != 0 ? 1 : (current & COUNT_MASK) + 1;
+            long next = ((count >= maxAttempts ? now + lockoutMillis : 0) << COUNT_BITS) | Math.min(count, COUNT_MASK);
+            if (state.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes back an attempt that was counted but never checked.
+     */
+    private void releaseAttempt(AtomicLong state) {
+        while (true) {
+            long current = state.get();
+            long count = Math.max(0, (current & COUNT_MASK) - 1);
+            long lockedUntil = count >= maxAttempts ? current >>> COUNT_BITS : 0;
+            if (state.compareAndSet(current, (lockedUntil << COUNT_BITS) | count)) {
+                return;
+            }
+        }
+    }
+
+    private byte[] mac(String pin) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+            return mac.doFinal(pin.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HmacSHA256 is not available", ex);
+        }
+    }
+
+    private static final class CachedPin {
+        final String credential;
+        final byte[] mac;
+        final long expires;
+
+        CachedPin(String credential, byte[] mac, long expires) {
+            this.credential = credential;
+            this.mac = mac;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fixed-capacity ring of an account's most recent transactions, kept in memory for mini statements.
+ * All storage is allocated up front as parallel arrays, so adding a transaction only overwrites the oldest slot
+ * and allocates nothing; memory per account stays the same however long the history grows.
+ */
+public class RecentTransactions {
+    private final TransactionType[] types;
+    private final long[] amounts;
+    private final String[] details;
+    private int next;
+    private int size;
+
+    /**
+     * Constructs an empty ring.
+     *
+     * @param capacity The number of transactions kept.
+     */
+    public RecentTransactions(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        types = new TransactionType[capacity];
+        amounts = new long[capacity];
+        details = new String[capacity];
+    }
+
+    /**
+     * Returns the number of transactions the ring keeps.
+     *
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return types.length;
+    }
+
+    /**
+     * Adds a transaction, replacing the oldest one if the ring is full.
+     *
+     * @param type The transaction type.
+     * @param amountMinor The amount in paise.
+     * @param detail The counterparty for transfers, the description for {@link TransactionType#OTHER}, else null.
+     */
+    public synchronized void add(TransactionType type, long amountMinor, String detail) {
+        types[next] = type;
+        amounts[next] = amountMinor;
+        details[next] = detail;
+        next = (next + 1) % types.length;
+        if (size < types.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Removes every transaction.
+     */
+    public synchronized void clear() {
+        Arrays.fill(details, null);
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of transactions held.
+     *
+     * @return The count, at most the capacity.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Describes the most recent transactions, in the same form as the journal.
+     *
+     * @param count The maximum number of transactions to describe.
+     * @return Up to {@code count} descriptions, oldest first.
+     */
+    public synchronized List<String> describe(int count) {
+        int n = Math.min(count, size);
+        List<String> descriptions = new ArrayList<>(n);
+        for (int i = n; i > 0; i--) {
+            int slot = Math.floorMod(next - i, types.length);
+            descriptions.add(types[slot].describe(amounts[slot], details[slot]));
+        }
+        return descriptions;
+    }
+}
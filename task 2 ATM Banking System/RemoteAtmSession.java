@@ -0,0 +1,208 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A session with an {@link AtmServer}. Every operation is one request and one response over a single connection,
+ * so the server's accounts are the only copy and any number of terminals can use them at once.
+ */
+public class RemoteAtmSession implements AtmSession {
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private boolean loggedIn;
+
+    /**
+     * Connects to an ATM server.
+     *
+     * @param address The server's TCP or Unix-domain socket address.
+     * @throws UncheckedIOException If the server cannot be reached.
+     */
+    public RemoteAtmSession(SocketAddress address) {
+        try {
+            channel = SocketChannel.open(address);
+            if (address instanceof InetSocketAddress) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot connect to ATM server at " + address, ex);
+        }
+    }
+
+    @Override
+    public synchronized boolean login(String accountNumber, String pin) {
+        try {
+            out.writeByte(AtmProtocol.LOGIN);
+            out.writeUTF(accountNumber);
+            out.writeUTF(pin);
+            loggedIn = send() == AtmProtocol.OK;
+            return loggedIn;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized boolean isLoggedIn() {
+        return loggedIn;
+    }
+
+    @Override
+    public synchronized double getBalance() {
+        try {
+            out.writeByte(AtmProtocol.BALANCE);
+            expectOk(send());
+            return Account.toMajorUnits(in.readLong());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized void deposit(double amount) {
+        try {
+            out.writeByte(AtmProtocol.DEPOSIT);
+            out.writeLong(Account.toMinorUnits(amount));
+            byte status = send();
+            if (status == AtmProtocol.INVALID) {
+                throw new IllegalArgumentException("The ATM server does not accept the amount " + amount);
+            }
+            expectOk(status);
+            in.readLong();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized boolean withdraw(double amount) {
+        try {
+            out.writeByte(AtmProtocol.WITHDRAW);
+            out.writeLong(Account.toMinorUnits(amount));
+            byte status = send();
+            if (status == AtmProtocol.FAILED) {
+                return false;
+            }
+            if (status == AtmProtocol.INVALID) {
+                throw new IllegalArgumentException("The ATM server does not accept the amount " + amount);
+            }
+            if (status == AtmProtocol.LIMIT_EXCEEDED) {
+                throw new WithdrawalLimitException(in.readUTF());
+            }
+            if (status == AtmProtocol.DECLINED) {
+                throw new WithdrawalDeclinedException(in.readUTF());
+            }
+            expectOk(status);
+            in.readLong();
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized boolean transfer(String toAccountNumber, double amount) {
+        try {
+            out.writeByte(AtmProtocol.TRANSFER);
+            out.writeUTF(toAccountNumber);
+            out.writeLong(Account.toMinorUnits(amount));
+            byte status = send();
+            if (status == AtmProtocol.FAILED) {
+                return false;
+            }
+            if (status == AtmProtocol.INVALID) {
+                throw new IllegalArgumentException("Cannot transfer " + amount + " to account " + toAccountNumber);
+            }
+            if (status == AtmProtocol.LIMIT_EXCEEDED) {
+                throw new WithdrawalLimitException(in.readUTF());
+            }
+            if (status == AtmProtocol.DECLINED) {
+                throw new WithdrawalDeclinedException(in.readUTF());
+            }
+            expectOk(status);
+            in.readLong();
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized List<String> getRecentTransactions(int count) {
+        try {
+            out.writeByte(AtmProtocol.STATEMENT);
+            out.writeInt(count);
+            expectOk(send());
+            int size = in.readInt();
+            List<String> transactions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                transactions.add(in.readUTF());
+            }
+            return transactions;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized boolean changePin(String oldPin, String newPin) {
+        try {
+            out.writeByte(AtmProtocol.CHANGE_PIN);
+            out.writeUTF(oldPin);
+            out.writeUTF(newPin);
+            byte status = send();
+            if (status == AtmProtocol.FAILED) {
+                return false;
+            }
+            expectOk(status);
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized void logout() {
+        try {
+            out.writeByte(AtmProtocol.LOGOUT);
+            send();
+            loggedIn = false;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends the buffered request and reads the response status.
+     */
+    private byte send() throws IOException {
+        out.flush();
+        return in.readByte();
+    }
+
+    private void expectOk(byte status) {
+        if (status == AtmProtocol.NOT_LOGGED_IN) {
+            loggedIn = false;
+            throw new IllegalStateException("No account is logged in");
+        }
+        if (status != AtmProtocol.OK) {
+            throw new IllegalStateException("ATM server could not complete the request (status " + status + ")");
+        }
+    }
+}
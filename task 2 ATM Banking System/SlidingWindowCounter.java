@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sum over a sliding time window, kept as a ring of buckets that each cover an equal slice of the window.
+ * Each bucket is one long that packs the slice it belongs to with the sum recorded in it, so adding is a single
+ * compare-and-set and a bucket left over from an earlier pass of the ring is recognised and reset in the same step;
+ * nothing ever has to sweep old buckets. Reads and writes take no lock. The window slides one bucket at a time; the
+ * ring holds one bucket more than the window is divided into, so the sum covers the current slice and the
+ * {@code buckets} whole slices before it, never less than the window. A limit checked against it may count an
+ * amount for up to one slice longer than the window, but never forgets one early.
+ */
+public class SlidingWindowCounter {
+    private static final int VALUE_BITS = 40;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    private static final long SLICE_MASK = (1L << (Long.SIZE - VALUE_BITS)) - 1;
+
+    private final long bucketMillis;
+    private final AtomicLongArray buckets;
+
+    /**
+     * Constructs an empty counter.
+     *
+     * @param windowMillis The length of the window in milliseconds.
+     * @param bucketCount The number of buckets the window is divided into.
+     */
+    public SlidingWindowCounter(long windowMillis, int bucketCount) {
+        if (bucketCount <= 0 || windowMillis < bucketCount) {
+            throw new IllegalArgumentException("Cannot divide a " + windowMillis + " ms window into " + bucketCount + " buckets");
+        }
+        this.bucketMillis = windowMillis / bucketCount;
+        this.buckets = new AtomicLongArray(bucketCount + 1);
+    }
+
+    /**
+     * Returns the sum recorded in the window ending now.
+     *
+     * @param nowMillis The current time in epoch milliseconds.
+     * @return The sum.
+     */
+    public long sum(long nowMillis) {
+        long slice = nowMillis / bucketMillis;
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            long bucket = buckets.get(i);
+            // Only the low bits of a slice are stored; the age is still exact for any bucket the ring can hold.
+            long age = (slice - (bucket >>> VALUE_BITS)) & SLICE_MASK;
+            // Ages 0 to bucketCount: the current slice and the whole window before it.
+            if (age < buckets.length()) {
+                total += bucket & VALUE_MASK;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Adds to the current bucket.
+     *
+     * @param nowMillis The current time in epoch milliseconds.
+     * @param delta The amount to add.
+     */
+    public void add(long nowMillis, long delta) {
+        long slice = nowMillis / bucketMillis;
+        int index = (int) (slice % buckets.length());
+        long stamp = slice & SLICE_MASK;
+        while (true) {
+            long bucket = buckets.get(index);
+            long value = (bucket >>> VALUE_BITS) == stamp ? bucket & VALUE_MASK : 0;
+            long updated = stamp << VALUE_BITS | Math.min(value + delta, VALUE_MASK);
+            if (buckets.compareAndSet(index, bucket, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes back an amount that was added, if the bucket it was added to is still in the ring. Once that bucket has
+     * been reused for a later slice, the amount has already left the window and there is nothing to take back.
+     *
+     * @param timeMillis The time the amount was added at, in epoch milliseconds.
+     * @param delta The amount that was added.
+     */
+    public void subtract(long timeMillis, long delta) {
+        long slice = timeMillis / bucketMillis;
+        int index = (int) (slice % buckets.length());
+        long stamp = slice & SLICE_MASK;
+        while (true) {
+            long bucket = buckets.get(index);
+            if ((bucket >>> VALUE_BITS) != stamp) {
+                return;
+            }
+            long updated = stamp << VALUE_BITS | Math.max((bucket & VALUE_MASK) - delta, 0);
+            if (buckets.compareAndSet(index, bucket, updated)) {
+                return;
+            }
+        }
+    }
+}
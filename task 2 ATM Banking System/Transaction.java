@@ -0,0 +1,130 @@
+/**
+ * One structured transaction on an account, as stored in the transaction journal.
+ * The sequence number and time are assigned by the journal when the transaction is written; a transaction created
+ * by an account has neither until then.
+ */
+public class Transaction {
+    /** The value of a sequence number, time or balance that is not known. */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    private final long sequence;
+    private final long timeMillis;
+    private final String accountNumber;
+    private final TransactionType type;
+    private final long amountMinor;
+    private final long balanceAfterMinor;
+    private final String detail;
+
+    /**
+     * Constructs a transaction that has not been written to the journal yet.
+     *
+     * @param accountNumber The account the transaction belongs to.
+     * @param type The transaction type.
+     * @param amountMinor The amount in paise.
+     * @param balanceAfterMinor The account's balance after the transaction in paise, or {@link #UNKNOWN}.
+     * @param detail The counterparty for transfers, the description for {@link TransactionType#OTHER}, else null.
+     */
+    public Transaction(String accountNumber, TransactionType type, long amountMinor, long balanceAfterMinor, String detail) {
+        this(UNKNOWN, UNKNOWN, accountNumber, type, amountMinor, balanceAfterMinor, detail);
+    }
+
+    /**
+     * Constructs a transaction as read from the journal.
+     *
+     * @param sequence The journal-wide sequence number.
+     * @param timeMillis When the transaction was written, in epoch milliseconds.
+     * @param accountNumber The account the transaction belongs to.
+     * @param type The transaction type.
+     * @param amountMinor The amount in paise.
+     * @param balanceAfterMinor The account's balance after the transaction in paise, or {@link #UNKNOWN}.
+     * @param detail The counterparty for transfers, the description for {@link TransactionType#OTHER}, else null.
+     */
+    public Transaction(long sequence, long timeMillis, String accountNumber, TransactionType type, long amountMinor,
+                       long balanceAfterMinor, String detail) {
+        this.sequence = sequence;
+        this.timeMillis = timeMillis;
+        this.accountNumber = accountNumber;
+        this.type = type;
+        this.amountMinor = amountMinor;
+        this.balanceAfterMinor = balanceAfterMinor;
+        this.detail = detail;
+    }
+
+    /**
+     * Returns the journal-wide sequence number.
+     *
+     * @return The sequence number, or {@link #UNKNOWN} if the transaction has not been written.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns when the transaction was written.
+     *
+     * @return The time in epoch milliseconds, or {@link #UNKNOWN} if the transaction has not been written.
+     *         Transactions converted from the old text files have time 0.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Returns the account the transaction belongs to.
+     *
+     * @return The account number.
+     */
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    /**
+     * Returns the transaction type.
+     *
+     * @return The type.
+     */
+    public TransactionType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the amount.
+     *
+     * @return The amount in paise.
+     */
+    public long getAmountMinor() {
+        return amountMinor;
+    }
+
+    /**
+     * Returns the account's balance after the transaction.
+     *
+     * @return The balance in paise, or {@link #UNKNOWN} for transactions converted from the old text files.
+     */
+    public long getBalanceAfterMinor() {
+        return balanceAfterMinor;
+    }
+
+    /**
+     * Returns the transaction's detail.
+     *
+     * @return The counterparty for transfers, the description for {@link TransactionType#OTHER}, else null.
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    /**
+     * Describes the transaction as it is shown on statements, for example "Withdrew: 500.0".
+     *
+     * @return The description.
+     */
+    public String describe() {
+        return type.describe(amountMinor, detail);
+    }
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts transactions kept as text into structured records in the binary {@link TransactionJournal}.
+ * Two text forms are converted: the old per-account {@code <account>_transactions.txt} files (one description per
+ * line) and the earlier text journal (account, previous offset and description separated by tabs, or just account and
+ * description in its first version). Each description is parsed back into a type, amount and detail; the time the
+ * transaction happened and the balance after it were never recorded, so converted records have time 0 and an
+ * unknown balance.
+ * <p>
+ * Usage: {@code java TransactionConverter [journal] <account>_transactions.txt...} converts the given per-account
+ * files into the journal (default {@code transactions.journal}), converting the journal itself first if it is still
+ * in the text format.
+ */
+public class TransactionConverter {
+    private static final String DEFAULT_JOURNAL = "transactions.journal";
+
+    private TransactionConverter() {
+    }
+
+    /**
+     * Checks whether a journal file exists and is in the old text format.
+     *
+     * @param file The journal file.
+     * @return True if the file holds a text journal; false if it is missing, empty or already binary.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isTextJournal(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() < Integer.BYTES || in.readInt() != TransactionJournal.MAGIC;
+        }
+    }
+
+    /**
+     * Converts a text journal to the binary format in place. The binary journal is written to a temporary file and
+     * forced to disk, the text journal is copied aside with a {@code .txt} suffix, and only then does the binary
+     * journal replace it with an atomic rename, so after a crash the journal file holds either the whole text journal
+     * or the whole binary one. A saved index for the text journal is removed. Lines torn by a crash are skipped.
+     *
+     * @param file The journal file.
+     * @return The number of transactions converted.
+     * @throws IOException If the journal cannot be read or written.
+     */
+    public static int convertTextJournal(File file) throws IOException {
+        List<Transaction> transactions = readTextJournal(file);
+        File converted = writeConverted(file, transactions);
+        File text = new File(file.getPath() + ".txt");
+        Files.copy(file.toPath(), text.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(text.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        replace(file, converted);
+        return transactions.size();
+    }
+
+    /**
+     * Finishes or repairs a conversion that a crash interrupted, before the journal is opened.
+     * A leftover temporary file is removed (the journal file still holds the text journal, which is converted again).
+     * A binary journal next to its {@code .txt} that holds fewer converted records than the text journal was left by
+     * an earlier version of the conversion, which moved the text journal aside first; it is converted again from the
+     * {@code .txt} if nothing was appended to it since.
+     *
+     * @param file The journal file.
+     * @return True if the journal was converted again.
+     * @throws IOException If the journal cannot be repaired because it holds later transactions, or cannot be read
+     *         or written.
+     */
+    public static boolean recoverConversion(File file) throws IOException {
+        File converting = new File(file.getPath() + ".converting");
+        Files.deleteIfExists(converting.toPath());
+        Files.deleteIfExists(new File(converting.getPath() + ".idx").toPath());
+        File text = new File(file.getPath() + ".txt");
+        if (!text.exists() || !file.exists() || isTextJournal(file)) {
+            return false;
+        }
+        List<Transaction> transactions = readTextJournal(text);
+        long[] leading = countConverted(file, transactions.size());
+        if (leading[0] >= transactions.size()) {
+            return false;
+        }
+        if (leading[1] != 0) {
+            throw new IOException(file + " holds only " + leading[0] + " of the " + transactions.size()
+                    + " transactions in " + text.getName() + ", and later transactions after them; it was not converted completely");
+        }
+        replace(file, writeConverted(file, transactions));
+        return true;
+    }
+
+    private static List<Transaction> readTextJournal(File text) throws IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(text), StandardCharsets.UTF_8))) {
+            long remaining = text.length();
+            String line;
+            while ((line = in.readLine()) != null) {
+                remaining -= line.getBytes(StandardCharsets.UTF_8).length + 1;
+                String[] fields = line.split("\t", 3);
+                if (remaining < 0 || fields.length < 2) {
+                    continue;
+                }
+                String description = fields.length == 3 && isOffset(fields[1]) ? fields[2] : line.substring(fields[0].length() + 1);
+                transactions.add(parse(fields[0], description));
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Writes converted transactions to a new binary journal next to the journal file. Closing the journal forces it
+     * to disk.
+     */
+    private static File writeConverted(File file, List<Transaction> transactions) throws IOException {
+        File converting = new File(file.getPath() + ".converting");
+        Files.deleteIfExists(converting.toPath());
+        try (TransactionJournal journal = new TransactionJournal(converting, TransactionJournal.Durability.WRITE)) {
+            journal.appendAll(transactions);
+        }
+        // The index is saved under the temporary name and would not be found; the journal rebuilds it on open.
+        Files.deleteIfExists(new File(converting.getPath() + ".idx").toPath());
+        return converting;
+    }
+
+    private static void replace(File file, File converted) throws IOException {
+        Files.deleteIfExists(new File(file.getPath() + ".idx").toPath());
+        Files.move(converted.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Counts the converted records (those with time 0) at the start of a binary journal, up to a limit.
+     *
+     * @return The count, and 1 if a record that was not converted follows them (0 if the journal ends there).
+     */
+    private static long[] countConverted(File file, long limit) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            in.skipNBytes(TransactionJournal.HEADER_SIZE);
+            while (count < limit) {
+                int length = in.readInt();
+                if (length < 2 * Long.BYTES || length > TransactionJournal.MAX_RECORD) {
+                    break;
+                }
+                in.readLong();
+                long time = in.readLong();
+                in.skipNBytes(length - 2 * Long.BYTES + Integer.BYTES);
+                if (time != 0) {
+                    return new long[] {count, 1};
+                }
+                count++;
+            }
+        } catch (EOFException e) {
+            // A torn record at the end is cut off when the journal is opened.
+        }
+        return new long[] {count, 0};
+    }
+
+    /**
+     * Copies an account's transactions from its old per-account file into a journal.
+     * The old file is left in place; once the journal holds the account's transactions it is no longer read.
+     *
+     * @param file The per-account transactions file.
+     * @param accountNumber The account the file belongs to.
+     * @param journal The journal to append to.
+     * @return The number of transactions converted.
+     * @throws IOException If the file cannot be read.
+     */
+    public static int convertLegacyFile(File file, String accountNumber, TransactionJournal journal) throws IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                transactions.add(parse(accountNumber, line));
+            }
+        }
+        if (!transactions.isEmpty()) {
+            journal.appendAll(transactions);
+        }
+        return transactions.size();
+    }
+
+    private static Transaction parse(String accountNumber, String description) {
+        TransactionType type = TransactionType.of(description);
+        return new Transaction(Transaction.UNKNOWN, 0, accountNumber, type, type.amountOf(description),
+                Transaction.UNKNOWN, type.detailOf(description));
+    }
+
+    private static boolean isOffset(String field) {
+        int start = field.startsWith("-") ? 1 : 0;
+        if (field.length() == start) {
+            return false;
+        }
+        for (int i = start; i < field.length(); i++) {
+            if (!Character.isDigit(field.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int first = args.length > 0 && !args[0].endsWith("_transactions.txt") ? 1 : 0;
+        File journalFile = new File(first == 1 ? args[0] : DEFAULT_JOURNAL);
+        if (recoverConversion(journalFile)) {
+            System.out.println(journalFile + ": an interrupted conversion was repeated");
+        }
+        if (isTextJournal(journalFile)) {
+            System.out.println(journalFile + ": " + convertTextJournal(journalFile) + " transactions converted to the binary format");
+        }
+        try (TransactionJournal journal = new TransactionJournal(journalFile, TransactionJournal.Durability.WRITE)) {
+            for (int i = first; i < args.length; i++) {
+                File file = new File(args[i]);
+                String name = file.getName();
+                if (!name.endsWith("_transactions.txt")) {
+                    System.out.println(file + ": skipped, not an <account>_transactions.txt file");
+                    continue;
+                }
+                String accountNumber = name.substring(0, name.length() - "_transactions.txt".length());
+                if (journal.hasTransactions(accountNumber)) {
+                    System.out.println(file + ": skipped, the journal already holds transactions for account " + accountNumber);
+                    continue;
+                }
+                System.out.println(file + ": " + convertLegacyFile(file, accountNumber, journal) + " transactions converted");
+            }
+        }
+    }
+}
@@ -0,0 +1,700 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * A single append-only journal of structured transactions shared by all accounts, in a compact binary encoding.
+ * After an 8-byte header, each record is a length, a body and a CRC32 of the body. The body holds the journal-wide
+ * sequence number, the time it happened (the time it was written, never earlier than the record before it, unless it
+ * was converted with a time of its own), the offset of the same account's previous record (-1 for its first), the
+ * amount and resulting balance in paise, the type, the account number and an optional detail.
+ * <p>
+ * The back-pointers chain each account's records together, and the journal keeps the offset and recorded balance of
+ * every account's latest record in memory, so an account's last N transactions, or its transactions in a date range,
+ * are read by following the chain from the newest record, and its last journaled balance is known without reading
+ * the file. An account's {@link TransactionType#CLOSED} record ends its chain: the account has no latest record
+ * after it, and one opened later under the same number starts a chain of its own. For a date-range query over all
+ * accounts, a sparse time index holds the offset and the earliest and latest time of every block of
+ * {@value #SPARSE_INTERVAL} records, so only the blocks that overlap the range are read. Both indexes are saved next
+ * to the journal on close and rebuilt with one scan if they are missing or stale; a record torn by a crash is
+ * detected by its checksum and cut off.
+ * <p>
+ * Appends from any number of threads are queued and written by one writer thread, which takes everything that queued
+ * up while the previous write was in progress and writes it with one write call and (depending on the durability
+ * policy) one fsync. This group commit replaces the open/write/close of a per-account file on every deposit or
+ * withdrawal. If a group write fails, whatever part of it reached the file is cut off again and the journal fails
+ * for good: that group and every later append complete exceptionally, so no record is ever written after one that
+ * was lost, and the accounts undo the changes they had made. Each group write is timed and counted by
+ * {@link OperationStats} as {@code journal.write}. Journals in the older text format are converted with
+ * {@link TransactionConverter}.
+ */
+public class TransactionJournal implements Closeable {
+
+    /**
+     * How durable an append is by the time it returns.
+     */
+    public enum Durability {
+        /** The entry has been written and forced to disk with fsync. */
+        FSYNC,
+        /** The entry has been written to the operating system, which flushes it to disk in its own time. */
+        WRITE,
+        /** The entry has been queued; it is written shortly afterwards in the background. */
+        ASYNC
+    }
+
+    /** The first four bytes of a binary journal file. */
+    public static final int MAGIC = 0x41544d4a; // "ATMJ"
+    private static final int VERSION = 1;
+    /** The length of the file header, after which the first record starts. */
+    public static final int HEADER_SIZE = 8;
+    private static final int INDEX_MAGIC = 0x41544d49; // "ATMI"
+    private static final int INDEX_VERSION = 2;
+    private static final int SPARSE_INTERVAL = 128;
+    private static final OperationStats WRITES = OperationStats.forOperation("journal.write");
+    /** The longest record body the journal accepts; a longer length field marks a corrupt record. */
+    public static final int MAX_RECORD = 1 << 20;
+    private static final int READ_CHUNK = 128;
+    private static final Pending CLOSE_MARKER = new Pending(null, null);
+
+    private final File file;
+    private final File indexFile;
+    private final Durability durability;
+    private final FileChannel channel;
+    private final FileChannel reader;
+    private final Map<String, Head> heads = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // The length of the journal that has been written; only the writer thread changes it.
+    private volatile long position;
+    // Only used by the writer thread once the journal is open.
+    private long nextSequence;
+    private long lastTime;
+    private long recordCount;
+    // Guarded by sparseLock.
+    private final Object sparseLock = new Object();
+    private long[] sparseOffsets = new long[64];
+    private long[] sparseMinTimes = new long[64];
+    private long[] sparseMaxTimes = new long[64];
+    private int sparseCount;
+    private volatile boolean closed;
+    // Set by the writer thread when a write fails; no record is written after that.
+    private volatile IOException failed;
+
+    /**
+     * Opens (or creates) a journal file and starts its writer thread.
+     *
+     * @param file The journal file.
+     * @param durability The durability of each append.
+     * @throws IOException If the file cannot be opened or is not a binary journal.
+     */
+    public TransactionJournal(File file, Durability durability) throws IOException {
+        this.file = file;
+        this.indexFile = new File(file.getPath() + ".idx");
+        this.durability = durability;
+        try (FileChannel init = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (init.size() == 0) {
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                init.write(header);
+            } else if (init.read(header, 0) < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary transaction journal: " + file + " (convert it with TransactionConverter)");
+            }
+        }
+        if (!loadIndex()) {
+            rebuildIndex();
+        }
+        // The saved index only describes the journal as it was; it is written again on close.
+        Files.deleteIfExists(indexFile.toPath());
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.reader = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.position = channel.size();
+        this.writer = new Thread(this::writeLoop, "transaction-journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "transaction-journal-shutdown"));
+    }
+
+    /**
+     * Appends one transaction. Its sequence number is assigned when it is written, and so is its time unless it
+     * already has one.
+     *
+     * @param transaction The transaction.
+     */
+    public void append(Transaction transaction) {
+        awaitDurable(appendAsync(Collections.singletonList(transaction)));
+    }
+
+    /**
+     * Appends several transactions as one unit: they are written together, in order, in the same write call.
+     *
+     * @param transactions The transactions.
+     */
+    public void appendAll(List<Transaction> transactions) {
+        awaitDurable(appendAsync(transactions));
+    }
+
+    /**
+     * Queues transactions to be written as one unit without waiting for them. Transactions are written in the order
+     * they were queued, so a caller that queues while holding a lock gets its records in the order of its changes.
+     *
+     * @param transactions The transactions.
+     * @return A future that completes when the transactions have been written (and forced, with {@code FSYNC}).
+     */
+    public CompletableFuture<Void> appendAsync(List<Transaction> transactions) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed: " + file);
+        }
+        if (failed != null) {
+            throw new UncheckedIOException("Journal failed to write and takes no more transactions: " + file, failed);
+        }
+        Pending pending = new Pending(new ArrayList<>(transactions), new CompletableFuture<>());
+        queue.add(pending);
+        return pending.done;
+    }
+
+    /**
+     * Waits for queued transactions as long as the journal's durability policy requires: until they are written,
+     * or not at all with {@code ASYNC}.
+     *
+     * @param written The future returned by {@link #appendAsync}.
+     */
+    public void awaitDurable(CompletableFuture<Void> written) {
+        if (durability != Durability.ASYNC) {
+            written.join();
+        }
+    }
+
+    /**
+     * Checks whether any transaction has been written for an account.
+     *
+     * @param accountNumber The account number.
+     * @return True if the journal holds at least one transaction for the account.
+     */
+    public boolean hasTransactions(String accountNumber) {
+        return heads.containsKey(accountNumber);
+    }
+
+    /**
+     * Returns the balance recorded by an account's latest transaction, without reading the file.
+     *
+     * @param accountNumber The account number.
+     * @return The balance in paise, or {@link Transaction#UNKNOWN} if the account has no transactions or its latest
+     *         one was converted from a text file.
+     */
+    public long getLatestBalance(String accountNumber) {
+        Head head = heads.get(accountNumber);
+        return head != null ? head.balanceAfterMinor : Transaction.UNKNOWN;
+    }
+
+    /**
+     * Reads an account's most recent transactions, starting at its latest record and following the back-pointers.
+     * Only the records returned are read from the file.
+     *
+     * @param accountNumber The account number.
+     * @param count The maximum number of transactions to return.
+     * @return Up to {@code count} transactions, oldest first.
+     */
+    public List<Transaction> readRecent(String accountNumber, int count) {
+        List<Transaction> transactions = new ArrayList<>();
+        Head head = heads.get(accountNumber);
+        long offset = head != null ? head.offset : -1;
+        try {
+            while (offset >= 0 && transactions.size() < count) {
+                Record record = readRecordAt(offset);
+                transactions.add(record.transaction);
+                offset = record.previousOffset;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Collections.reverse(transactions);
+        return transactions;
+    }
+
+    /**
+     * Reads all of an account's transactions.
+     *
+     * @param accountNumber The account number.
+     * @return The account's transactions, oldest first.
+     */
+    public List<Transaction> readAll(String accountNumber) {
+        return readRecent(accountNumber, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds the transactions written in a time range, optionally only for one account and only of some types.
+     * For one account, its chain is followed back from the newest record until the range starts; for all accounts, only the blocks of
+     * records the sparse time index shows to overlap the range are read.
+     *
+     * @param accountNumber The account number, or null for all accounts.
+     * @param fromMillis The start of the range, inclusive, in epoch milliseconds.
+     * @param toMillis The end of the range, inclusive, in epoch milliseconds.
+     * @param types The types to include, or null for all types.
+     * @return The matching transactions, oldest first.
+     */
+    public List<Transaction> query(String accountNumber, long fromMillis, long toMillis, Set<TransactionType> types) {
+        List<Transaction> transactions = new ArrayList<>();
+        try {
+            if (accountNumber != null) {
+                Head head = heads.get(accountNumber);
+                long offset = head != null ? head.offset : -1;
+                while (offset >= 0) {
+                    Record record = readRecordAt(offset);
+                    // Converted records are only imported for accounts with none yet, so each chain is in time order.
+                    if (record.transaction.getTimeMillis() < fromMillis) {
+                        break;
+                    }
+                    if (matches(record.transaction, fromMillis, toMillis, types)) {
+                        transactions.add(record.transaction);
+                    }
+                    offset = record.previousOffset;
+                }
+                Collections.reverse(transactions);
+            } else {
+                long end = position;
+                try (FileChannel scan = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    for (long[] block : blocksOverlapping(fromMillis, toMillis, end)) {
+                        scan.position(block[0]);
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(scan), 1 << 16));
+                        for (long offset = block[0]; offset < block[1]; ) {
+                            Record record = readRecord(in);
+                            if (record == null) {
+                                break;
+                            }
+                            if (matches(record.transaction, fromMillis, toMillis, types)) {
+                                transactions.add(record.transaction);
+                            }
+                            offset += record.size;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return transactions;
+    }
+
+    private static boolean matches(Transaction transaction, long fromMillis, long toMillis, Set<TransactionType> types) {
+        long time = transaction.getTimeMillis();
+        return time >= fromMillis && time <= toMillis && (types == null || types.contains(transaction.getType()));
+    }
+
+    /**
+     * Writes everything still queued, saves the indexes and closes the journal.
+     * Called automatically on JVM shutdown.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(CLOSE_MARKER);
+        try {
+            writer.join();
+            for (Pending pending : queue) {
+                if (pending.done != null) {
+                    pending.done.completeExceptionally(new IllegalStateException("Journal is closed: " + file));
+                }
+            }
+            if (failed == null) {
+                channel.force(false);
+            }
+            channel.close();
+            reader.close();
+            // After a failure the index is not saved, so the next open rebuilds it from what is really in the file.
+            if (failed == null) {
+                saveIndex();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch);
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            Map<String, Head> written = new HashMap<>();
+            List<long[]> indexed = new ArrayList<>();
+            long sequence = nextSequence;
+            long time = lastTime;
+            long count = recordCount;
+            for (Pending pending : batch) {
+                if (pending == CLOSE_MARKER) {
+                    running = false;
+                    continue;
+                }
+                for (Transaction transaction : pending.transactions) {
+                    String accountNumber = transaction.getAccountNumber();
+                    Head previous = written.containsKey(accountNumber) ? written.get(accountNumber) : heads.get(accountNumber);
+                    long offset = position + records.size();
+                    long recordTime = transaction.getTimeMillis() != Transaction.UNKNOWN
+                            ? transaction.getTimeMillis() : Math.max(time, System.currentTimeMillis());
+                    time = Math.max(time, recordTime);
+                    writeRecord(records, sequence++, recordTime, previous != null ? previous.offset : -1, transaction);
+                    // A closed account has no head, so an account opened later under its number starts a new chain.
+                    written.put(accountNumber, transaction.getType() == TransactionType.CLOSED
+                            ? null : new Head(offset, transaction.getBalanceAfterMinor()));
+                    indexed.add(new long[] {count++, recordTime, offset});
+                }
+            }
+            IOException failure = failed;
+            AtmIoEvent event = WRITES.beginIo(file.getName());
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (durability == Durability.FSYNC) {
+                    channel.force(false);
+                }
+                nextSequence = sequence;
+                lastTime = time;
+                recordCount = count;
+                position += records.size();
+                for (long[] entry : indexed) {
+                    indexSparse(entry[0], entry[1], entry[2]);
+                }
+                for (Map.Entry<String, Head> head : written.entrySet()) {
+                    if (head.getValue() != null) {
+                        heads.put(head.getKey(), head.getValue());
+                    } else {
+                        heads.remove(head.getKey());
+                    }
+                }
+            } catch (IOException e) {
+                if (failed == null) {
+                    e.printStackTrace();
+                    fail(e);
+                }
+                failure = e;
+            }
+            WRITES.endIo(event, indexed.size(), records.size(), failure == null);
+            for (Pending pending : batch) {
+                if (pending.done != null) {
+                    if (failure == null) {
+                        pending.done.complete(null);
+                    } else {
+                        pending.done.completeExceptionally(new UncheckedIOException(failure));
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Stops the journal after a failed write, cutting off whatever part of the write reached the file, so every
+     * offset and back-pointer held in memory still matches the file.
+     */
+    private void fail(IOException cause) {
+        failed = cause;
+        try {
+            channel.truncate(position);
+        } catch (IOException e) {
+            // The next open still cuts off a torn record, but whole records from the failed write would remain.
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, long sequence, long time, long previousOffset, Transaction transaction) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream body = new DataOutputStream(bytes);
+            body.writeLong(sequence);
+            body.writeLong(time);
+            body.writeLong(previousOffset);
+            body.writeLong(transaction.getAmountMinor());
+            body.writeLong(transaction.getBalanceAfterMinor());
+            body.writeByte(transaction.getType().ordinal());
+            body.writeUTF(transaction.getAccountNumber());
+            body.writeBoolean(transaction.getDetail() != null);
+            if (transaction.getDetail() != null) {
+                body.writeUTF(transaction.getDetail());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            DataOutputStream record = new DataOutputStream(out);
+            record.writeInt(bytes.size());
+            bytes.writeTo(record);
+            record.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Record readRecordAt(long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+        readFully(buffer, offset, Integer.BYTES);
+        int length = buffer.getInt(0);
+        if (length <= 0 || length > MAX_RECORD) {
+            throw new IOException("Corrupt journal record at offset " + offset + " of " + file);
+        }
+        int total = Integer.BYTES + length + Integer.BYTES;
+        if (total > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(total);
+            larger.put(buffer.flip());
+            buffer = larger;
+        }
+        readFully(buffer, offset, total);
+        Record record = decode(Arrays.copyOfRange(buffer.array(), Integer.BYTES, Integer.BYTES + length), buffer.getInt(Integer.BYTES + length));
+        if (record == null) {
+            throw new IOException("Corrupt journal record at offset " + offset + " of " + file);
+        }
+        return record;
+    }
+
+    /**
+     * Fills the buffer up to the given limit with the bytes at an offset, continuing from what it already holds.
+     */
+    private void readFully(ByteBuffer buffer, long offset, int limit) throws IOException {
+        buffer.limit(limit);
+        while (buffer.hasRemaining()) {
+            if (reader.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Journal record at offset " + offset + " runs past the end of " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads the next record from a stream.
+     *
+     * @return The record, or null at the end of the journal or at a record that is torn or corrupt.
+     */
+    private static Record readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            return decode(body, in.readInt());
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static Record decode(byte[] body, int checksum) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        long sequence = in.readLong();
+        long time = in.readLong();
+        long previousOffset = in.readLong();
+        long amount = in.readLong();
+        long balanceAfter = in.readLong();
+        TransactionType type = TransactionType.values()[in.readByte()];
+        String accountNumber = in.readUTF();
+        String detail = in.readBoolean() ? in.readUTF() : null;
+        Transaction transaction = new Transaction(sequence, time, accountNumber, type, amount, balanceAfter, detail);
+        return new Record(transaction, previousOffset, Integer.BYTES + body.length + Integer.BYTES);
+    }
+
+    /**
+     * Finds the blocks of records whose times overlap a range.
+     *
+     * @param end The length of the journal to consider.
+     * @return The start and end offset of each block, in journal order.
+     */
+    private List<long[]> blocksOverlapping(long fromMillis, long toMillis, long end) {
+        List<long[]> blocks = new ArrayList<>();
+        synchronized (sparseLock) {
+            for (int i = 0; i < sparseCount && sparseOffsets[i] < end; i++) {
+                if (sparseMinTimes[i] <= toMillis && sparseMaxTimes[i] >= fromMillis) {
+                    blocks.add(new long[] {sparseOffsets[i], i + 1 < sparseCount ? Math.min(sparseOffsets[i + 1], end) : end});
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Adds a record to the sparse time index: the first record of a block starts a new entry, later ones widen the
+     * block's time range.
+     */
+    private void indexSparse(long recordNumber, long time, long offset) {
+        synchronized (sparseLock) {
+            if (recordNumber % SPARSE_INTERVAL == 0 || sparseCount == 0) {
+                addSparse(offset, time, time);
+            } else {
+                int last = sparseCount - 1;
+                sparseMinTimes[last] = Math.min(sparseMinTimes[last], time);
+                sparseMaxTimes[last] = Math.max(sparseMaxTimes[last], time);
+            }
+        }
+    }
+
+    private void addSparse(long offset, long minTime, long maxTime) {
+        synchronized (sparseLock) {
+            if (sparseCount == sparseOffsets.length) {
+                sparseOffsets = Arrays.copyOf(sparseOffsets, sparseCount * 2);
+                sparseMinTimes = Arrays.copyOf(sparseMinTimes, sparseCount * 2);
+                sparseMaxTimes = Arrays.copyOf(sparseMaxTimes, sparseCount * 2);
+            }
+            sparseOffsets[sparseCount] = offset;
+            sparseMinTimes[sparseCount] = minTime;
+            sparseMaxTimes[sparseCount] = maxTime;
+            sparseCount++;
+        }
+    }
+
+    /**
+     * Loads the indexes saved by the last clean close, if they still match the journal's length.
+     */
+    private boolean loadIndex() {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readLong() != file.length()) {
+                return false;
+            }
+            nextSequence = in.readLong();
+            lastTime = in.readLong();
+            recordCount = in.readLong();
+            int accounts = in.readInt();
+            for (int i = 0; i < accounts; i++) {
+                heads.put(in.readUTF(), new Head(in.readLong(), in.readLong()));
+            }
+            int sparse = in.readInt();
+            for (int i = 0; i < sparse; i++) {
+                addSparse(in.readLong(), in.readLong(), in.readLong());
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            heads.clear();
+            sparseCount = 0;
+            nextSequence = 0;
+            lastTime = 0;
+            recordCount = 0;
+            return false;
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(file.length());
+            out.writeLong(nextSequence);
+            out.writeLong(lastTime);
+            out.writeLong(recordCount);
+            Map<String, Head> latest = new HashMap<>(heads);
+            out.writeInt(latest.size());
+            for (Map.Entry<String, Head> entry : latest.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().offset);
+                out.writeLong(entry.getValue().balanceAfterMinor);
+            }
+            synchronized (sparseLock) {
+                out.writeInt(sparseCount);
+                for (int i = 0; i < sparseCount; i++) {
+                    out.writeLong(sparseOffsets[i]);
+                    out.writeLong(sparseMinTimes[i]);
+                    out.writeLong(sparseMaxTimes[i]);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Rebuilds the indexes with one pass over the journal, after a crash or on first use.
+     * A record torn by a crash, and anything after it, is cut off.
+     */
+    private void rebuildIndex() throws IOException {
+        long offset = HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            in.skipNBytes(HEADER_SIZE);
+            Record record;
+            while ((record = readRecord(in)) != null) {
+                Transaction transaction = record.transaction;
+                if (transaction.getType() == TransactionType.CLOSED) {
+                    heads.remove(transaction.getAccountNumber());
+                } else {
+                    heads.put(transaction.getAccountNumber(), new Head(offset, transaction.getBalanceAfterMinor()));
+                }
+                nextSequence = transaction.getSequence() + 1;
+                lastTime = Math.max(lastTime, transaction.getTimeMillis());
+                indexSparse(recordCount++, transaction.getTimeMillis(), offset);
+                offset += record.size;
+            }
+        }
+        if (offset < file.length()) {
+            try (FileChannel truncate = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                truncate.truncate(offset);
+            }
+        }
+    }
+
+    /**
+     * Where an account's latest record is, and the balance it recorded.
+     */
+    private static final class Head {
+        final long offset;
+        final long balanceAfterMinor;
+
+        Head(long offset, long balanceAfterMinor) {
+            this.offset = offset;
+            this.balanceAfterMinor = balanceAfterMinor;
+        }
+    }
+
+    private static final class Record {
+        final Transaction transaction;
+        final long previousOffset;
+        final int size;
+
+        Record(Transaction transaction, long previousOffset, int size) {
+            this.transaction = transaction;
+            this.previousOffset = previousOffset;
+            this.size = size;
+        }
+    }
+
+    private static final class Pending {
+        final List<Transaction> transactions;
+        final CompletableFuture<Void> done;
+
+        Pending(List<Transaction> transactions, CompletableFuture<Void> done) {
+            this.transactions = transactions;
+            this.done = done;
+        }
+    }
+}
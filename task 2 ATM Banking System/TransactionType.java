@@ -0,0 +1,100 @@
+/**
+ * The kinds of transaction recorded for an account, and how each is described in a statement.
+ * The binary journal stores a type by its position in this list, so new types must only ever be added at the end.
+ */
+public enum TransactionType {
+    /** The balance an account started with. */
+    INITIAL_BALANCE("Initial balance: "),
+    /** Money paid into the account. */
+    DEPOSIT("Deposited: "),
+    /** Money taken out of the account. */
+    WITHDRAWAL("Withdrew: "),
+    /** Money sent to another account; the counterparty is the receiving account. */
+    TRANSFER_OUT("Transferred to "),
+    /** Money received from another account; the counterparty is the sending account. */
+    TRANSFER_IN("Received from "),
+    /** A transaction recorded in a form this version does not recognise; its description is kept as it is. */
+    OTHER(""),
+    /**
+     * The account was closed and its balance paid out; the amount is the balance it had. It is the last record of
+     * the account's history, and an account opened later under the same number starts a new one.
+     */
+    CLOSED("Account closed: ");
+
+    private final String prefix;
+
+    TransactionType(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Describes a transaction of this type, in the form written to the journal and shown on statements.
+     *
+     * @param amountMinor The amount in paise.
+     * @param detail The counterparty account number for transfers, the full description for {@link #OTHER},
+     *               and unused otherwise.
+     * @return The description.
+     */
+    public String describe(long amountMinor, String detail) {
+        switch (this) {
+            case TRANSFER_OUT:
+            case TRANSFER_IN:
+                return prefix + detail + ": " + Account.toMajorUnits(amountMinor);
+            case OTHER:
+                return detail;
+            default:
+                return prefix + Account.toMajorUnits(amountMinor);
+        }
+    }
+
+    /**
+     * Recognises the type of a transaction from its description.
+     *
+     * @param description A description as produced by {@link #describe}.
+     * @return The type, or {@link #OTHER} if the description is not recognised.
+     */
+    public static TransactionType of(String description) {
+        for (TransactionType type : values()) {
+            if (type != OTHER && description.startsWith(type.prefix)) {
+                return type;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Extracts the amount from a description of this type.
+     *
+     * @param description A description as produced by {@link #describe}.
+     * @return The amount in paise, or 0 for {@link #OTHER} or a description whose amount cannot be read.
+     */
+    public long amountOf(String description) {
+        if (this == OTHER) {
+            return 0;
+        }
+        try {
+            return Account.toMinorUnits(Double.parseDouble(description.substring(description.lastIndexOf(": ") + 2)));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Extracts the detail from a description of this type: the counterparty of a transfer, or the whole description
+     * for {@link #OTHER}.
+     *
+     * @param description A description as produced by {@link #describe}.
+     * @return The detail, or null for types that have none.
+     */
+    public String detailOf(String description) {
+        switch (this) {
+            case TRANSFER_OUT:
+            case TRANSFER_IN:
+                return description.substring(prefix.length(), description.lastIndexOf(": "));
+            case OTHER:
+                return description;
+            default:
+                return null;
+        }
+    }
+}
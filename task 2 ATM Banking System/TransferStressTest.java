@@ -0,0 +1,121 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs random concurrent transfers between accounts and checks that no money is created or lost.
+ * The accounts live in a scratch directory with their own journal, so the real account files are not touched, and in
+ * an account class without withdrawal limits, so only the balance declines a transfer.
+ * After the run the total of all balances must equal the starting total, no balance may be negative, and the journal
+ * must hold exactly two entries for every transfer that was made. Transfers of zero or a negative amount must be
+ * refused.
+ * <p>
+ * Usage: {@code java TransferStressTest [accounts] [threads] [transfersPerThread] [seed]}
+ * (defaults 50, 8, 100000, random). A small number of accounts gives more contention.
+ */
+public class TransferStressTest {
+    private static final long INITIAL_BALANCE_MINOR = 100_000;
+    private static final int UNLIMITED_CLASS = 99;
+
+    public static void main(String[] args) throws Exception {
+        int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int transfersPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : new Random().nextLong();
+        System.setProperty("atm.limits." + UNLIMITED_CLASS, "none");
+
+        File directory = Files.createTempDirectory("transfer-stress").toFile();
+        TransactionJournal journal = new TransactionJournal(new File(directory, "transactions.journal"), TransactionJournal.Durability.WRITE);
+        String credential = PinHasher.hash("0000");
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++) {
+            accounts.add(new Account(String.format("%06d", i), credential, Account.toMajorUnits(INITIAL_BALANCE_MINOR), UNLIMITED_CLASS, journal));
+        }
+        long expectedTotal = INITIAL_BALANCE_MINOR * accountCount;
+        int invalidAccepted = 0;
+        for (double amount : new double[] {0, -0.01, -1_000_000}) {
+            try {
+                Account.transfer(accounts.get(0), accounts.get(1), amount);
+                invalidAccepted++;
+            } catch (IllegalArgumentException ex) {
+                // Refused, as it must be.
+            }
+        }
+
+        AtomicLong completed = new AtomicLong();
+        AtomicLong declined = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(seed + t);
+            workers.add(executor.submit(() -> {
+                for (int i = 0; i < transfersPerThread; i++) {
+                    Account from = accounts.get(random.nextInt(accountCount));
+                    Account to = accounts.get(random.nextInt(accountCount));
+                    if (from == to) {
+                        continue;
+                    }
+                    // Up to twice the starting balance, so some transfers are declined for insufficient funds.
+                    double amount = Account.toMajorUnits(1 + random.nextInt((int) (2 * INITIAL_BALANCE_MINOR)));
+                    if (Account.transfer(from, to, amount)) {
+                        completed.incrementAndGet();
+                    } else {
+                        declined.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        long total = 0;
+        int negative = 0;
+        long journalEntries = 0;
+        for (Account account : accounts) {
+            total += account.getBalanceMinor();
+            if (account.getBalanceMinor() < 0) {
+                negative++;
+            }
+            // Each account's history starts with its "Initial balance" entry.
+            journalEntries += account.getTransactionHistory().size() - 1;
+        }
+        journal.close();
+        deleteDirectory(directory);
+
+        System.out.printf("seed %d: %d transfers made, %d declined in %.2f s (%.0f/s)%n",
+                seed, completed.get(), declined.get(), seconds, (completed.get() + declined.get()) / seconds);
+        boolean conserved = total == expectedTotal;
+        boolean journaled = journalEntries == 2 * completed.get();
+        System.out.println("total " + Account.toMajorUnits(total) + (conserved ? " (conserved)" : " (EXPECTED " + Account.toMajorUnits(expectedTotal) + ")"));
+        System.out.println("negative balances: " + negative);
+        System.out.println("journal entries: " + journalEntries + (journaled ? " (two per transfer)" : " (EXPECTED " + 2 * completed.get() + ")"));
+        System.out.println("non-positive transfers accepted: " + invalidAccepted);
+        if (!conserved || negative > 0 || !journaled || invalidAccepted > 0) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    private static void deleteDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory.toPath());
+    }
+}
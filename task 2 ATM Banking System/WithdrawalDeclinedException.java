@@ -0,0 +1,15 @@
+/**
+ * Thrown when the fraud screen declines a withdrawal.
+ */
+public class WithdrawalDeclinedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs an exception.
+     *
+     * @param message Why the withdrawal was declined, as shown to the customer.
+     */
+    public WithdrawalDeclinedException(String message) {
+        super(message);
+    }
+}
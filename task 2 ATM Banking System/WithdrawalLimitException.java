@@ -0,0 +1,15 @@
+/**
+ * Thrown when a withdrawal would take an account over one of its withdrawal limits.
+ */
+public class WithdrawalLimitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs an exception.
+     *
+     * @param message Which limit was reached, as shown to the customer.
+     */
+    public WithdrawalLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The withdrawal limits of one account class: the most that can be withdrawn in any 24 hours and in any hour, and the
+ * most withdrawals in any hour. Each class is configured with the {@code atm.limits.<class>} system property as
+ * {@code daily,hourly,perHour}, amounts in rupees, where 0 leaves that limit off, or as {@code none} for no limits.
+ * A class without its own setting uses class 0's, and class 0 defaults to {@value #DEFAULT_LIMITS}. Transfers out of
+ * an account count as withdrawals, so money cannot be moved to another account to be withdrawn there instead.
+ */
+public class WithdrawalLimits {
+    private static final String DEFAULT_LIMITS = "40000,20000,10";
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final Map<Integer, WithdrawalLimits> BY_CLASS = new ConcurrentHashMap<>();
+
+    private final long dailyMinor;
+    private final long hourlyMinor;
+    private final long perHour;
+
+    /**
+     * Constructs limits; 0 leaves a limit off.
+     *
+     * @param dailyMinor The most that can be withdrawn in any 24 hours, in paise.
+     * @param hourlyMinor The most that can be withdrawn in any hour, in paise.
+     * @param perHour The most withdrawals in any hour.
+     */
+    public WithdrawalLimits(long dailyMinor, long hourlyMinor, long perHour) {
+        this.dailyMinor = dailyMinor;
+        this.hourlyMinor = hourlyMinor;
+        this.perHour = perHour;
+    }
+
+    /**
+     * Returns the configured limits of an account class.
+     *
+     * @param accountClass The account class.
+     * @return The limits.
+     */
+    public static WithdrawalLimits forClass(int accountClass) {
+        WithdrawalLimits limits = BY_CLASS.get(accountClass);
+        if (limits == null) {
+            String setting = System.getProperty("atm.limits." + accountClass);
+            if (setting == null && accountClass != 0) {
+                limits = forClass(0);
+            } else {
+                limits = parse(setting != null ? setting : DEFAULT_LIMITS);
+            }
+            WithdrawalLimits existing = BY_CLASS.putIfAbsent(accountClass, limits);
+            if (existing != null) {
+                limits = existing;
+            }
+        }
+        return limits;
+    }
+
+    private static WithdrawalLimits parse(String setting) {
+        if (setting.trim().equalsIgnoreCase("none")) {
+            return new WithdrawalLimits(0, 0, 0);
+        }
+        String[] fields = setting.split(",");
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("Withdrawal limits must be daily,hourly,perHour or none: " + setting);
+        }
+        return new WithdrawalLimits(Account.toMinorUnits(Double.parseDouble(fields[0].trim())),
+                Account.toMinorUnits(Double.parseDouble(fields[1].trim())), Long.parseLong(fields[2].trim()));
+    }
+
+    /**
+     * Starts tracking an account's withdrawals against these limits, counting the withdrawals and transfers out the
+     * journal holds for the last 24 hours, so restarting the ATM does not reset an account's limits.
+     *
+     * @param account The account.
+     * @param nowMillis The current time in epoch milliseconds.
+     * @return The account's usage, with counters only for the limits that are on.
+     */
+    public Usage loadUsage(Account account, long nowMillis) {
+        Usage usage = new Usage();
+        if (dailyMinor > 0 || hourlyMinor > 0 || perHour > 0) {
+            for (Transaction transaction : account.getTransactions(nowMillis - DAY_MILLIS, nowMillis, EnumSet.of(TransactionType.WITHDRAWAL,
+                    TransactionType.TRANSFER_OUT))) {
+                usage.record(transaction.getAmountMinor(), transaction.getTimeMillis());
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * An account's recent withdrawals, in sliding windows. The counters can be read at any time without locking;
+     * checking a withdrawal and recording it must happen under the account's lock, together with the debit, so two
+     * withdrawals cannot both pass the check and together go over a limit.
+     */
+    public class Usage {
+        // The daily window slides by the hour and the hourly ones by the minute.
+        private final SlidingWindowCounter daily = dailyMinor > 0 ? new SlidingWindowCounter(DAY_MILLIS, 24) : null;
+        private final SlidingWindowCounter hourly = hourlyMinor > 0 ? new SlidingWindowCounter(HOUR_MILLIS, 60) : null;
+        private final SlidingWindowCounter count = perHour > 0 ? new SlidingWindowCounter(HOUR_MILLIS, 60) : null;
+
+        /**
+         * Checks that a withdrawal stays within every limit.
+         *
+         * @param amountMinor The amount in paise.
+         * @param nowMillis The current time in epoch milliseconds.
+         * @throws WithdrawalLimitException If the withdrawal would go over a limit.
+         */
+        public void check(long amountMinor, long nowMillis) {
+            if (count != null && count.sum(nowMillis) + 1 > perHour) {
+                throw new WithdrawalLimitException("No more than " + perHour + " withdrawals are allowed in an hour.");
+            }
+            if (hourly != null && hourly.sum(nowMillis) + amountMinor > hourlyMinor) {
+                throw new WithdrawalLimitException("The hourly withdrawal limit of " + Account.toMajorUnits(hourlyMinor) + " would be exceeded.");
+            }
+            if (daily != null && daily.sum(nowMillis) + amountMinor > dailyMinor) {
+                throw new WithdrawalLimitException("The daily withdrawal limit of " + Account.toMajorUnits(dailyMinor) + " would be exceeded.");
+            }
+        }
+
+        /**
+         * Records a withdrawal that was made.
+         *
+         * @param amountMinor The amount in paise.
+         * @param nowMillis The time it was checked at, in epoch milliseconds.
+         */
+        public void record(long amountMinor, long nowMillis) {
+            if (count != null) {
+                count.add(nowMillis, 1);
+            }
+            if (hourly != null) {
+                hourly.add(nowMillis, amountMinor);
+            }
+            if (daily != null) {
+                daily.add(nowMillis, amountMinor);
+            }
+        }
+
+        /**
+         * Takes back a withdrawal that was recorded but then undone because its journal record could not be written.
+         *
+         * @param amountMinor The amount in paise.
+         * @param nowMillis The time it was recorded at, in epoch milliseconds.
+         */
+        public void forget(long amountMinor, long nowMillis) {
+            if (count != null) {
+                count.subtract(nowMillis, 1);
+            }
+            if (hourly != null) {
+                hourly.subtract(nowMillis, amountMinor);
+            }
+            if (daily != null) {
+                daily.subtract(nowMillis, amountMinor);
+            }
+        }
+
+        /**
+         * Returns how much more can be withdrawn right now under the amount limits.
+         *
+         * @param nowMillis The current time in epoch milliseconds.
+         * @return The amount in paise, or {@link Long#MAX_VALUE} if no amount limit is on.
+         */
+        public long remaining(long nowMillis) {
+            long remaining = Long.MAX_VALUE;
+            if (hourly != null) {
+                remaining = Math.min(remaining, hourlyMinor - hourly.sum(nowMillis));
+            }
+            if (daily != null) {
+                remaining = Math.min(remaining, dailyMinor - daily.sum(nowMillis));
+            }
+            return Math.max(0, remaining);
+        }
+    }
+}